@@ -0,0 +1,33 @@
+/* 
+ * Benchmark launcher
+ *
+ * Copyright 2011 Wappworks Studios
+ */
+package com.wappworks.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Runs the benchmarks with the usual JMH command line options, always adding the GC profiler so that the
+// allocation rate is reported next to the throughput
+public class BenchmarkMain
+{
+	public static void main( String[] args ) throws Exception
+	{
+		CommandLineOptions cmdOptions = new CommandLineOptions( args );
+		if( cmdOptions.shouldHelp() || cmdOptions.shouldList() || cmdOptions.shouldListProfilers() || cmdOptions.shouldListResultFormats() || cmdOptions.shouldListWithParams() )
+		{
+			org.openjdk.jmh.Main.main( args );
+			return;
+		}
+		
+		Options options = new OptionsBuilder()
+			.parent( cmdOptions )
+			.addProfiler( GCProfiler.class )
+			.build();
+		new Runner( options ).run();
+	}
+}
@@ -0,0 +1,89 @@
+/* 
+ * Benchmark support utilities
+ *
+ * Copyright 2011 Wappworks Studios
+ */
+package com.wappworks.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+
+import com.wappworks.common.log.LogWriter;
+
+public class BenchmarkSupport
+{
+	// Discards the log so that logging does not show up in the measurements
+	public static class LogWriterNull implements LogWriter
+	{
+		@Override
+		public void logAppend( String logText )
+		{
+		}
+	}
+	
+	// Discards everything written to it, isolating the encoding cost from the I/O cost
+	public static class WriterNull extends Writer
+	{
+		private long charsWritten = 0;
+		
+		@Override
+		public void write( char[] cbuf, int off, int len )
+		{
+			charsWritten += len;
+		}
+		
+		@Override
+		public void write( int c )
+		{
+			charsWritten++;
+		}
+		
+		@Override
+		public void write( String str, int off, int len )
+		{
+			charsWritten += len;
+		}
+		
+		@Override
+		public void flush()
+		{
+		}
+		
+		@Override
+		public void close()
+		{
+		}
+		
+		public long getCharsWritten()
+		{
+			return( charsWritten );
+		}
+	}
+	
+	public static File createWorkDir() throws IOException
+	{
+		File workDir = File.createTempFile( "sqlite-exporter-bench", "" );
+		workDir.delete();
+		if( !workDir.mkdirs() )
+			throw new IOException( "Cannot create benchmark work folder " + workDir.getAbsolutePath() );
+		
+		return( workDir );
+	}
+	
+	public static void deleteWorkDir( File workDir )
+	{
+		File[] files = workDir.listFiles();
+		if( files != null )
+		{
+			for( File file : files )
+			{
+				if( file.isDirectory() )
+					deleteWorkDir( file );
+				else
+					file.delete();
+			}
+		}
+		workDir.delete();
+	}
+}
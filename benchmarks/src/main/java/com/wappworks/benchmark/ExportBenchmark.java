@@ -0,0 +1,92 @@
+/* 
+ * Whole database export benchmark
+ *
+ * Copyright 2011 Wappworks Studios
+ */
+package com.wappworks.benchmark;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.wappworks.app.sqlite.SqliteConverter;
+import com.wappworks.app.sqlite.SqliteConverterExportConfig;
+
+// Measures SqliteConverter.export() end to end, from the database file to the output file
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class ExportBenchmark
+{
+	@Param( { "XML", "JSON" } )
+	public String format;
+	
+	@Param( { "4" } )
+	public int tables;
+	
+	@Param( { "10000" } )
+	public int rows;
+	
+	@Param( { "8" } )
+	public int columns;
+	
+	@Param( { "MIXED", "TEXT" } )
+	public String typeMix;
+	
+	@Param( { "16" } )
+	public int textLength;
+	
+	@Param( { "1" } )
+	public int threads;
+	
+	private File							workDir;
+	private File							outFile;
+	private SqliteConverter					converter;
+	private SqliteConverter.ExportFormat	exportFormat;
+	private SqliteConverterExportConfig		exportConfig;
+	
+	@Setup( Level.Trial )
+	public void setUp() throws Exception
+	{
+		workDir = BenchmarkSupport.createWorkDir();
+		File dbFile = SyntheticDatabase.create( workDir, tables, rows, columns, SyntheticDatabase.TypeMix.valueOf(typeMix), textLength );
+		outFile = new File( workDir, "export.out" );
+		
+		converter = new SqliteConverter( new BenchmarkSupport.LogWriterNull() );
+		if( !converter.init( dbFile ) )
+			throw new IllegalStateException( "Cannot open the synthetic database" );
+		
+		exportFormat = SqliteConverter.ExportFormat.valueOf( format );
+		exportConfig = new SqliteConverterExportConfig();
+		exportConfig.setExportThreads( threads );
+	}
+	
+	@TearDown( Level.Trial )
+	public void tearDown()
+	{
+		converter.deInit();
+		BenchmarkSupport.deleteWorkDir( workDir );
+	}
+	
+	@Benchmark
+	public Boolean export()
+	{
+		return( converter.export( outFile, exportFormat, exportConfig ) );
+	}
+}
@@ -0,0 +1,151 @@
+/* 
+ * JSON string escaping benchmark
+ *
+ * Copyright 2011 Wappworks Studios
+ */
+package com.wappworks.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.json.JSONObject;
+
+// Compares the table driven JSON string escaping, writing straight to the output, against the original
+// character by character escaping into a StringBuffer (kept here as the baseline). The corpus is a set of
+// text values that are either plain ASCII, mostly non-ASCII (accented and CJK text) or ASCII with some of
+// the characters that need escaping (quotes, backslashes, line breaks, tabs and '</')
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class JsonEscapeBenchmark
+{
+	public enum Corpus
+	{
+		ASCII,
+		NON_ASCII,
+		ESCAPED
+	};
+	
+	private static final String	ASCII_CHARS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789 .,-";
+	private static final String	NON_ASCII_CHARS = "\u00e9\u00e8\u00fc\u00f1\u00e7\u00df\u4e2d\u6587\u5b57\u7b26\u65e5\u672c\uc548\ub155 ab";
+	private static final String	ESCAPED_CHARS = "\"\\\n\t</";
+	private static final int		VALUES_NUM = 1024;
+	
+	@Param( { "ASCII", "NON_ASCII", "ESCAPED" } )
+	public Corpus corpus;
+	
+	@Param( { "64" } )
+	public int textLength;
+	
+	private String[]					values;
+	private BenchmarkSupport.WriterNull	writer;
+	
+	@Setup( Level.Trial )
+	public void setUp()
+	{
+		Random random = new Random( 20111103L );
+		values = new String[ VALUES_NUM ];
+		for( int valueIndex = 0; valueIndex < VALUES_NUM; valueIndex++ )
+		{
+			StringBuilder value = new StringBuilder( textLength );
+			for( int charIndex = 0; charIndex < textLength; charIndex++ )
+			{
+				String chars = (corpus == Corpus.NON_ASCII) ? NON_ASCII_CHARS : ASCII_CHARS;
+				if( corpus == Corpus.ESCAPED && random.nextInt(16) == 0 )
+					chars = ESCAPED_CHARS;
+				value.append( chars.charAt( random.nextInt(chars.length()) ) );
+			}
+			values[ valueIndex ] = value.toString();
+		}
+		
+		writer = new BenchmarkSupport.WriterNull();
+	}
+	
+	@Benchmark
+	public long quoteLegacy() throws Exception
+	{
+		for( String value : values )
+			writer.write( quoteLegacy(value) );
+		return( writer.getCharsWritten() );
+	}
+	
+	@Benchmark
+	public long quoteToString() throws Exception
+	{
+		for( String value : values )
+			writer.write( JSONObject.quote(value) );
+		return( writer.getCharsWritten() );
+	}
+	
+	@Benchmark
+	public long quoteToWriter() throws Exception
+	{
+		for( String value : values )
+			JSONObject.quote( value, writer );
+		return( writer.getCharsWritten() );
+	}
+	
+	// The original JSONObject.quote()
+	private static String quoteLegacy( String string )
+	{
+		if( string == null || string.length() == 0 )
+			return( "\"\"" );
+		
+		char prevChar;
+		char currChar = 0;
+		int length = string.length();
+		StringBuffer quoted = new StringBuffer( length + 4 );
+		quoted.append( '"' );
+		for( int charIndex = 0; charIndex < length; charIndex++ )
+		{
+			prevChar = currChar;
+			currChar = string.charAt( charIndex );
+			switch( currChar )
+			{
+				case '\\':
+				case '"':
+					quoted.append( '\\' );
+					quoted.append( currChar );
+					break;
+				case '/':
+					if( prevChar == '<' )
+						quoted.append( '\\' );
+					quoted.append( currChar );
+					break;
+				case '\b':	quoted.append( "\\b" );		break;
+				case '\t':	quoted.append( "\\t" );		break;
+				case '\n':	quoted.append( "\\n" );		break;
+				case '\f':	quoted.append( "\\f" );		break;
+				case '\r':	quoted.append( "\\r" );		break;
+				default:
+					if( currChar < ' ' || (currChar >= '\u0080' && currChar < '\u00a0') || (currChar >= '\u2000' && currChar < '\u2100') )
+					{
+						String hex = "000" + Integer.toHexString( currChar );
+						quoted.append( "\\u" + hex.substring(hex.length() - 4) );
+					}
+					else
+					{
+						quoted.append( currChar );
+					}
+			}
+		}
+		quoted.append( '"' );
+		return( quoted.toString() );
+	}
+}
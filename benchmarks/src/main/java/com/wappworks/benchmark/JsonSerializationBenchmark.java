@@ -0,0 +1,146 @@
+/* 
+ * JSON serialization benchmark
+ *
+ * Copyright 2011 Wappworks Studios
+ */
+package com.wappworks.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONWriter;
+
+import com.wappworks.common.json.JsonStreamWriter;
+
+// Compares the org.json serializers against JsonStreamWriter on a table of records made up of integer,
+// float and text fields
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class JsonSerializationBenchmark
+{
+	@Param( { "1", "1000" } )
+	public int rows;
+	
+	@Param( { "8" } )
+	public int columns;
+	
+	private String[]					fieldNames;
+	private long[][]					integerValues;
+	private double[][]					floatValues;
+	private String[][]					textValues;
+	private JSONArray					jsonTable;
+	private BenchmarkSupport.WriterNull	writer;
+	
+	@Setup( Level.Trial )
+	public void setUp() throws Exception
+	{
+		Random random = new Random( 20111103L );
+		fieldNames = new String[ columns ];
+		for( int columnIndex = 0; columnIndex < columns; columnIndex++ )
+			fieldNames[ columnIndex ] = "field" + columnIndex;
+		
+		integerValues = new long[ rows ][ columns ];
+		floatValues = new double[ rows ][ columns ];
+		textValues = new String[ rows ][ columns ];
+		jsonTable = new JSONArray();
+		for( int rowIndex = 0; rowIndex < rows; rowIndex++ )
+		{
+			JSONObject jsonRecord = new JSONObject();
+			for( int columnIndex = 0; columnIndex < columns; columnIndex++ )
+			{
+				integerValues[ rowIndex ][ columnIndex ] = random.nextInt();
+				floatValues[ rowIndex ][ columnIndex ] = random.nextInt(1000000) / 100.0;
+				textValues[ rowIndex ][ columnIndex ] = "text value " + random.nextInt();
+				
+				switch( columnIndex % 3 )
+				{
+					case 0:		jsonRecord.put( fieldNames[columnIndex], integerValues[rowIndex][columnIndex] );	break;
+					case 1:		jsonRecord.put( fieldNames[columnIndex], floatValues[rowIndex][columnIndex] );		break;
+					default:	jsonRecord.put( fieldNames[columnIndex], textValues[rowIndex][columnIndex] );		break;
+				}
+			}
+			jsonTable.put( jsonRecord );
+		}
+		
+		writer = new BenchmarkSupport.WriterNull();
+	}
+	
+	@Benchmark
+	public String jsonArrayToString()
+	{
+		return( jsonTable.toString() );
+	}
+	
+	@Benchmark
+	public String jsonArrayToStringIndented() throws Exception
+	{
+		return( jsonTable.toString(2) );
+	}
+	
+	@Benchmark
+	public long jsonWriter() throws Exception
+	{
+		JSONWriter jsonOut = new JSONWriter( writer );
+		jsonOut.array();
+		for( int rowIndex = 0; rowIndex < rows; rowIndex++ )
+		{
+			jsonOut.object();
+			for( int columnIndex = 0; columnIndex < columns; columnIndex++ )
+			{
+				jsonOut.key( fieldNames[columnIndex] );
+				switch( columnIndex % 3 )
+				{
+					case 0:		jsonOut.value( integerValues[rowIndex][columnIndex] );	break;
+					case 1:		jsonOut.value( floatValues[rowIndex][columnIndex] );	break;
+					default:	jsonOut.value( textValues[rowIndex][columnIndex] );		break;
+				}
+			}
+			jsonOut.endObject();
+		}
+		jsonOut.endArray();
+		return( writer.getCharsWritten() );
+	}
+	
+	@Benchmark
+	public long jsonStreamWriter() throws Exception
+	{
+		JsonStreamWriter jsonOut = new JsonStreamWriter( writer, 2 );
+		jsonOut.beginArray();
+		for( int rowIndex = 0; rowIndex < rows; rowIndex++ )
+		{
+			jsonOut.beginObject();
+			for( int columnIndex = 0; columnIndex < columns; columnIndex++ )
+			{
+				jsonOut.key( fieldNames[columnIndex] );
+				switch( columnIndex % 3 )
+				{
+					case 0:		jsonOut.value( integerValues[rowIndex][columnIndex] );	break;
+					case 1:		jsonOut.value( floatValues[rowIndex][columnIndex] );	break;
+					default:	jsonOut.value( textValues[rowIndex][columnIndex] );		break;
+				}
+			}
+			jsonOut.endObject();
+		}
+		jsonOut.endArray();
+		return( writer.getCharsWritten() );
+	}
+}
@@ -0,0 +1,99 @@
+/* 
+ * Number formatting benchmark
+ *
+ * Copyright 2011 Wappworks Studios
+ */
+package com.wappworks.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.json.JSONObject;
+
+import com.wappworks.common.json.JsonStreamWriter;
+
+// Compares writing long and double values through the streaming JSON writer, which formats them straight
+// into a character buffer, against formatting them to strings first (as the writer used to). The doubles
+// are a mix of prices, measurements with a fractional part and the odd very large or small value
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class NumberFormatBenchmark
+{
+	private static final int		VALUES_NUM = 1024;
+	
+	private long[]						longValues;
+	private double[]					doubleValues;
+	private BenchmarkSupport.WriterNull	writer;
+	private JsonStreamWriter			jsonOut;
+	
+	@Setup( Level.Trial )
+	public void setUp() throws Exception
+	{
+		Random random = new Random( 20111103L );
+		longValues = new long[ VALUES_NUM ];
+		doubleValues = new double[ VALUES_NUM ];
+		for( int valueIndex = 0; valueIndex < VALUES_NUM; valueIndex++ )
+		{
+			longValues[ valueIndex ] = (random.nextInt(4) == 0) ? random.nextLong() : random.nextInt( 1000000 );
+			switch( random.nextInt(4) )
+			{
+				case 0:		doubleValues[ valueIndex ] = random.nextInt( 100000 ) / 100.0;					break;
+				case 1:		doubleValues[ valueIndex ] = random.nextDouble() * 1000.0;						break;
+				case 2:		doubleValues[ valueIndex ] = random.nextInt( 1000 );							break;
+				default:	doubleValues[ valueIndex ] = Math.pow( 10.0, random.nextInt(80) - 40 ) * random.nextDouble();
+			}
+		}
+		
+		writer = new BenchmarkSupport.WriterNull();
+		jsonOut = new JsonStreamWriter( writer );
+		jsonOut.beginArray();
+	}
+	
+	@Benchmark
+	public long longToString() throws Exception
+	{
+		for( long value : longValues )
+			writer.write( Long.toString(value) );
+		return( writer.getCharsWritten() );
+	}
+	
+	@Benchmark
+	public long longToWriter() throws Exception
+	{
+		for( long value : longValues )
+			jsonOut.value( value );
+		return( writer.getCharsWritten() );
+	}
+	
+	@Benchmark
+	public long doubleToString() throws Exception
+	{
+		for( double value : doubleValues )
+			writer.write( JSONObject.doubleToString(value) );
+		return( writer.getCharsWritten() );
+	}
+	
+	@Benchmark
+	public long doubleToWriter() throws Exception
+	{
+		for( double value : doubleValues )
+			jsonOut.value( value );
+		return( writer.getCharsWritten() );
+	}
+}
@@ -0,0 +1,127 @@
+/* 
+ * Synthetic SQLite database generator for benchmarking
+ *
+ * Copyright 2011 Wappworks Studios
+ */
+package com.wappworks.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+
+public class SyntheticDatabase
+{
+	// The column types a synthetic table is made up of. MIXED cycles through integer, float and text columns
+	public enum TypeMix
+	{
+		INTEGER,
+		FLOAT,
+		TEXT,
+		MIXED
+	};
+	
+	private static final String	TEXT_CHARS = "abcdefghijklmnopqrstuvwxyz ABCDEFGHIJKLMNOPQRSTUVWXYZ 0123456789";
+	private static final long	RANDOM_SEED = 20111103L;
+	
+	// Creates a database of identically shaped tables named 'table0', 'table1'... The contents are generated
+	// from a fixed seed so that every benchmark run exports the same data
+	public static File create( File dir, int tablesNum, int rowsNum, int columnsNum, TypeMix typeMix, int textLength ) throws IOException, SQLException
+	{
+		File dbFile = File.createTempFile( "synthetic", ".s3db", dir );
+		dbFile.delete();
+		
+		try
+		{
+			Class.forName( "org.sqlite.JDBC" );
+		}
+		catch( ClassNotFoundException e )
+		{
+			throw new SQLException( "SQLite JDBC driver not found", e );
+		}
+		
+		Connection dbConn = DriverManager.getConnection( "jdbc:sqlite:" + dbFile.getPath() );
+		try
+		{
+			dbConn.setAutoCommit( false );
+			Random random = new Random( RANDOM_SEED );
+			for( int tableIndex = 0; tableIndex < tablesNum; tableIndex++ )
+				createTable( dbConn, "table" + tableIndex, rowsNum, columnsNum, typeMix, textLength, random );
+			dbConn.commit();
+		}
+		finally
+		{
+			dbConn.close();
+		}
+		
+		return( dbFile );
+	}
+	
+	private static void createTable( Connection dbConn, String tableName, int rowsNum, int columnsNum, TypeMix typeMix, int textLength, Random random ) throws SQLException
+	{
+		TypeMix[] columnTypes = new TypeMix[ columnsNum ];
+		StringBuilder createSql = new StringBuilder( "create table '" + tableName + "' (id INTEGER PRIMARY KEY" );
+		StringBuilder insertSql = new StringBuilder( "insert into '" + tableName + "' values (?" );
+		for( int columnIndex = 0; columnIndex < columnsNum; columnIndex++ )
+		{
+			columnTypes[ columnIndex ] = typeMix;
+			if( typeMix == TypeMix.MIXED )
+				columnTypes[ columnIndex ] = TypeMix.values()[ columnIndex % 3 ];
+			
+			createSql.append( String.format(", col%1$d %2$s", columnIndex, getSqlType(columnTypes[columnIndex])) );
+			insertSql.append( ", ?" );
+		}
+		
+		Statement dbStat = dbConn.createStatement();
+		dbStat.executeUpdate( createSql.append( ");" ).toString() );
+		dbStat.close();
+		
+		PreparedStatement insertStat = dbConn.prepareStatement( insertSql.append( ");" ).toString() );
+		try
+		{
+			char[] text = new char[ textLength ];
+			for( int rowIndex = 0; rowIndex < rowsNum; rowIndex++ )
+			{
+				insertStat.setLong( 1, rowIndex + 1 );
+				for( int columnIndex = 0; columnIndex < columnsNum; columnIndex++ )
+				{
+					switch( columnTypes[columnIndex] )
+					{
+						case INTEGER:
+							insertStat.setLong( columnIndex + 2, random.nextInt() );
+							break;
+							
+						case FLOAT:
+							insertStat.setDouble( columnIndex + 2, random.nextInt(1000000) / 100.0 );
+							break;
+							
+						default:
+							for( int charIndex = 0; charIndex < textLength; charIndex++ )
+								text[ charIndex ] = TEXT_CHARS.charAt( random.nextInt(TEXT_CHARS.length()) );
+							insertStat.setString( columnIndex + 2, new String(text) );
+							break;
+					}
+				}
+				insertStat.executeUpdate();
+			}
+		}
+		finally
+		{
+			insertStat.close();
+		}
+	}
+	
+	private static String getSqlType( TypeMix columnType )
+	{
+		switch( columnType )
+		{
+			case INTEGER:	return( "INTEGER" );
+			case FLOAT:		return( "REAL" );
+			default:		return( "TEXT" );
+		}
+	}
+}
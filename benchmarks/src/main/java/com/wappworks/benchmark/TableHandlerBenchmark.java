@@ -0,0 +1,100 @@
+/* 
+ * Per record table export benchmark
+ *
+ * Copyright 2011 Wappworks Studios
+ */
+package com.wappworks.benchmark;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.wappworks.app.sqlite.SqliteConverterExportConfig;
+import com.wappworks.app.sqlite.SqliteTableHandler;
+import com.wappworks.common.json.JsonStreamWriter;
+
+// Measures the per record cost of SqliteTableHandler (database read plus encoding) with the output discarded.
+// Scores are per record
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class TableHandlerBenchmark
+{
+	private static final int ROWS = 20000;
+	
+	@Param( { "8" } )
+	public int columns;
+	
+	@Param( { "INTEGER", "FLOAT", "TEXT", "MIXED" } )
+	public String typeMix;
+	
+	@Param( { "16" } )
+	public int textLength;
+	
+	@Param( { "false", "true" } )
+	public boolean pipelined;
+	
+	private File						workDir;
+	private Connection					dbConn;
+	private SqliteTableHandler			tableHandler;
+	private SqliteConverterExportConfig	exportConfig;
+	private BenchmarkSupport.WriterNull	writer;
+	
+	@Setup( Level.Trial )
+	public void setUp() throws Exception
+	{
+		workDir = BenchmarkSupport.createWorkDir();
+		File dbFile = SyntheticDatabase.create( workDir, 1, ROWS, columns, SyntheticDatabase.TypeMix.valueOf(typeMix), textLength );
+		
+		dbConn = DriverManager.getConnection( "jdbc:sqlite:" + dbFile.getPath() );
+		tableHandler = new SqliteTableHandler( "table0", dbConn, new BenchmarkSupport.LogWriterNull() );
+		exportConfig = new SqliteConverterExportConfig();
+		exportConfig.setPipelined( pipelined );
+		writer = new BenchmarkSupport.WriterNull();
+	}
+	
+	@TearDown( Level.Trial )
+	public void tearDown() throws Exception
+	{
+		dbConn.close();
+		BenchmarkSupport.deleteWorkDir( workDir );
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation( ROWS )
+	public long exportXml() throws Exception
+	{
+		tableHandler.exportTableToXml( writer, "\t", exportConfig );
+		return( writer.getCharsWritten() );
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation( ROWS )
+	public long exportJson() throws Exception
+	{
+		JsonStreamWriter jsonOut = new JsonStreamWriter( writer, 2 );
+		jsonOut.beginObject();
+		tableHandler.exportTableToJson( jsonOut, exportConfig );
+		jsonOut.endObject();
+		return( writer.getCharsWritten() );
+	}
+}
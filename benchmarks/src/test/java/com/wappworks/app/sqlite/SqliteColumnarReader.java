@@ -0,0 +1,259 @@
+/* 
+ * SQLite Columnar Reader (tests)
+ *
+ * Copyright 2011 Wappworks Studios
+ */
+package com.wappworks.app.sqlite;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+// Decodes the columnar output as laid out in README.md, so the tests can check that the writer's output
+// reads back as the records exported. It is written from the layout rather than the writer, and reads the
+// packed bits one at a time
+class SqliteColumnarReader
+{
+	private byte[]		bytes;
+	private JSONObject	footer;
+	
+	// The position being read in the chunk, and the bit within its byte while reading packed bits
+	private int			position;
+	private int			bitIndex;
+	
+	SqliteColumnarReader( File columnarFile ) throws IOException, JSONException
+	{
+		bytes = new byte[ (int) columnarFile.length() ];
+		FileInputStream fileIn = new FileInputStream( columnarFile );
+		try
+		{
+			int readLength = 0;
+			while( readLength < bytes.length )
+				readLength += fileIn.read( bytes, readLength, bytes.length - readLength );
+		}
+		finally
+		{
+			fileIn.close();
+		}
+		
+		checkMagic( 0 );
+		checkMagic( bytes.length - SqliteColumnarWriter.MAGIC.length );
+		if( bytes[SqliteColumnarWriter.MAGIC.length] != SqliteColumnarWriter.VERSION )
+			throw new IOException( "Unknown version" );
+		
+		position = bytes.length - SqliteColumnarWriter.MAGIC.length - 4;
+		int footerLength = (int) readLongLE( 4 );
+		footer = new JSONObject( new String(bytes, bytes.length - SqliteColumnarWriter.MAGIC.length - 4 - footerLength, footerLength, "UTF-8") );
+	}
+	
+	JSONObject getTable( String tableName ) throws JSONException
+	{
+		JSONArray tables = footer.getJSONArray( "tables" );
+		for( int tableIndex = 0; tableIndex < tables.length(); tableIndex++ )
+		{
+			if( tables.getJSONObject(tableIndex).getString("name").equals( tableName ) )
+				return( tables.getJSONObject(tableIndex) );
+		}
+		throw new JSONException( "No table " + tableName );
+	}
+	
+	// The column's values (Long, Double, String or null) over all the table's row groups
+	List<Object> readColumn( String tableName, String columnName ) throws IOException, JSONException
+	{
+		JSONObject table = getTable( tableName );
+		int columnIndex = getColumnIndex( table, columnName );
+		String columnType = table.getJSONArray( "columns" ).getJSONObject( columnIndex ).getString( "type" );
+		
+		List<Object> values = new ArrayList<Object>();
+		JSONArray rowGroups = table.getJSONArray( "rowGroups" );
+		for( int rowGroupIndex = 0; rowGroupIndex < rowGroups.length(); rowGroupIndex++ )
+		{
+			JSONObject rowGroup = rowGroups.getJSONObject( rowGroupIndex );
+			JSONObject chunk = rowGroup.getJSONArray( "columns" ).getJSONObject( columnIndex );
+			readChunk( chunk, columnType, rowGroup.getInt("rows"), values );
+		}
+		
+		if( values.size() != table.getInt( "rows" ) )
+			throw new IOException( "Row count mismatch" );
+		return( values );
+	}
+	
+	// The encoding of each of the column's chunks, as given in the footer
+	List<String> getEncodings( String tableName, String columnName ) throws JSONException
+	{
+		JSONObject table = getTable( tableName );
+		int columnIndex = getColumnIndex( table, columnName );
+		
+		List<String> encodings = new ArrayList<String>();
+		JSONArray rowGroups = table.getJSONArray( "rowGroups" );
+		for( int rowGroupIndex = 0; rowGroupIndex < rowGroups.length(); rowGroupIndex++ )
+			encodings.add( rowGroups.getJSONObject(rowGroupIndex).getJSONArray("columns").getJSONObject(columnIndex).getString("encoding") );
+		return( encodings );
+	}
+	
+	private static int getColumnIndex( JSONObject table, String columnName ) throws JSONException
+	{
+		JSONArray columns = table.getJSONArray( "columns" );
+		for( int columnIndex = 0; columnIndex < columns.length(); columnIndex++ )
+		{
+			if( columns.getJSONObject(columnIndex).getString("name").equals( columnName ) )
+				return( columnIndex );
+		}
+		throw new JSONException( "No column " + columnName );
+	}
+	
+	private void readChunk( JSONObject chunk, String columnType, int rowsNum, List<Object> values ) throws IOException, JSONException
+	{
+		position = chunk.getInt( "offset" );
+		int chunkEnd = position + chunk.getInt( "length" );
+		
+		int encoding = bytes[ position++ ];
+		if( !chunk.getString("encoding").equals( new String[] {"PLAIN", "DELTA", "DICTIONARY"}[encoding] ) )
+			throw new IOException( "Encoding mismatch" );
+		
+		int nullsNum = (int) readVarint();
+		boolean[] nulls = new boolean[ rowsNum ];
+		if( nullsNum > 0 )
+		{
+			int nullsFound = 0;
+			for( int rowIndex = 0; rowIndex < rowsNum; rowIndex++ )
+			{
+				nulls[ rowIndex ] = readBits( 1 ) != 0;
+				if( nulls[rowIndex] )
+					nullsFound++;
+			}
+			endBits();
+			if( nullsFound != nullsNum )
+				throw new IOException( "Null count mismatch" );
+		}
+		
+		List<Object> chunkValues = new ArrayList<Object>();
+		int valuesNum = rowsNum - nullsNum;
+		if( columnType.equals( "INTEGER" ) )
+		{
+			if( encoding != SqliteColumnarWriter.ENCODING_DELTA || readVarint() != valuesNum )
+				throw new IOException( "Bad integer chunk" );
+			
+			if( valuesNum > 0 )
+			{
+				long value = unzigzag( readVarint() );
+				chunkValues.add( value );
+				while( chunkValues.size() < valuesNum )
+				{
+					long deltaMin = unzigzag( readVarint() );
+					int bitWidth = bytes[ position++ ];
+					for( int blockIndex = 0; blockIndex < 128 && chunkValues.size() < valuesNum; blockIndex++ )
+					{
+						value += readBits( bitWidth ) + deltaMin;
+						chunkValues.add( value );
+					}
+					endBits();
+				}
+			}
+		}
+		else if( columnType.equals( "FLOAT" ) )
+		{
+			if( encoding != SqliteColumnarWriter.ENCODING_PLAIN )
+				throw new IOException( "Bad float chunk" );
+			
+			for( int valueIndex = 0; valueIndex < valuesNum; valueIndex++ )
+				chunkValues.add( Double.longBitsToDouble( readLongLE(8) ) );
+		}
+		else if( encoding == SqliteColumnarWriter.ENCODING_PLAIN )
+		{
+			for( int valueIndex = 0; valueIndex < valuesNum; valueIndex++ )
+				chunkValues.add( readString() );
+		}
+		else
+		{
+			if( encoding != SqliteColumnarWriter.ENCODING_DICTIONARY )
+				throw new IOException( "Bad string chunk" );
+			
+			String[] dictionary = new String[ (int) readVarint() ];
+			for( int dictionaryIndex = 0; dictionaryIndex < dictionary.length; dictionaryIndex++ )
+				dictionary[ dictionaryIndex ] = readString();
+			
+			int bitWidth = bytes[ position++ ];
+			for( int valueIndex = 0; valueIndex < valuesNum; valueIndex++ )
+				chunkValues.add( dictionary[(int) readBits( bitWidth )] );
+			endBits();
+		}
+		
+		if( position != chunkEnd )
+			throw new IOException( "Chunk length mismatch" );
+		
+		int valueIndex = 0;
+		for( int rowIndex = 0; rowIndex < rowsNum; rowIndex++ )
+			values.add( nulls[rowIndex] ? null : chunkValues.get(valueIndex++) );
+	}
+	
+	private void checkMagic( int offset ) throws IOException
+	{
+		for( int magicIndex = 0; magicIndex < SqliteColumnarWriter.MAGIC.length; magicIndex++ )
+		{
+			if( bytes[offset + magicIndex] != SqliteColumnarWriter.MAGIC[magicIndex] )
+				throw new IOException( "Bad magic" );
+		}
+	}
+	
+	private long readLongLE( int bytesNum )
+	{
+		long value = 0;
+		for( int byteIndex = 0; byteIndex < bytesNum; byteIndex++ )
+			value |= (bytes[position++] & 0xFFL) << (byteIndex * 8);
+		return( value );
+	}
+	
+	private long readVarint()
+	{
+		long value = 0;
+		for( int shift = 0; ; shift += 7 )
+		{
+			int varintByte = bytes[ position++ ];
+			value |= (varintByte & 0x7FL) << shift;
+			if( (varintByte & 0x80) == 0 )
+				return( value );
+		}
+	}
+	
+	private static long unzigzag( long value )
+	{
+		return( (value >>> 1) ^ -(value & 1) );
+	}
+	
+	private String readString() throws IOException
+	{
+		int stringLength = (int) readVarint();
+		String value = new String( bytes, position, stringLength, "UTF-8" );
+		position += stringLength;
+		return( value );
+	}
+	
+	private long readBits( int bitsNum )
+	{
+		long value = 0;
+		for( int valueBit = 0; valueBit < bitsNum; valueBit++ )
+		{
+			value |= (long) ((bytes[position] >> bitIndex) & 1) << valueBit;
+			if( ++bitIndex == 8 )
+			{
+				position++;
+				bitIndex = 0;
+			}
+		}
+		return( value );
+	}
+	
+	private void endBits()
+	{
+		if( bitIndex > 0 )
+			position++;
+		bitIndex = 0;
+	}
+}
@@ -0,0 +1,164 @@
+/* 
+ * SQLite Columnar Writer tests
+ *
+ * Copyright 2011 Wappworks Studios
+ */
+package com.wappworks.app.sqlite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.wappworks.common.log.LogWriter;
+
+// Checks that the columnar output reads back as the records exported, over several row groups, with nulls,
+// integers whose deltas wrap around and strings in both encodings
+public class SqliteColumnarWriterTest
+{
+	private static final int	RECORDS_NUM = 250;
+	private static final int	ROW_GROUP_ROWS = 100;
+	
+	private static final long[]	INTEGER_EDGES = { Long.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE + 1, Long.MAX_VALUE - 1, 0, -1, 1 };
+	
+	private static final LogWriter	LOG_NULL = new LogWriter()
+	{
+		@Override
+		public void logAppend( String logText )
+		{
+		}
+	};
+	
+	@Rule
+	public TemporaryFolder	tempFolder = new TemporaryFolder();
+	
+	private File			dbFile;
+	private SqliteConverter	converter;
+	
+	// The 'word' values are all different, and so plain encoded, except in the second row group where they
+	// are all null. The 'tag' values repeat, and so are dictionary encoded
+	@Before
+	public void setUp() throws Exception
+	{
+		dbFile = tempFolder.newFile( "values.db" );
+		dbFile.delete();
+		
+		Class.forName( "org.sqlite.JDBC" );
+		Connection dbConn = DriverManager.getConnection( "jdbc:sqlite:" + dbFile.getAbsolutePath() );
+		try
+		{
+			Statement stat = dbConn.createStatement();
+			stat.executeUpdate( "create table Vals (id INTEGER primary key, num INTEGER, price REAL, tag TEXT, word TEXT);" );
+			stat.close();
+			
+			Random random = new Random( 1 );
+			dbConn.setAutoCommit( false );
+			PreparedStatement insertStat = dbConn.prepareStatement( "insert into Vals (num, price, tag, word) values (?, ?, ?, ?);" );
+			for( int recordIndex = 0; recordIndex < RECORDS_NUM; recordIndex++ )
+			{
+				if( recordIndex % 7 == 0 )
+					insertStat.setNull( 1, Types.INTEGER );
+				else if( recordIndex % 2 == 0 )
+					insertStat.setLong( 1, INTEGER_EDGES[(recordIndex / 2) % INTEGER_EDGES.length] );
+				else
+					insertStat.setLong( 1, random.nextLong() );
+				
+				if( recordIndex % 5 == 0 )
+					insertStat.setNull( 2, Types.REAL );
+				else
+					insertStat.setDouble( 2, random.nextDouble() * 1000 );
+				
+				if( recordIndex % 3 == 0 )
+					insertStat.setNull( 3, Types.VARCHAR );
+				else
+					insertStat.setString( 3, "tag " + (recordIndex % 4) );
+				
+				if( recordIndex / ROW_GROUP_ROWS == 1 )
+					insertStat.setNull( 4, Types.VARCHAR );
+				else
+					insertStat.setString( 4, "word é " + recordIndex );
+				
+				insertStat.executeUpdate();
+			}
+			insertStat.close();
+			dbConn.commit();
+		}
+		finally
+		{
+			dbConn.close();
+		}
+		
+		converter = new SqliteConverter( LOG_NULL );
+		assertTrue( converter.init( dbFile ) );
+	}
+	
+	@After
+	public void tearDown()
+	{
+		converter.deInit();
+	}
+	
+	@Test
+	public void roundTrip() throws Exception
+	{
+		File columnarFile = tempFolder.newFile( "values.sqlc" );
+		JSONObject jsonConfig = new JSONObject( String.format("{ rowGroupRows: %1$d }", ROW_GROUP_ROWS) );
+		assertTrue( converter.export( columnarFile, SqliteConverter.ExportFormat.COLUMNAR, new SqliteConverterExportConfig(jsonConfig) ) );
+		
+		SqliteColumnarReader columnarIn = new SqliteColumnarReader( columnarFile );
+		assertEquals( 3, columnarIn.getTable( "Vals" ).getJSONArray( "rowGroups" ).length() );
+		for( String column : new String[] { "id", "num", "price", "tag", "word" } )
+			assertEquals( column, readColumn( column ), columnarIn.readColumn( "Vals", column ) );
+		
+		assertEquals( Arrays.asList( "DICTIONARY", "DICTIONARY", "DICTIONARY" ), columnarIn.getEncodings( "Vals", "tag" ) );
+		assertEquals( Arrays.asList( "PLAIN", "PLAIN", "PLAIN" ), columnarIn.getEncodings( "Vals", "word" ) );
+	}
+	
+	// The column's values as read through the driver
+	private List<Object> readColumn( String column ) throws Exception
+	{
+		List<Object> values = new ArrayList<Object>();
+		Connection dbConn = DriverManager.getConnection( "jdbc:sqlite:" + dbFile.getAbsolutePath() );
+		try
+		{
+			Statement stat = dbConn.createStatement();
+			ResultSet rs = stat.executeQuery( String.format("select %1$s, typeof(%1$s) from Vals order by rowid;", column) );
+			while( rs.next() )
+			{
+				String type = rs.getString( 2 );
+				if( type.equals( "null" ) )
+					values.add( null );
+				else if( type.equals( "integer" ) )
+					values.add( rs.getLong(1) );
+				else if( type.equals( "real" ) )
+					values.add( rs.getDouble(1) );
+				else
+					values.add( rs.getString(1) );
+			}
+			rs.close();
+			stat.close();
+		}
+		finally
+		{
+			dbConn.close();
+		}
+		return( values );
+	}
+}
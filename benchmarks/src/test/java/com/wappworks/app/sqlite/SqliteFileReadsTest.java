@@ -0,0 +1,201 @@
+/* 
+ * SQLite file read tests
+ *
+ * Copyright 2011 Wappworks Studios
+ */
+package com.wappworks.app.sqlite;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Vector;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.wappworks.common.log.LogWriter;
+
+// Checks that reading the records straight from the database file (which is opt-in) gives the same export
+// as reading them through the driver, that nothing can write to the database while it is read, and that the
+// database is left unlocked once the export is done
+public class SqliteFileReadsTest
+{
+	private static final int	RECORDS_NUM = 2000;
+	private static final String	LOG_EXPORT_START = "Exporting contents for table 'Records'";
+	private static final String	LOG_DRIVER_READS = "Reading records through the database driver";
+	
+	// Keeps the log, and notes whether the records were being read from the file as the table's export
+	// started. If asked to, it also tries to write to the database then, and notes whether that was refused
+	private class ExportLog implements LogWriter
+	{
+		List<String>	logLines = new Vector<String>();
+		boolean			exportInsert = false;
+		boolean			exportFileReads = false;
+		boolean			exportInsertRefused = false;
+		
+		@Override
+		public void logAppend( String logText )
+		{
+			logLines.add( logText );
+			if( !logText.equals( LOG_EXPORT_START ) )
+				return;
+			
+			exportFileReads = converter.isFileReads( "Records" );
+			if( !exportInsert )
+				return;
+			
+			try
+			{
+				insertRecord();
+			}
+			catch( SQLException e )
+			{
+				exportInsertRefused = true;
+			}
+		}
+		
+		String findDriverReads()
+		{
+			for( String logLine : logLines )
+			{
+				if( logLine.startsWith( LOG_DRIVER_READS ) )
+					return( logLine );
+			}
+			return( null );
+		}
+	}
+	
+	@Rule
+	public TemporaryFolder	tempFolder = new TemporaryFolder();
+	
+	private File			dbFile;
+	private ExportLog		exportLog;
+	private SqliteConverter	converter;
+	
+	@Before
+	public void setUp() throws Exception
+	{
+		dbFile = tempFolder.newFile( "records.db" );
+		dbFile.delete();
+		
+		Class.forName( "org.sqlite.JDBC" );
+		Connection dbConn = DriverManager.getConnection( "jdbc:sqlite:" + dbFile.getAbsolutePath() );
+		try
+		{
+			Statement stat = dbConn.createStatement();
+			stat.executeUpdate( "create table Records (id integer primary key, count integer, price real, label text, misc);" );
+			stat.close();
+			
+			dbConn.setAutoCommit( false );
+			PreparedStatement insertStat = dbConn.prepareStatement( "insert into Records (count, price, label, misc) values (?, ?, ?, ?);" );
+			for( int recordIndex = 0; recordIndex < RECORDS_NUM; recordIndex++ )
+			{
+				insertStat.setLong( 1, recordIndex * 1000003L - 1000000L );
+				insertStat.setDouble( 2, (recordIndex % 3 == 0) ? recordIndex : recordIndex / 7.0 );
+				if( recordIndex % 5 == 0 )
+					insertStat.setNull( 3, java.sql.Types.VARCHAR );
+				else
+					insertStat.setString( 3, "Label <" + recordIndex + "> é" );
+				if( recordIndex % 2 == 0 )
+					insertStat.setLong( 4, recordIndex );
+				else
+					insertStat.setString( 4, "misc " + recordIndex );
+				insertStat.executeUpdate();
+			}
+			insertStat.close();
+			dbConn.commit();
+		}
+		finally
+		{
+			dbConn.close();
+		}
+		
+		exportLog = new ExportLog();
+		converter = new SqliteConverter( exportLog );
+		assertTrue( converter.init( dbFile ) );
+	}
+	
+	@After
+	public void tearDown()
+	{
+		converter.deInit();
+	}
+	
+	@Test
+	public void fileReadsMatchDriverReads() throws Exception
+	{
+		for( SqliteConverter.ExportFormat format : new SqliteConverter.ExportFormat[] { SqliteConverter.ExportFormat.XML, SqliteConverter.ExportFormat.JSON, SqliteConverter.ExportFormat.CSV } )
+		{
+			File driverFile = tempFolder.newFile( "driver." + format.name() );
+			File fileReadsFile = tempFolder.newFile( "file." + format.name() );
+			assertTrue( converter.export( driverFile, format, new SqliteConverterExportConfig() ) );
+			assertFalse( format.name(), exportLog.exportFileReads );
+			assertTrue( converter.export( fileReadsFile, format, new SqliteConverterExportConfig(new JSONObject("{ fileReads: true }")) ) );
+			assertTrue( format.name(), exportLog.exportFileReads );
+			assertArrayEquals( format.name(), readFile( driverFile ), readFile( fileReadsFile ) );
+		}
+		
+		assertNull( exportLog.findDriverReads() );
+	}
+	
+	// A write to the database is refused while the export reads the file, and goes through once it is done
+	@Test
+	public void lockedDuringExport() throws Exception
+	{
+		exportLog.exportInsert = true;
+		File outFile = tempFolder.newFile( "records.json" );
+		assertTrue( converter.export( outFile, SqliteConverter.ExportFormat.JSON, new SqliteConverterExportConfig(new JSONObject("{ fileReads: true }")) ) );
+		assertTrue( exportLog.exportFileReads );
+		assertTrue( exportLog.exportInsertRefused );
+		assertNull( exportLog.findDriverReads() );
+		
+		insertRecord();
+	}
+	
+	private void insertRecord() throws SQLException
+	{
+		Connection dbConn = DriverManager.getConnection( "jdbc:sqlite:" + dbFile.getAbsolutePath() );
+		try
+		{
+			Statement stat = dbConn.createStatement();
+			stat.executeUpdate( "insert into Records (count) values (1);" );
+			stat.close();
+		}
+		finally
+		{
+			dbConn.close();
+		}
+	}
+	
+	private static byte[] readFile( File file ) throws IOException
+	{
+		byte[] contents = new byte[ (int) file.length() ];
+		FileInputStream fileIn = new FileInputStream( file );
+		try
+		{
+			int readLength = 0;
+			while( readLength < contents.length )
+				readLength += fileIn.read( contents, readLength, contents.length - readLength );
+		}
+		finally
+		{
+			fileIn.close();
+		}
+		return( contents );
+	}
+}
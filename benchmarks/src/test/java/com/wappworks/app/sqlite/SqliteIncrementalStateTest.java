@@ -0,0 +1,97 @@
+/* 
+ * SQLite incremental export state tests
+ *
+ * Copyright 2011 Wappworks Studios
+ */
+package com.wappworks.app.sqlite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+// Checks that replacing the state file never loses the state, even if the write is interrupted part way
+public class SqliteIncrementalStateTest
+{
+	@Rule
+	public TemporaryFolder	tempFolder = new TemporaryFolder();
+	
+	private File	stateFile;
+	private File	stateFileTemp;
+	private File	stateFileBackup;
+	
+	@Before
+	public void setUp() throws Exception
+	{
+		File stateDir = tempFolder.newFolder( "state" );
+		stateFile = new File( stateDir, "export.state" );
+		stateFileTemp = new File( stateFile.getPath() + ".tmp" );
+		stateFileBackup = new File( stateFile.getPath() + ".bak" );
+	}
+	
+	@Test
+	public void writeReplacesState() throws Exception
+	{
+		writeState( 1 );
+		writeState( 2 );
+		
+		assertEquals( 2L, readWatermark() );
+		assertFalse( stateFileTemp.exists() );
+		assertFalse( stateFileBackup.exists() );
+	}
+	
+	@Test
+	public void readRecoversInterruptedWrite() throws Exception
+	{
+		// Interrupted once the previous state file was moved aside: the new state is in the temporary file
+		File stateFileNew = new File( stateFile.getPath() + ".new" );
+		writeState( stateFileNew, 2 );
+		writeState( stateFile, 1 );
+		stateFile.renameTo( stateFileBackup );
+		stateFileNew.renameTo( stateFileTemp );
+		
+		assertEquals( 2L, readWatermark() );
+	}
+	
+	@Test
+	public void readRecoversTruncatedWrite() throws Exception
+	{
+		// The temporary file cannot be read, so the previous state is recovered from the backup file
+		writeState( 1 );
+		stateFile.renameTo( stateFileBackup );
+		new FileOutputStream( stateFileTemp ).close();
+		
+		assertEquals( 1L, readWatermark() );
+	}
+	
+	@Test
+	public void readMissingState() throws Exception
+	{
+		assertNull( SqliteIncrementalState.read(stateFile).getWatermark("Records", "id") );
+	}
+	
+	private void writeState( long inWatermark ) throws Exception
+	{
+		writeState( stateFile, inWatermark );
+	}
+	
+	private void writeState( File inStateFile, long inWatermark ) throws Exception
+	{
+		SqliteIncrementalState state = SqliteIncrementalState.read( inStateFile );
+		state.setWatermark( "Records", "id", inWatermark );
+		state.write( inStateFile );
+	}
+	
+	private Object readWatermark() throws Exception
+	{
+		Object watermark = SqliteIncrementalState.read( stateFile ).getWatermark( "Records", "id" );
+		return( ((Number) watermark).longValue() );
+	}
+}
@@ -0,0 +1,219 @@
+/* 
+ * SQLite Parallel Export tests
+ *
+ * Copyright 2011 Wappworks Studios
+ */
+package com.wappworks.app.sqlite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.CountDownLatch;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.wappworks.common.log.LogWriter;
+
+// Checks that a parallel export that fails part way through shuts down, rather than waiting on fragment
+// exports that were dropped from the queue and will never run
+public class SqliteParallelExportTest
+{
+	private static final int	RECORDS_NUM = 1000;
+	private static final long	TIMEOUT_MILLIS = 20000;
+	
+	private static final LogWriter	LOG_NULL = new LogWriter()
+	{
+		@Override
+		public void logAppend( String logText )
+		{
+		}
+	};
+	
+	@Rule
+	public TemporaryFolder	tempFolder = new TemporaryFolder();
+	
+	private File			dbFile;
+	private SqliteConverter	converter;
+	
+	@Before
+	public void setUp() throws Exception
+	{
+		dbFile = tempFolder.newFile( "people.db" );
+		dbFile.delete();
+		
+		Class.forName( "org.sqlite.JDBC" );
+		Connection dbConn = DriverManager.getConnection( "jdbc:sqlite:" + dbFile.getAbsolutePath() );
+		try
+		{
+			Statement stat = dbConn.createStatement();
+			stat.executeUpdate( "create table People (id integer primary key, name text, age integer);" );
+			stat.close();
+			
+			dbConn.setAutoCommit( false );
+			PreparedStatement insertStat = dbConn.prepareStatement( "insert into People (name, age) values (?, ?);" );
+			for( int recordIndex = 0; recordIndex < RECORDS_NUM; recordIndex++ )
+			{
+				insertStat.setString( 1, "Person " + recordIndex );
+				insertStat.setInt( 2, recordIndex % 90 );
+				insertStat.executeUpdate();
+			}
+			insertStat.close();
+			dbConn.commit();
+		}
+		finally
+		{
+			dbConn.close();
+		}
+		
+		converter = new SqliteConverter( LOG_NULL );
+		assertTrue( converter.init( dbFile ) );
+	}
+	
+	@After
+	public void tearDown()
+	{
+		converter.deInit();
+	}
+	
+	// One export thread, busy with the first fragment while the second is still queued when the export is
+	// abandoned. The queued fragment never starts, and shutting down must not wait on it
+	@Test( timeout = TIMEOUT_MILLIS )
+	public void shutdownWithQueuedFragments() throws Exception
+	{
+		File fragmentDir = tempFolder.newFolder( "fragments" );
+		SqliteParallelExport parallelExport = new SqliteParallelExport( converter, 1, fragmentDir, LOG_NULL );
+		
+		final CountDownLatch exportStarted = new CountDownLatch( 1 );
+		final CountDownLatch exportReleased = new CountDownLatch( 1 );
+		Connection dbConn = converter.openConnection();
+		try
+		{
+			SqliteTableHandler tableHandler = new SqliteTableHandler( "People", dbConn, LOG_NULL );
+			parallelExport.submit( tableHandler, new SqliteParallelExport.FragmentExporter()
+			{
+				@Override
+				public void export( SqliteTableHandler fragmentHandler, Writer fragmentOut ) throws SQLException, IOException
+				{
+					exportStarted.countDown();
+					try
+					{
+						exportReleased.await();
+					}
+					catch( InterruptedException e )
+					{
+						throw new InterruptedIOException();
+					}
+				}
+			});
+			parallelExport.submit( tableHandler, new SqliteParallelExport.FragmentExporter()
+			{
+				@Override
+				public void export( SqliteTableHandler fragmentHandler, Writer fragmentOut ) throws SQLException, IOException
+				{
+					fragmentHandler.exportTableToXml( fragmentOut, "\t", new SqliteConverterExportConfig() );
+				}
+			});
+			
+			exportStarted.await();
+			parallelExport.shutdown();
+		}
+		finally
+		{
+			exportReleased.countDown();
+			dbConn.close();
+		}
+		
+		assertEquals( 0, getFragmentFiles( fragmentDir ).length );
+	}
+	
+	// Interrupted while waiting for a fragment: the fragment's table is recorded as failed and the export
+	// fails, rather than leave the fragment out of the output
+	@Test( timeout = TIMEOUT_MILLIS )
+	public void interruptedWaitingForFragment() throws Exception
+	{
+		File fragmentDir = tempFolder.newFolder( "fragments" );
+		SqliteParallelExport parallelExport = new SqliteParallelExport( converter, 1, fragmentDir, LOG_NULL );
+		
+		final CountDownLatch exportReleased = new CountDownLatch( 1 );
+		Connection dbConn = converter.openConnection();
+		try
+		{
+			SqliteTableHandler tableHandler = new SqliteTableHandler( "People", dbConn, LOG_NULL );
+			SqliteParallelExport.Fragment fragment = parallelExport.submit( tableHandler, new SqliteParallelExport.FragmentExporter()
+			{
+				@Override
+				public void export( SqliteTableHandler fragmentHandler, Writer fragmentOut ) throws SQLException, IOException
+				{
+					try
+					{
+						exportReleased.await();
+					}
+					catch( InterruptedException e )
+					{
+						throw new InterruptedIOException();
+					}
+				}
+			});
+			
+			Thread.currentThread().interrupt();
+			try
+			{
+				fragment.appendTo( new StringWriter() );
+				fail( "Appending the fragment should have been interrupted" );
+			}
+			catch( InterruptedIOException e )
+			{
+			}
+			assertTrue( Thread.interrupted() );
+			assertTrue( parallelExport.getFailedTables().contains( "People" ) );
+		}
+		finally
+		{
+			exportReleased.countDown();
+			parallelExport.shutdown();
+			dbConn.close();
+		}
+	}
+	
+	// The whole export, failing when the output cannot be written to
+	@Test( timeout = TIMEOUT_MILLIS )
+	public void exportToFullDevice() throws Exception
+	{
+		File fullDevice = new File( "/dev/full" );
+		Assume.assumeTrue( fullDevice.exists() );
+		
+		JSONObject jsonConfig = new JSONObject( "{ threads: 2, partitionRows: 50, outputBufferSize: 4096 }" );
+		assertFalse( converter.export( fullDevice, SqliteConverter.ExportFormat.XML, new SqliteConverterExportConfig(jsonConfig) ) );
+	}
+	
+	private static File[] getFragmentFiles( File fragmentDir )
+	{
+		return( fragmentDir.listFiles( new FilenameFilter()
+		{
+			@Override
+			public boolean accept( File dir, String name )
+			{
+				return( name.endsWith( ".part" ) );
+			}
+		}) );
+	}
+}
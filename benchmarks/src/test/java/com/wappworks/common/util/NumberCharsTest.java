@@ -0,0 +1,160 @@
+/* 
+ * Number to character conversion tests
+ *
+ * Copyright 2011 Wappworks Studios
+ */
+package com.wappworks.common.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringWriter;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.wappworks.common.json.JsonStreamWriter;
+
+// Checks the number formatting against Long.toString() and Double.toString(), on edge cases and random bit
+// patterns. Double.toString() only gives the shortest digits from Java 19 on: on earlier runtimes the
+// doubles are checked to read back as the same value in no more characters than Double.toString() uses
+public class NumberCharsTest
+{
+	private static final int		RANDOM_VALUES_NUM = 1000000;
+	private static final boolean	SHORTEST_TO_STRING = getJavaVersion() >= 19;
+	
+	private static final double[]	DOUBLE_EDGES =
+	{
+		0.0, -0.0, 1.0, -1.0, 0.1, 0.2, 0.3, 1.0 / 3, 2.0 / 3, Math.PI, Math.E,
+		Double.MIN_VALUE, -Double.MIN_VALUE, 2 * Double.MIN_VALUE, 3 * Double.MIN_VALUE, Double.MIN_NORMAL,
+		Math.nextDown(Double.MIN_NORMAL), Math.nextUp(Double.MIN_NORMAL), Double.MAX_VALUE, -Double.MAX_VALUE,
+		Math.nextDown(Double.MAX_VALUE), Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+		9007199254740992.0, 9007199254740993.0, 9007199254740991.0, 9007199254740994.0, -9007199254740992.0,
+		1.0E-3, Math.nextDown(1.0E-3), 1.0E7, Math.nextDown(1.0E7), 9999999.999999998, 0.001, 0.0009999999999999998,
+		2.0E-3, 1.0E23, 8.41E21, 5.0E-324, 4.9E-324, 1.7976931348623157E308, 2.2250738585072014E-308,
+		123456789012345680.0, 1.2345678901234567E-300, 100.0, 1000000.0, 12345.678
+	};
+	
+	private static final long[]		LONG_EDGES =
+	{
+		0, 1, -1, 9, 10, -10, 99, 100, Integer.MAX_VALUE, Integer.MIN_VALUE, 999999999999999999L, 1000000000000000000L,
+		-1000000000000000000L, Long.MAX_VALUE, Long.MIN_VALUE, Long.MIN_VALUE + 1
+	};
+	
+	@Test
+	public void formatDoubleEdges()
+	{
+		for( double value : DOUBLE_EDGES )
+			checkDouble( value );
+		
+		// Every power of ten, and its neighbours
+		for( int exponent = -323; exponent <= 308; exponent++ )
+		{
+			double value = Double.parseDouble( "1.0E" + exponent );
+			checkDouble( value );
+			checkDouble( Math.nextUp(value) );
+			checkDouble( Math.nextDown(value) );
+		}
+		
+		// Every power of two, and its neighbours
+		for( int exponent = -1074; exponent <= 1023; exponent++ )
+		{
+			double value = Math.scalb( 1.0, exponent );
+			checkDouble( value );
+			checkDouble( Math.nextUp(value) );
+			checkDouble( Math.nextDown(value) );
+		}
+	}
+	
+	@Test
+	public void formatDoubleRandom()
+	{
+		Random random = new Random( 1 );
+		for( int valueIndex = 0; valueIndex < RANDOM_VALUES_NUM; valueIndex++ )
+			checkDouble( Double.longBitsToDouble(random.nextLong()) );
+		
+		// Subnormals, and values with few digits
+		for( int valueIndex = 0; valueIndex < RANDOM_VALUES_NUM / 10; valueIndex++ )
+		{
+			checkDouble( Double.longBitsToDouble(random.nextLong() & ((1L << 52) - 1)) );
+			checkDouble( random.nextInt(1000000) / 1000.0 );
+		}
+	}
+	
+	@Test
+	public void formatLong()
+	{
+		for( long value : LONG_EDGES )
+			checkLong( value );
+		
+		for( long value = 1; value > 0 && value < Long.MAX_VALUE / 10 + 1; value *= 10 )
+		{
+			checkLong( value );
+			checkLong( value - 1 );
+			checkLong( -value );
+			checkLong( 1 - value );
+		}
+		
+		Random random = new Random( 1 );
+		for( int valueIndex = 0; valueIndex < RANDOM_VALUES_NUM; valueIndex++ )
+		{
+			checkLong( random.nextLong() );
+			checkLong( random.nextLong() >> random.nextInt(64) );
+		}
+	}
+	
+	// JSON values drop the trailing ".0" of whole numbers
+	@Test
+	public void jsonValues() throws Exception
+	{
+		Random random = new Random( 1 );
+		for( int valueIndex = 0; valueIndex < RANDOM_VALUES_NUM / 10; valueIndex++ )
+		{
+			double value = (valueIndex < DOUBLE_EDGES.length) ? DOUBLE_EDGES[ valueIndex ] : Double.longBitsToDouble( random.nextLong() );
+			if( Double.isNaN(value) || Double.isInfinite(value) )
+				continue;
+			
+			StringWriter jsonOut = new StringWriter();
+			new JsonStreamWriter( jsonOut ).value( value ).flush();
+			String expected = SHORTEST_TO_STRING ? Double.toString( value ) : formatDouble( value );
+			if( expected.endsWith( ".0" ) )
+				expected = expected.substring( 0, expected.length() - 2 );
+			assertEquals( expected, jsonOut.toString() );
+		}
+	}
+	
+	private static void checkDouble( double value )
+	{
+		String formatted = formatDouble( value );
+		String expected = Double.toString( value );
+		if( SHORTEST_TO_STRING )
+		{
+			assertEquals( expected, formatted );
+			return;
+		}
+		
+		assertEquals( expected, Double.doubleToLongBits(value), Double.doubleToLongBits(Double.parseDouble(formatted)) );
+		assertTrue( expected + " " + formatted, formatted.length() <= expected.length() );
+	}
+	
+	private static void checkLong( long value )
+	{
+		char[] formatChars = new char[ NumberChars.LONG_CHARS_MAX ];
+		assertEquals( Long.toString(value), new String(formatChars, 0, NumberChars.formatLong(value, formatChars, 0)) );
+	}
+	
+	private static String formatDouble( double value )
+	{
+		char[] formatChars = new char[ NumberChars.DOUBLE_CHARS_MAX ];
+		return( new String(formatChars, 0, NumberChars.formatDouble(value, formatChars, 0)) );
+	}
+	
+	// The runtime's Java version: "1.8" is version 8, and "17" is version 17
+	private static int getJavaVersion()
+	{
+		String version = System.getProperty( "java.specification.version" );
+		if( version.startsWith( "1." ) )
+			version = version.substring( 2 );
+		return( Integer.parseInt( version ) );
+	}
+}
@@ -6,9 +6,16 @@
 package com.wappworks.app;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+import org.json.JSONException;
+import org.json.JSONObject;
 
 import com.wappworks.app.sqlite.SqliteConverter;
 import com.wappworks.app.sqlite.SqliteConverterExportConfig;
+import com.wappworks.common.json.JsonStreamReader;
 import com.wappworks.common.log.LogWriter;
 import com.wappworks.common.log.LogWriterConsole;
 
@@ -34,6 +41,13 @@ public class SqliteExporter
 			return( false );
 		}
 		
+		// Opening a missing database would quietly create an empty one
+		if( !dbFile.isFile() )
+		{
+			addLogText( String.format("Sqlite DB file '%1$s' does not exist. Aborting...", dbFile.getAbsolutePath()) );
+			return( false );
+		}
+		
 		converter = new SqliteConverter( logWriter );
 		if( !converter.init( dbFile ) )
 		{
@@ -61,6 +75,44 @@ public class SqliteExporter
 		return( true );
 	}
 	
+	// Exports the changes from the base database to the one being exported, as JSON
+	protected boolean exportDiff( File exportFile, File baseDbFile, SqliteConverterExportConfig exportConfig )
+	{
+		if( converter == null )
+		{
+			addLogText( String.format("Trying to export to file '%s' without starting up export. Aborting... ", exportFile.getAbsolutePath()) );
+			return( false );
+		}
+		
+		if( !baseDbFile.isFile() )
+		{
+			addLogText( String.format("Base Sqlite DB file '%1$s' does not exist. Aborting...", baseDbFile.getAbsolutePath()) );
+			return( false );
+		}
+		
+		SqliteConverter baseConverter = new SqliteConverter( logWriter );
+		if( !baseConverter.init( baseDbFile ) )
+		{
+			addLogText( "Base Sqlite DB file is invalid. Aborting..." );
+			return( false );
+		}
+		
+		try
+		{
+			if( !converter.exportDiff( exportFile, baseConverter, exportConfig ) )
+			{
+				addLogText( "Failed to export database changes to file " + exportFile.getAbsolutePath() );
+				return( false );
+			}
+		}
+		finally
+		{
+			baseConverter.deInit();
+		}
+		
+		return( true );
+	}
+	
 	protected void endExport()
 	{
 		if( converter == null )
@@ -70,6 +122,52 @@ public class SqliteExporter
 		converter = null;
 	}
 	
+	// Reads the JSON-encoded (UTF-8) export configuration file. Returns null if the file cannot be read or is invalid.
+	// The file is parsed as it is read, so there is no limit on its size
+	protected JSONObject readExportConfig( File configFileIn )
+	{
+		try
+		{
+			JsonStreamReader configIn = new JsonStreamReader( new InputStreamReader(new FileInputStream(configFileIn), "UTF-8") );
+			try
+			{
+				return( configIn.readObject() );
+			}
+			finally
+			{
+				configIn.close();
+			}
+		}
+		catch( IOException e )
+		{
+			addLogText( String.format("WARNING: Ignoring configuration file '%1$s' because it cannot be read", configFileIn.getAbsolutePath()) );
+			return( null );
+		}
+		catch (JSONException e)
+		{
+			addLogText( String.format("WARNING: Ignoring configuration file '%1$s' because of invalid data: [%2$s]", configFileIn.getAbsolutePath(), e.getMessage()) );
+			return( null );
+		}
+	}
+	
+	// Combines the common section of the export configuration with the section specific to the export format
+	protected SqliteConverterExportConfig getFormatConfig( JSONObject exportConfig, SqliteConverter.ExportFormat format )
+	{
+		SqliteConverterExportConfig formatConfig = new SqliteConverterExportConfig();
+		if( exportConfig == null )
+			return( formatConfig );
+		
+		JSONObject jsonConfigCommon = exportConfig.optJSONObject( "common" );
+		if( jsonConfigCommon != null )
+			formatConfig.add( jsonConfigCommon );
+		
+		JSONObject jsonConfigFormat = exportConfig.optJSONObject( format.name().toLowerCase() );
+		if( jsonConfigFormat != null )
+			formatConfig.add( jsonConfigFormat );
+		
+		return( formatConfig );
+	}
+	
 	protected void addLogText( String logText )
 	{
 		if( logWriter == null )
@@ -0,0 +1,313 @@
+/*
+ * SQLite Exporter command line interface
+ *
+ * Copyright 2011 Wappworks Studios
+ */
+package com.wappworks.app;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.wappworks.app.sqlite.SqliteConverter.ExportFormat;
+
+public class SqliteExporterCli extends SqliteExporter
+{
+	private static final String OPTION_DB			= "db";
+	private static final String OPTION_CONFIG		= "config";
+	private static final String OPTION_JOBS			= "jobs";
+	private static final String OPTION_BASE			= "base";
+
+	private static final int EXITCODE_SUCCESS		= 0;
+	private static final int EXITCODE_EXPORTFAILED	= 1;
+	private static final int EXITCODE_BADARGS		= 2;
+
+	// A single database export: the database, its export configuration and an output file per export format.
+	// If a base database is given, the changes from the base database are exported instead (JSON only)
+	private static class ExportJob
+	{
+		File					dbFile = null;
+		File					baseDbFile = null;
+		File					configFile = null;
+		Map<ExportFormat, File>	outFiles = new HashMap<ExportFormat, File>();
+	}
+
+	public static void main(String args[])
+	{
+		SqliteExporterCli exporter = new SqliteExporterCli();
+		System.exit( exporter.run( args ) );
+	}
+
+	public SqliteExporterCli()
+	{
+		super();
+	}
+
+	// Runs the exports described by the command line. Returns the process exit code
+	public int run( String args[] )
+	{
+		Map<String, String> options = parseOptions( args );
+		if( options == null )
+		{
+			printUsage();
+			return( EXITCODE_BADARGS );
+		}
+
+		List<ExportJob> jobs;
+		String jobsFilePath = options.remove( OPTION_JOBS );
+		if( jobsFilePath != null )
+			jobs = readJobs( new File(jobsFilePath), options );
+		else
+			jobs = getJobs( options );
+
+		if( jobs == null )
+		{
+			printUsage();
+			return( EXITCODE_BADARGS );
+		}
+
+		// All the jobs run within the same JVM, so only the first one pays for the start up and warm up
+		int jobsFailed = 0;
+		for( ExportJob job : jobs )
+		{
+			if( !runJob( job ) )
+				jobsFailed++;
+		}
+
+		addLogText( String.format("%1$d of %2$d export jobs completed successfully", jobs.size() - jobsFailed, jobs.size()) );
+		return( jobsFailed == 0 ? EXITCODE_SUCCESS : EXITCODE_EXPORTFAILED );
+	}
+
+	private boolean runJob( ExportJob job )
+	{
+		addLogText( String.format("Exporting SQLite file '%1$s'", job.dbFile.getAbsolutePath()) );
+
+		JSONObject exportConfig = null;
+		if( job.configFile != null )
+			exportConfig = readExportConfig( job.configFile );
+
+		if( !beginExport( job.dbFile ) )
+		{
+			addLogText( "Cannot initiate DB export. Aborting..." );
+			endExport();
+			return( false );
+		}
+
+		boolean exported = true;
+		for( ExportFormat format : ExportFormat.values() )
+		{
+			File outFile = job.outFiles.get( format );
+			if( outFile == null )
+				continue;
+
+			boolean formatExported;
+			if( job.baseDbFile != null )
+				formatExported = exportDiff( outFile, job.baseDbFile, getFormatConfig(exportConfig, format) );
+			else
+				formatExported = export( outFile, format, getFormatConfig(exportConfig, format) );
+			
+			if( !formatExported )
+				exported = false;
+		}
+
+		endExport();
+		return( exported );
+	}
+
+	// Parses '-option value' pairs. Returns null if the arguments are malformed
+	private Map<String, String> parseOptions( String args[] )
+	{
+		if( args.length == 0 || (args.length % 2) != 0 )
+			return( null );
+
+		Map<String, String> options = new HashMap<String, String>();
+		for( int argIndex = 0; argIndex < args.length; argIndex += 2 )
+		{
+			String option = args[ argIndex ];
+			if( !option.startsWith("-") )
+				return( null );
+
+			options.put( option.replaceFirst("^-+", "").toLowerCase(), args[argIndex + 1] );
+		}
+
+		return( options );
+	}
+
+	// Builds the single job described by the command line options
+	private List<ExportJob> getJobs( Map<String, String> options )
+	{
+		ExportJob job = new ExportJob();
+		String configFilePath = options.remove( OPTION_CONFIG );
+		if( configFilePath != null )
+			job.configFile = new File( configFilePath );
+
+		String dbFilePath = options.remove( OPTION_DB );
+		if( dbFilePath == null )
+		{
+			addLogText( "Sqlite DB file not specified" );
+			return( null );
+		}
+		job.dbFile = new File( dbFilePath );
+
+		String baseDbFilePath = options.remove( OPTION_BASE );
+		if( baseDbFilePath != null )
+			job.baseDbFile = new File( baseDbFilePath );
+
+		for( Map.Entry<String, String> option : options.entrySet() )
+		{
+			ExportFormat format = getExportFormat( option.getKey() );
+			if( format == null )
+			{
+				addLogText( String.format("Unknown option '-%1$s'", option.getKey()) );
+				return( null );
+			}
+
+			job.outFiles.put( format, new File(option.getValue()) );
+		}
+
+		if( job.outFiles.isEmpty() )
+		{
+			addLogText( "No export output files specified" );
+			return( null );
+		}
+
+		if( !isDiffJobValid( job ) )
+			return( null );
+
+		List<ExportJob> jobs = new ArrayList<ExportJob>();
+		jobs.add( job );
+		return( jobs );
+	}
+
+	// Reads a JSON-encoded job file. The file holds a 'jobs' array, each entry specifying the 'db' file, an
+	// optional 'config' file and an output file per export format. A top level 'config' entry (or the command
+	// line '-config' option) applies to the jobs without their own. Relative paths are resolved against the
+	// job file's folder
+	private List<ExportJob> readJobs( File jobsFile, Map<String, String> options )
+	{
+		JSONObject jobsConfig = readExportConfig( jobsFile );
+		if( jobsConfig == null )
+			return( null );
+
+		File jobsDir = jobsFile.getAbsoluteFile().getParentFile();
+		File configFileDefault = null;
+		if( options.containsKey(OPTION_CONFIG) )
+			configFileDefault = new File( options.get(OPTION_CONFIG) );
+		else if( jobsConfig.has(OPTION_CONFIG) )
+			configFileDefault = resolveFile( jobsDir, jobsConfig.optString(OPTION_CONFIG) );
+
+		JSONArray jobsList = jobsConfig.optJSONArray( "jobs" );
+		if( jobsList == null )
+		{
+			addLogText( String.format("Job file '%1$s' has no job list", jobsFile.getAbsolutePath()) );
+			return( null );
+		}
+
+		List<ExportJob> jobs = new ArrayList<ExportJob>();
+		for( int jobIndex = 0; jobIndex < jobsList.length(); jobIndex++ )
+		{
+			JSONObject jobConfig = jobsList.optJSONObject( jobIndex );
+			if( jobConfig == null || !jobConfig.has(OPTION_DB) )
+			{
+				addLogText( String.format("Job %1$d in job file '%2$s' has no database specified", jobIndex, jobsFile.getAbsolutePath()) );
+				return( null );
+			}
+
+			ExportJob job = new ExportJob();
+			job.dbFile = resolveFile( jobsDir, jobConfig.optString(OPTION_DB) );
+			job.configFile = configFileDefault;
+
+			Iterator<String> keys = jobConfig.keys();
+			while( keys.hasNext() )
+			{
+				String key = keys.next();
+				if( key.equals(OPTION_DB) )
+					continue;
+
+				if( key.equals(OPTION_CONFIG) )
+				{
+					job.configFile = resolveFile( jobsDir, jobConfig.optString(key) );
+					continue;
+				}
+
+				if( key.equals(OPTION_BASE) )
+				{
+					job.baseDbFile = resolveFile( jobsDir, jobConfig.optString(key) );
+					continue;
+				}
+
+				ExportFormat format = getExportFormat( key );
+				if( format == null )
+				{
+					addLogText( String.format("Job %1$d in job file '%2$s' has an unknown entry '%3$s'", jobIndex, jobsFile.getAbsolutePath(), key) );
+					return( null );
+				}
+
+				job.outFiles.put( format, resolveFile(jobsDir, jobConfig.optString(key)) );
+			}
+
+			if( !isDiffJobValid( job ) )
+				return( null );
+
+			jobs.add( job );
+		}
+
+		return( jobs );
+	}
+
+	// Database changes can only be exported as JSON
+	private boolean isDiffJobValid( ExportJob job )
+	{
+		if( job.baseDbFile == null )
+			return( true );
+
+		for( ExportFormat format : job.outFiles.keySet() )
+		{
+			if( format != ExportFormat.JSON )
+			{
+				addLogText( String.format("Database changes cannot be exported as %1$s", format.name()) );
+				return( false );
+			}
+		}
+
+		return( true );
+	}
+
+	private static ExportFormat getExportFormat( String formatName )
+	{
+		for( ExportFormat format : ExportFormat.values() )
+		{
+			if( format.name().equalsIgnoreCase( formatName ) )
+				return( format );
+		}
+
+		return( null );
+	}
+
+	private static File resolveFile( File baseDir, String filePath )
+	{
+		File file = new File( filePath );
+		if( file.isAbsolute() )
+			return( file );
+
+		return( new File(baseDir, filePath) );
+	}
+
+	private void printUsage()
+	{
+		StringBuilder formatOptions = new StringBuilder();
+		for( ExportFormat format : ExportFormat.values() )
+			formatOptions.append( String.format(" [-%1$s <file>]", format.name().toLowerCase()) );
+
+		addLogText( "Usage:" );
+		addLogText( String.format("  -db <sqlite file> [-config <config file>]%1$s", formatOptions) );
+		addLogText( "  -db <sqlite file> -base <base sqlite file> [-config <config file>] -json <file>" );
+		addLogText( "  -jobs <job file> [-config <config file>]" );
+	}
+}
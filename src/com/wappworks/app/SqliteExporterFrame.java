@@ -24,21 +24,16 @@ import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
-import org.json.JSONException;
 import org.json.JSONObject;
 
-import com.wappworks.app.sqlite.SqliteConverterExportConfig;
 import com.wappworks.app.sqlite.SqliteConverter.ExportFormat;
 import com.wappworks.common.log.LogWriter;
 import com.wappworks.common.swing.PanelFileSelection;
-import com.wappworks.common.util.WappFile;
 
 public class SqliteExporterFrame extends SqliteExporter implements ActionListener, ChangeListener
 {
 	private static final long serialVersionUID = 2118422283602674154L;
 	
-	private static final int CONFIGFILE_SIZE_MAX		= 32 * 1024;
-	
 	private static final String PREF_FILEPATH_DB 		= "filepath_db";
 	private static final String PREF_FILEPATH_CONFIG 	= "filepath_config";
 	private static final String PREF_FILEPATH_XML 		= "filepath_xml";
@@ -81,6 +76,13 @@ public class SqliteExporterFrame extends SqliteExporter implements ActionListene
 	
 	public static void main(String args[])
 	{
+		// Run headless when given command line arguments
+		if( args.length > 0 )
+		{
+			SqliteExporterCli.main( args );
+			return;
+		}
+		
         //Create and set up the window.
         JFrame frame = new JFrame("SQLite Exporter");
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -217,15 +219,7 @@ public class SqliteExporterFrame extends SqliteExporter implements ActionListene
 	
 	public void handleExportGui()
 	{
-		// Set up the common export configuration
-		SqliteConverterExportConfig commonConfig = new SqliteConverterExportConfig();
 		JSONObject exportConfig = getExportConfig();
-		if( exportConfig != null )
-		{
-			JSONObject jsonConfigCommon = exportConfig.optJSONObject( "common" );
-			if( jsonConfigCommon != null )
-				commonConfig.add( jsonConfigCommon );
-		}
 		
 		// Begin the export
 		File dbFileIn = dbFileInSelection.getLastSelectedFile();
@@ -243,37 +237,11 @@ public class SqliteExporterFrame extends SqliteExporter implements ActionListene
 		
 		File xmlFileOut = xmlFileOutSelection.getLastSelectedFile();
 		if( xmlFileOut != null )
-		{
-			SqliteConverterExportConfig currConfig = commonConfig;
-			if( exportConfig != null )
-			{
-				JSONObject jsonConfigCurr = exportConfig.optJSONObject( "xml" );
-				if( jsonConfigCurr != null )
-				{
-					currConfig = new SqliteConverterExportConfig( commonConfig );
-					currConfig.add( jsonConfigCurr );
-				}
-			}
-			
-			export( xmlFileOut, ExportFormat.XML, currConfig );
-		}
+			export( xmlFileOut, ExportFormat.XML, getFormatConfig(exportConfig, ExportFormat.XML) );
 		
 		File jsonFileOut = jsonFileOutSelection.getLastSelectedFile();
 		if( jsonFileOut != null )
-		{
-			SqliteConverterExportConfig currConfig = commonConfig;
-			if( exportConfig != null )
-			{
-				JSONObject jsonConfigCurr = exportConfig.optJSONObject( "json" );
-				if( jsonConfigCurr != null )
-				{
-					currConfig = new SqliteConverterExportConfig( commonConfig );
-					currConfig.add( jsonConfigCurr );
-				}
-			}
-			
-			export( jsonFileOut, ExportFormat.JSON, currConfig );
-		}
+			export( jsonFileOut, ExportFormat.JSON, getFormatConfig(exportConfig, ExportFormat.JSON) );
 		
 		endExport();
 	}
@@ -284,19 +252,6 @@ public class SqliteExporterFrame extends SqliteExporter implements ActionListene
 		if( configFileIn == null )
 			return( null );
 		
-		String configString = WappFile.readFileAsString(configFileIn.getAbsolutePath(), CONFIGFILE_SIZE_MAX );
-		if( configString == null )
-			return( null );
-		
-		try
-		{
-			JSONObject jsonConfig = new JSONObject( configString );
-			return( jsonConfig );
-		}
-		catch (JSONException e)
-		{
-			addLogText( String.format("WARNING: Ignoring configuration file '%1$s' because of invalid data: [%2$s]", configFileIn.getAbsolutePath(), e.getMessage()) );
-			return( null );
-		}
+		return( readExportConfig( configFileIn ) );
 	}
 }
@@ -0,0 +1,415 @@
+/* 
+ * SQLite Arrow Writer
+ *
+ * Copyright 2011 Wappworks Studios
+ */
+package com.wappworks.app.sqlite;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.wappworks.common.io.FlatBufferBuilder;
+
+// Writes a table in the Arrow IPC file format, so that analytics engines can memory-map it rather than
+// parse it. The records are gathered into record batches of typed column vectors: INTEGER fields become
+// int64 vectors, FLOAT fields float64 vectors and STRING fields utf8 vectors (an offsets buffer into a
+// data buffer), each with a validity bitmap. The vectors are held in direct buffers and written straight
+// to the output channel. The metadata is encoded as FlatBuffers, following the Arrow format definitions
+// (Schema.fbs, Message.fbs and File.fbs)
+class SqliteArrowWriter
+{
+	private static final byte[]	MAGIC = { 'A', 'R', 'R', 'O', 'W', '1' };
+	private static final int	ALIGNMENT = 8;
+	private static final int	CONTINUATION = 0xFFFFFFFF;
+	private static final String	STRING_CHARSET = "UTF-8";
+	
+	// The utf8 vector offsets are 32-bit, so a batch is cut short before its string data grows past this
+	private static final int	STRING_DATA_MAX = 1 << 30;
+	
+	private static final int	METADATA_VERSION_V5 = 4;
+	private static final int	MESSAGE_HEADER_SCHEMA = 1;
+	private static final int	MESSAGE_HEADER_RECORD_BATCH = 3;
+	private static final int	TYPE_INT = 2;
+	private static final int	TYPE_FLOATING_POINT = 3;
+	private static final int	TYPE_UTF8 = 5;
+	private static final int	PRECISION_DOUBLE = 2;
+	
+	// The location of a record batch message within the file, as listed by the file footer
+	private static class Block
+	{
+		long	offset;
+		int		metadataLength;
+		long	bodyLength;
+	}
+	
+	private WritableByteChannel		channel;
+	private long					position;
+	private SqliteRecordProjection	projection;
+	private int						batchRows;
+	private List<Block>				blocks = new ArrayList<Block>();
+	private ByteBuffer				padding = ByteBuffer.allocate( ALIGNMENT );
+	
+	// The record batch being gathered, column by column
+	private ByteBuffer[]			validityBuffers;
+	private ByteBuffer[]			valueBuffers;
+	private ByteBuffer[]			dataBuffers;
+	private int[]					nullCounts;
+	private int						rowsNum;
+	
+	SqliteArrowWriter( WritableByteChannel inChannel, SqliteRecordProjection inProjection, int inBatchRows ) throws IOException
+	{
+		channel = inChannel;
+		projection = inProjection;
+		batchRows = inBatchRows;
+		
+		int fieldsNum = projection.getFieldsNum();
+		validityBuffers = new ByteBuffer[ fieldsNum ];
+		valueBuffers = new ByteBuffer[ fieldsNum ];
+		dataBuffers = new ByteBuffer[ fieldsNum ];
+		nullCounts = new int[ fieldsNum ];
+		for( int fieldIndex = 0; fieldIndex < fieldsNum; fieldIndex++ )
+		{
+			validityBuffers[ fieldIndex ] = allocate( (batchRows + 7) / 8 );
+			if( projection.fieldTypes[fieldIndex] == SqliteTableHandler.FieldType.STRING )
+			{
+				valueBuffers[ fieldIndex ] = allocate( (batchRows + 1) * 4 );
+				dataBuffers[ fieldIndex ] = allocate( 64 * 1024 );
+			}
+			else
+			{
+				valueBuffers[ fieldIndex ] = allocate( batchRows * 8 );
+			}
+		}
+		resetBatch();
+		
+		// The file starts with the magic bytes, padded to the alignment
+		ByteBuffer header = ByteBuffer.allocate( ALIGNMENT );
+		header.put( MAGIC );
+		header.flip();
+		writeBuffer( header, ALIGNMENT );
+		
+		FlatBufferBuilder builder = new FlatBufferBuilder();
+		int schemaOffset = createSchema( builder );
+		writeMessage( builder, MESSAGE_HEADER_SCHEMA, schemaOffset, 0 );
+	}
+	
+	void writeRow( SqliteRow row ) throws IOException
+	{
+		int fieldsNum = projection.getFieldsNum();
+		for( int fieldIndex = 0; fieldIndex < fieldsNum; fieldIndex++ )
+		{
+			if( row.isNull( fieldIndex ) )
+				nullCounts[ fieldIndex ]++;
+			else
+			{
+				ByteBuffer validityBuffer = validityBuffers[ fieldIndex ];
+				int validityIndex = rowsNum >> 3;
+				validityBuffer.put( validityIndex, (byte) (validityBuffer.get(validityIndex) | (1 << (rowsNum & 7))) );
+			}
+			
+			switch( projection.fieldTypes[fieldIndex] )
+			{
+				case INTEGER:
+					valueBuffers[ fieldIndex ].putLong( rowsNum * 8, row.longValues[fieldIndex] );
+					break;
+				
+				case FLOAT:
+					valueBuffers[ fieldIndex ].putDouble( rowsNum * 8, row.doubleValues[fieldIndex] );
+					break;
+				
+				default:
+					String value = row.getString( fieldIndex );
+					if( value != null )
+						appendData( fieldIndex, value.getBytes(STRING_CHARSET) );
+					valueBuffers[ fieldIndex ].putInt( (rowsNum + 1) * 4, dataBuffers[fieldIndex].position() );
+					break;
+			}
+		}
+		
+		rowsNum++;
+		if( rowsNum >= batchRows || isStringDataFull() )
+			writeBatch();
+	}
+	
+	// Writes out the last record batch, the end of stream marker and the file footer. The channel is left open
+	void finish() throws IOException
+	{
+		if( rowsNum > 0 )
+			writeBatch();
+		
+		ByteBuffer endOfStream = allocateHeap( 8 );
+		endOfStream.putInt( CONTINUATION );
+		endOfStream.putInt( 0 );
+		endOfStream.flip();
+		writeBuffer( endOfStream, 8 );
+		
+		FlatBufferBuilder builder = new FlatBufferBuilder();
+		int schemaOffset = createSchema( builder );
+		
+		builder.startVector( 24, 0, 8 );
+		int dictionariesOffset = builder.endVector();
+		
+		builder.startVector( 24, blocks.size(), 8 );
+		for( int blockIndex = blocks.size() - 1; blockIndex >= 0; blockIndex-- )
+		{
+			Block block = blocks.get( blockIndex );
+			builder.startStruct( 24, 8 );
+			builder.putStructLong( block.bodyLength );
+			builder.putStructPadding( 4 );
+			builder.putStructInt( block.metadataLength );
+			builder.putStructLong( block.offset );
+		}
+		int blocksOffset = builder.endVector();
+		
+		builder.startTable( 5 );
+		builder.addOffset( 1, schemaOffset );
+		builder.addOffset( 2, dictionariesOffset );
+		builder.addOffset( 3, blocksOffset );
+		builder.addShort( 0, METADATA_VERSION_V5 );
+		builder.finish( builder.endTable() );
+		byte[] footer = builder.toByteArray();
+		
+		ByteBuffer trailer = allocateHeap( footer.length + 4 + MAGIC.length );
+		trailer.put( footer );
+		trailer.putInt( footer.length );
+		trailer.put( MAGIC );
+		trailer.flip();
+		writeBuffer( trailer, trailer.remaining() );
+	}
+	
+	private void writeBatch() throws IOException
+	{
+		int fieldsNum = projection.getFieldsNum();
+		
+		// Lay out the batch's buffers: a validity bitmap (left empty if there are no nulls) and the values of
+		// each column, in column order, each starting on an aligned offset
+		List<ByteBuffer> bodyBuffers = new ArrayList<ByteBuffer>();
+		for( int fieldIndex = 0; fieldIndex < fieldsNum; fieldIndex++ )
+		{
+			ByteBuffer validityBuffer = validityBuffers[ fieldIndex ].duplicate();
+			validityBuffer.limit( nullCounts[fieldIndex] > 0 ? (rowsNum + 7) / 8 : 0 );
+			bodyBuffers.add( validityBuffer );
+			
+			ByteBuffer valueBuffer = valueBuffers[ fieldIndex ].duplicate();
+			if( projection.fieldTypes[fieldIndex] == SqliteTableHandler.FieldType.STRING )
+			{
+				valueBuffer.limit( (rowsNum + 1) * 4 );
+				bodyBuffers.add( valueBuffer );
+				
+				ByteBuffer dataBuffer = dataBuffers[ fieldIndex ].duplicate();
+				dataBuffer.flip();
+				bodyBuffers.add( dataBuffer );
+			}
+			else
+			{
+				valueBuffer.limit( rowsNum * 8 );
+				bodyBuffers.add( valueBuffer );
+			}
+		}
+		
+		long[] bodyOffsets = new long[ bodyBuffers.size() ];
+		long bodyLength = 0;
+		for( int bufferIndex = 0; bufferIndex < bodyBuffers.size(); bufferIndex++ )
+		{
+			bodyOffsets[ bufferIndex ] = bodyLength;
+			bodyLength += getAlignedLength( bodyBuffers.get(bufferIndex).remaining() );
+		}
+		
+		FlatBufferBuilder builder = new FlatBufferBuilder();
+		builder.startVector( 16, bodyBuffers.size(), 8 );
+		for( int bufferIndex = bodyBuffers.size() - 1; bufferIndex >= 0; bufferIndex-- )
+		{
+			builder.startStruct( 16, 8 );
+			builder.putStructLong( bodyBuffers.get(bufferIndex).remaining() );
+			builder.putStructLong( bodyOffsets[bufferIndex] );
+		}
+		int buffersOffset = builder.endVector();
+		
+		builder.startVector( 16, fieldsNum, 8 );
+		for( int fieldIndex = fieldsNum - 1; fieldIndex >= 0; fieldIndex-- )
+		{
+			builder.startStruct( 16, 8 );
+			builder.putStructLong( nullCounts[fieldIndex] );
+			builder.putStructLong( rowsNum );
+		}
+		int nodesOffset = builder.endVector();
+		
+		builder.startTable( 5 );
+		builder.addLong( 0, rowsNum );
+		builder.addOffset( 1, nodesOffset );
+		builder.addOffset( 2, buffersOffset );
+		int batchOffset = builder.endTable();
+		
+		Block block = new Block();
+		block.offset = position;
+		block.metadataLength = writeMessage( builder, MESSAGE_HEADER_RECORD_BATCH, batchOffset, bodyLength );
+		block.bodyLength = bodyLength;
+		blocks.add( block );
+		
+		for( ByteBuffer bodyBuffer : bodyBuffers )
+			writeBuffer( bodyBuffer, getAlignedLength(bodyBuffer.remaining()) );
+		
+		resetBatch();
+	}
+	
+	// Writes an encapsulated message: the continuation marker, the metadata length and the metadata, padded
+	// so the message body that follows is aligned. Returns the length written
+	private int writeMessage( FlatBufferBuilder builder, int headerType, int headerOffset, long bodyLength ) throws IOException
+	{
+		builder.startTable( 5 );
+		builder.addLong( 3, bodyLength );
+		builder.addOffset( 2, headerOffset );
+		builder.addShort( 0, METADATA_VERSION_V5 );
+		builder.addByte( 1, headerType );
+		builder.finish( builder.endTable() );
+		byte[] metadata = builder.toByteArray();
+		
+		int messageLength = getAlignedLength( 8 + metadata.length );
+		ByteBuffer message = allocateHeap( messageLength );
+		message.putInt( CONTINUATION );
+		message.putInt( messageLength - 8 );
+		message.put( metadata );
+		message.position( 0 );
+		writeBuffer( message, messageLength );
+		return( messageLength );
+	}
+	
+	// Every column is nullable, since SQLite does not enforce the declared column types
+	private int createSchema( FlatBufferBuilder builder )
+	{
+		int fieldsNum = projection.getFieldsNum();
+		int[] fieldOffsets = new int[ fieldsNum ];
+		for( int fieldIndex = 0; fieldIndex < fieldsNum; fieldIndex++ )
+		{
+			int nameOffset = builder.createString( projection.fieldNames[fieldIndex] );
+			
+			int typeType;
+			switch( projection.fieldTypes[fieldIndex] )
+			{
+				case INTEGER:
+					typeType = TYPE_INT;
+					builder.startTable( 2 );
+					builder.addInt( 0, 64 );
+					builder.addBoolean( 1, true );
+					break;
+				
+				case FLOAT:
+					typeType = TYPE_FLOATING_POINT;
+					builder.startTable( 1 );
+					builder.addShort( 0, PRECISION_DOUBLE );
+					break;
+				
+				default:
+					typeType = TYPE_UTF8;
+					builder.startTable( 0 );
+					break;
+			}
+			int typeOffset = builder.endTable();
+			
+			builder.startVector( 4, 0, 4 );
+			int childrenOffset = builder.endVector();
+			
+			builder.startTable( 7 );
+			builder.addOffset( 0, nameOffset );
+			builder.addOffset( 3, typeOffset );
+			builder.addOffset( 5, childrenOffset );
+			builder.addBoolean( 1, true );
+			builder.addByte( 2, typeType );
+			fieldOffsets[ fieldIndex ] = builder.endTable();
+		}
+		
+		builder.startVector( 4, fieldsNum, 4 );
+		for( int fieldIndex = fieldsNum - 1; fieldIndex >= 0; fieldIndex-- )
+			builder.addOffset( fieldOffsets[fieldIndex] );
+		int fieldsOffset = builder.endVector();
+		
+		builder.startTable( 4 );
+		builder.addOffset( 1, fieldsOffset );
+		return( builder.endTable() );
+	}
+	
+	private void resetBatch()
+	{
+		int fieldsNum = projection.getFieldsNum();
+		for( int fieldIndex = 0; fieldIndex < fieldsNum; fieldIndex++ )
+		{
+			ByteBuffer validityBuffer = validityBuffers[ fieldIndex ];
+			int validityLength = (rowsNum + 7) / 8;
+			for( int validityIndex = 0; validityIndex < validityLength; validityIndex++ )
+				validityBuffer.put( validityIndex, (byte) 0 );
+			
+			if( dataBuffers[fieldIndex] != null )
+			{
+				dataBuffers[ fieldIndex ].clear();
+				valueBuffers[ fieldIndex ].putInt( 0, 0 );
+			}
+			nullCounts[ fieldIndex ] = 0;
+		}
+		
+		rowsNum = 0;
+	}
+	
+	private void appendData( int fieldIndex, byte[] valueBytes )
+	{
+		ByteBuffer dataBuffer = dataBuffers[ fieldIndex ];
+		if( dataBuffer.remaining() < valueBytes.length )
+		{
+			ByteBuffer newBuffer = allocate( Math.max(dataBuffer.capacity() * 2, dataBuffer.position() + valueBytes.length) );
+			dataBuffer.flip();
+			newBuffer.put( dataBuffer );
+			dataBuffer = newBuffer;
+			dataBuffers[ fieldIndex ] = dataBuffer;
+		}
+		
+		dataBuffer.put( valueBytes );
+	}
+	
+	private boolean isStringDataFull()
+	{
+		for( ByteBuffer dataBuffer : dataBuffers )
+		{
+			if( dataBuffer != null && dataBuffer.position() >= STRING_DATA_MAX )
+				return( true );
+		}
+		
+		return( false );
+	}
+	
+	// Writes the buffer's remaining bytes followed by zero padding up to the given length
+	private void writeBuffer( ByteBuffer buffer, long length ) throws IOException
+	{
+		length -= buffer.remaining();
+		position += buffer.remaining();
+		while( buffer.hasRemaining() )
+			channel.write( buffer );
+		
+		while( length > 0 )
+		{
+			padding.clear();
+			padding.limit( (int) Math.min(length, ALIGNMENT) );
+			length -= padding.remaining();
+			position += padding.remaining();
+			while( padding.hasRemaining() )
+				channel.write( padding );
+		}
+	}
+	
+	private static int getAlignedLength( int length )
+	{
+		return( (length + ALIGNMENT - 1) & ~(ALIGNMENT - 1) );
+	}
+	
+	private static ByteBuffer allocate( int capacity )
+	{
+		return( ByteBuffer.allocateDirect( capacity ).order( ByteOrder.LITTLE_ENDIAN ) );
+	}
+	
+	private static ByteBuffer allocateHeap( int capacity )
+	{
+		return( ByteBuffer.allocate( capacity ).order( ByteOrder.LITTLE_ENDIAN ) );
+	}
+}
@@ -0,0 +1,428 @@
+/* 
+ * SQLite Columnar Writer
+ *
+ * Copyright 2011 Wappworks Studios
+ */
+package com.wappworks.app.sqlite;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.wappworks.app.sqlite.SqliteTableHandler.FieldType;
+import com.wappworks.common.io.EncodingBuffer;
+
+// Writes tables in a binary columnar layout. Each table's records are gathered into row groups, and each
+// row group is written out a column at a time, so a reader can fetch just the columns it needs. The file
+// ends with a JSON footer locating every column chunk (see README.md for the full layout):
+//     'SQLC' <version byte> <column chunks...> <footer JSON> <footer length, 4 bytes LE> 'SQLC'
+// A column chunk starts with its encoding (a byte) and null count (a varint), followed by a null bitmap
+// (one bit per row, set for null) if there are any nulls, then the non-null values:
+//     INTEGER		delta encoding: value count, first value (zigzag), then blocks of up to 128 deltas, each block
+//					holding its minimum delta (zigzag), bit width (a byte) and the deltas less the minimum, bit-packed
+//     FLOAT		plain: 8-byte little-endian doubles
+//     STRING		dictionary encoding when values repeat: dictionary size, the distinct values, bit width
+//					(a byte) and the bit-packed dictionary indexes; otherwise plain: the values themselves
+// Strings are written as a varint byte length followed by their UTF-8 bytes. Varints are unsigned LEB128
+class SqliteColumnarWriter
+{
+	static final byte[]			MAGIC = { 'S', 'Q', 'L', 'C' };
+	static final int			VERSION = 1;
+	
+	static final int			ENCODING_PLAIN = 0;
+	static final int			ENCODING_DELTA = 1;
+	static final int			ENCODING_DICTIONARY = 2;
+	
+	private static final String[]	ENCODING_NAMES = { "PLAIN", "DELTA", "DICTIONARY" };
+	
+	private static final int	DELTA_BLOCK_SIZE = 128;
+	private static final int	STATS_STRING_LENGTH_MAX = 64;
+	private static final String	STRING_CHARSET = "UTF-8";
+	
+	private OutputStream			out;
+	private long					position;
+	private int						rowGroupRows;
+	private EncodingBuffer			chunk = new EncodingBuffer();
+	private JSONArray				tablesMeta = new JSONArray();
+	
+	// The table being written and its row group buffered column by column
+	private JSONObject				tableMeta = null;
+	private JSONArray				rowGroupsMeta;
+	private long					tableRows;
+	private SqliteRecordProjection	projection;
+	private long[][]				longColumns;
+	private double[][]				doubleColumns;
+	private String[][]				stringColumns;
+	private boolean[][]				nullColumns;
+	private int						rowsNum;
+	private long[]					packedValues;
+	
+	SqliteColumnarWriter( OutputStream inOut, int inRowGroupRows ) throws IOException
+	{
+		out = inOut;
+		rowGroupRows = inRowGroupRows;
+		packedValues = new long[ rowGroupRows ];
+		
+		out.write( MAGIC );
+		out.write( VERSION );
+		position = MAGIC.length + 1;
+	}
+	
+	void beginTable( String tableName, SqliteRecordProjection inProjection ) throws IOException
+	{
+		projection = inProjection;
+		int fieldsNum = projection.getFieldsNum();
+		longColumns = new long[ fieldsNum ][];
+		doubleColumns = new double[ fieldsNum ][];
+		stringColumns = new String[ fieldsNum ][];
+		nullColumns = new boolean[ fieldsNum ][ rowGroupRows ];
+		
+		JSONArray columnsMeta = new JSONArray();
+		try
+		{
+			for( int fieldIndex = 0; fieldIndex < fieldsNum; fieldIndex++ )
+			{
+				switch( projection.fieldTypes[fieldIndex] )
+				{
+					case INTEGER:	longColumns[ fieldIndex ] = new long[ rowGroupRows ];		break;
+					case FLOAT:		doubleColumns[ fieldIndex ] = new double[ rowGroupRows ];	break;
+					default:		stringColumns[ fieldIndex ] = new String[ rowGroupRows ];	break;
+				}
+				
+				JSONObject columnMeta = new JSONObject();
+				columnMeta.put( "name", projection.fieldNames[fieldIndex] );
+				columnMeta.put( "type", projection.fieldTypes[fieldIndex].name() );
+				columnsMeta.put( columnMeta );
+			}
+			
+			rowGroupsMeta = new JSONArray();
+			tableMeta = new JSONObject();
+			tableMeta.put( "name", tableName );
+			tableMeta.put( "columns", columnsMeta );
+			tableMeta.put( "rowGroups", rowGroupsMeta );
+		}
+		catch( JSONException e )
+		{
+			throw new IOException( "Cannot describe table: " + e.getMessage() );
+		}
+		
+		tableRows = 0;
+		rowsNum = 0;
+	}
+	
+	void writeRow( SqliteRow row ) throws IOException
+	{
+		int fieldsNum = projection.getFieldsNum();
+		for( int fieldIndex = 0; fieldIndex < fieldsNum; fieldIndex++ )
+		{
+			nullColumns[ fieldIndex ][ rowsNum ] = row.isNull( fieldIndex );
+			switch( projection.fieldTypes[fieldIndex] )
+			{
+				case INTEGER:	longColumns[ fieldIndex ][ rowsNum ] = row.longValues[ fieldIndex ];		break;
+				case FLOAT:		doubleColumns[ fieldIndex ][ rowsNum ] = row.doubleValues[ fieldIndex ];	break;
+				default:		stringColumns[ fieldIndex ][ rowsNum ] = row.getString( fieldIndex );	break;
+			}
+		}
+		
+		rowsNum++;
+		if( rowsNum >= rowGroupRows )
+			writeRowGroup();
+	}
+	
+	void endTable() throws IOException
+	{
+		if( rowsNum > 0 )
+			writeRowGroup();
+		
+		try
+		{
+			tableMeta.put( "rows", tableRows );
+		}
+		catch( JSONException e )
+		{
+			throw new IOException( "Cannot describe table: " + e.getMessage() );
+		}
+		
+		tablesMeta.put( tableMeta );
+		releaseTable();
+	}
+	
+	// Drops the table being written from the file. Any of its row groups already written are left in the
+	// file but are not referenced by the footer
+	void abortTable()
+	{
+		releaseTable();
+	}
+	
+	// Writes the footer. The output stream is left open
+	void finish() throws IOException
+	{
+		byte[] footer;
+		try
+		{
+			JSONObject fileMeta = new JSONObject();
+			fileMeta.put( "version", VERSION );
+			fileMeta.put( "tables", tablesMeta );
+			footer = fileMeta.toString().getBytes( STRING_CHARSET );
+		}
+		catch( JSONException e )
+		{
+			throw new IOException( "Cannot describe file: " + e.getMessage() );
+		}
+		
+		chunk.clear();
+		chunk.writeBytes( footer );
+		chunk.writeIntLE( footer.length );
+		chunk.writeBytes( MAGIC );
+		chunk.writeTo( out );
+		out.flush();
+	}
+	
+	private void releaseTable()
+	{
+		tableMeta = null;
+		projection = null;
+		longColumns = null;
+		doubleColumns = null;
+		stringColumns = null;
+		nullColumns = null;
+	}
+	
+	private void writeRowGroup() throws IOException
+	{
+		JSONArray chunksMeta = new JSONArray();
+		try
+		{
+			int fieldsNum = projection.getFieldsNum();
+			for( int fieldIndex = 0; fieldIndex < fieldsNum; fieldIndex++ )
+			{
+				JSONObject chunkMeta = new JSONObject();
+				chunk.clear();
+				
+				int nullsNum = 0;
+				boolean[] nulls = nullColumns[ fieldIndex ];
+				for( int rowIndex = 0; rowIndex < rowsNum; rowIndex++ )
+				{
+					if( nulls[rowIndex] )
+						nullsNum++;
+				}
+				
+				int encoding;
+				switch( projection.fieldTypes[fieldIndex] )
+				{
+					case INTEGER:	encoding = ENCODING_DELTA;													break;
+					case FLOAT:		encoding = ENCODING_PLAIN;													break;
+					default:		encoding = getStringEncoding( stringColumns[fieldIndex], nullsNum );	break;
+				}
+				
+				chunk.writeByte( encoding );
+				chunk.writeVarint( nullsNum );
+				if( nullsNum > 0 )
+				{
+					for( int rowIndex = 0; rowIndex < rowsNum; rowIndex++ )
+						chunk.writeBits( nulls[rowIndex] ? 1 : 0, 1 );
+					chunk.endBits();
+				}
+				
+				switch( projection.fieldTypes[fieldIndex] )
+				{
+					case INTEGER:	encodeIntegers( longColumns[fieldIndex], nulls, chunkMeta );					break;
+					case FLOAT:		encodeFloats( doubleColumns[fieldIndex], nulls, chunkMeta );					break;
+					default:		encodeStrings( stringColumns[fieldIndex], nulls, encoding, chunkMeta );		break;
+				}
+				
+				chunkMeta.put( "offset", position );
+				chunkMeta.put( "length", chunk.length() );
+				chunkMeta.put( "encoding", ENCODING_NAMES[encoding] );
+				chunkMeta.put( "nulls", nullsNum );
+				chunksMeta.put( chunkMeta );
+				
+				chunk.writeTo( out );
+				position += chunk.length();
+			}
+			
+			JSONObject rowGroupMeta = new JSONObject();
+			rowGroupMeta.put( "rows", rowsNum );
+			rowGroupMeta.put( "columns", chunksMeta );
+			rowGroupsMeta.put( rowGroupMeta );
+		}
+		catch( JSONException e )
+		{
+			throw new IOException( "Cannot describe row group: " + e.getMessage() );
+		}
+		
+		tableRows += rowsNum;
+		rowsNum = 0;
+	}
+	
+	private void encodeIntegers( long[] values, boolean[] nulls, JSONObject chunkMeta ) throws JSONException
+	{
+		int valuesNum = 0;
+		long valueMin = Long.MAX_VALUE;
+		long valueMax = Long.MIN_VALUE;
+		for( int rowIndex = 0; rowIndex < rowsNum; rowIndex++ )
+		{
+			if( nulls[rowIndex] )
+				continue;
+			
+			long value = values[ rowIndex ];
+			packedValues[ valuesNum++ ] = value;
+			valueMin = Math.min( valueMin, value );
+			valueMax = Math.max( valueMax, value );
+		}
+		
+		chunk.writeVarint( valuesNum );
+		if( valuesNum <= 0 )
+			return;
+		
+		chunkMeta.put( "min", valueMin );
+		chunkMeta.put( "max", valueMax );
+		chunk.writeZigzag( packedValues[0] );
+		
+		// Deltas wrap around on overflow, which the reader undoes by wrapping around the other way
+		for( int blockStart = 1; blockStart < valuesNum; blockStart += DELTA_BLOCK_SIZE )
+		{
+			int blockEnd = Math.min( blockStart + DELTA_BLOCK_SIZE, valuesNum );
+			long deltaMin = Long.MAX_VALUE;
+			for( int valueIndex = blockStart; valueIndex < blockEnd; valueIndex++ )
+				deltaMin = Math.min( deltaMin, packedValues[valueIndex] - packedValues[valueIndex - 1] );
+			
+			long deltaSpanMax = 0;
+			for( int valueIndex = blockStart; valueIndex < blockEnd; valueIndex++ )
+				deltaSpanMax |= (packedValues[valueIndex] - packedValues[valueIndex - 1]) - deltaMin;
+			int bitWidth = EncodingBuffer.getBitWidth( deltaSpanMax );
+			
+			chunk.writeZigzag( deltaMin );
+			chunk.writeByte( bitWidth );
+			for( int valueIndex = blockStart; valueIndex < blockEnd; valueIndex++ )
+				chunk.writeBits( (packedValues[valueIndex] - packedValues[valueIndex - 1]) - deltaMin, bitWidth );
+			chunk.endBits();
+		}
+	}
+	
+	private void encodeFloats( double[] values, boolean[] nulls, JSONObject chunkMeta ) throws JSONException
+	{
+		double valueMin = Double.POSITIVE_INFINITY;
+		double valueMax = Double.NEGATIVE_INFINITY;
+		for( int rowIndex = 0; rowIndex < rowsNum; rowIndex++ )
+		{
+			if( nulls[rowIndex] )
+				continue;
+			
+			double value = values[ rowIndex ];
+			chunk.writeDoubleLE( value );
+			if( !Double.isNaN(value) )
+			{
+				valueMin = Math.min( valueMin, value );
+				valueMax = Math.max( valueMax, value );
+			}
+		}
+		
+		// Infinite bounds have no JSON representation
+		if( valueMin <= valueMax && !Double.isInfinite(valueMin) && !Double.isInfinite(valueMax) )
+		{
+			chunkMeta.put( "min", valueMin );
+			chunkMeta.put( "max", valueMax );
+		}
+	}
+	
+	// Dictionary encoding pays off once values repeat on average. A chunk with no values at all is plain,
+	// rather than have an empty dictionary
+	private int getStringEncoding( String[] values, int nullsNum )
+	{
+		if( nullsNum >= rowsNum )
+			return( ENCODING_PLAIN );
+		
+		int distinctMax = (rowsNum - nullsNum) / 2;
+		Map<String, Integer> distinctValues = new HashMap<String, Integer>();
+		for( int rowIndex = 0; rowIndex < rowsNum; rowIndex++ )
+		{
+			if( values[rowIndex] == null )
+				continue;
+			
+			distinctValues.put( values[rowIndex], null );
+			if( distinctValues.size() > distinctMax )
+				return( ENCODING_PLAIN );
+		}
+		
+		return( ENCODING_DICTIONARY );
+	}
+	
+	private void encodeStrings( String[] values, boolean[] nulls, int encoding, JSONObject chunkMeta ) throws JSONException, IOException
+	{
+		String valueMin = null;
+		String valueMax = null;
+		for( int rowIndex = 0; rowIndex < rowsNum; rowIndex++ )
+		{
+			String value = values[ rowIndex ];
+			if( nulls[rowIndex] )
+				continue;
+			
+			if( valueMin == null || SqliteTableDiff.compareKeys(value, valueMin) < 0 )
+				valueMin = value;
+			if( valueMax == null || SqliteTableDiff.compareKeys(value, valueMax) > 0 )
+				valueMax = value;
+		}
+		
+		if( encoding == ENCODING_PLAIN )
+		{
+			for( int rowIndex = 0; rowIndex < rowsNum; rowIndex++ )
+			{
+				if( !nulls[rowIndex] )
+					writeString( values[rowIndex] );
+			}
+		}
+		else
+		{
+			// The dictionary lists the distinct values in order of first appearance
+			Map<String, Integer> dictionary = new HashMap<String, Integer>();
+			int valuesNum = 0;
+			for( int rowIndex = 0; rowIndex < rowsNum; rowIndex++ )
+			{
+				if( nulls[rowIndex] )
+					continue;
+				
+				Integer dictionaryIndex = dictionary.get( values[rowIndex] );
+				if( dictionaryIndex == null )
+				{
+					dictionaryIndex = Integer.valueOf( dictionary.size() );
+					dictionary.put( values[rowIndex], dictionaryIndex );
+				}
+				packedValues[ valuesNum++ ] = dictionaryIndex.intValue();
+			}
+			
+			String[] dictionaryValues = new String[ dictionary.size() ];
+			for( Map.Entry<String, Integer> dictionaryEntry : dictionary.entrySet() )
+				dictionaryValues[ dictionaryEntry.getValue().intValue() ] = dictionaryEntry.getKey();
+			
+			chunk.writeVarint( dictionaryValues.length );
+			for( String dictionaryValue : dictionaryValues )
+				writeString( dictionaryValue );
+			
+			int bitWidth = EncodingBuffer.getBitWidth( dictionaryValues.length - 1 );
+			chunk.writeByte( bitWidth );
+			for( int valueIndex = 0; valueIndex < valuesNum; valueIndex++ )
+				chunk.writeBits( packedValues[valueIndex], bitWidth );
+			chunk.endBits();
+		}
+		
+		// Long bounds would bloat the footer, so they are left out
+		if( valueMin != null && valueMin.length() <= STATS_STRING_LENGTH_MAX && valueMax.length() <= STATS_STRING_LENGTH_MAX )
+		{
+			chunkMeta.put( "min", valueMin );
+			chunkMeta.put( "max", valueMax );
+		}
+	}
+	
+	private void writeString( String value ) throws IOException
+	{
+		byte[] valueBytes = value.getBytes( STRING_CHARSET );
+		chunk.writeVarint( valueBytes.length );
+		chunk.writeBytes( valueBytes );
+	}
+}
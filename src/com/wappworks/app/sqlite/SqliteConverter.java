@@ -5,21 +5,38 @@
  */
 package com.wappworks.app.sqlite;
 
-import java.io.BufferedWriter;
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.Vector;
 
 import org.json.JSONException;
-import org.json.JSONObject;
 
+import com.wappworks.common.io.AsyncOutputStream;
+import com.wappworks.common.io.OutputCodec;
+import com.wappworks.common.io.OutputCodecs;
+import com.wappworks.common.io.Utf8ChannelWriter;
+import com.wappworks.common.json.JsonStreamWriter;
 import com.wappworks.common.log.LogWriter;
 
 public class SqliteConverter
@@ -27,26 +44,52 @@ public class SqliteConverter
 	public enum ExportFormat
 	{
 		XML,
-		JSON
+		JSON,
+		COLUMNAR,
+		CSV,
+		ARROW,
+		NDJSON
 	};
 	
 	private LogWriter					logWriter;
+	private File						dbFile = null;
 	private Connection					dbConn = null;
+	private SqliteFileReader			fileReader = null;
 	private Vector<SqliteTableHandler> 	tableHandlers;
+	private Set<String>					failedTables = new HashSet<String>();
+	
+	// The fragments a table is split into for a parallel export. Tables split into rowid ranges get a
+	// fragment per range, and their enclosing wrapper is written when the fragments are stitched together
+	private static class TableFragments
+	{
+		SqliteTableHandler					tableHandler;
+		List<SqliteRowidRange>				ranges;
+		SqliteParallelExport.Fragment		tableFragment = null;
+		List<SqliteParallelExport.Fragment>	rangeFragments = null;
+		
+		TableFragments( SqliteTableHandler inTableHandler, List<SqliteRowidRange> inRanges )
+		{
+			tableHandler = inTableHandler;
+			ranges = inRanges;
+			if( ranges != null )
+				rangeFragments = new ArrayList<SqliteParallelExport.Fragment>();
+		}
+	}
 	
 	public SqliteConverter( LogWriter inLogWriter )
 	{
 		logWriter = inLogWriter;
 	}
 	
-	public Boolean init( File dbFile )
+	public Boolean init( File inDbFile )
 	{
 		logWriter.logAppend( "Sqlite database load commencing" );
 		
 	    try
 	    {
 			Class.forName("org.sqlite.JDBC");
-			dbConn = DriverManager.getConnection("jdbc:sqlite:" + dbFile.getPath());
+			dbFile = inDbFile;
+			dbConn = openConnection();
 			
 			tableHandlers = processSchema();
 		}
@@ -68,6 +111,7 @@ public class SqliteConverter
 	
 	public Boolean deInit()
 	{
+		endFileReads();
 		try
 		{
 			if( dbConn != null )
@@ -76,6 +120,7 @@ public class SqliteConverter
 	    catch (SQLException e)				{	return( false );	}
 		
 		dbConn = null;
+		dbFile = null;
 		tableHandlers = null;
 		
 		logWriter.logAppend( "Sqlite database closed" );
@@ -83,6 +128,94 @@ public class SqliteConverter
 		return( true );
 	}
 	
+	// Opens a further connection to the database. The exporter only ever reads from its connections
+	Connection openConnection() throws SQLException
+	{
+		Connection newConn = DriverManager.getConnection("jdbc:sqlite:" + dbFile.getPath());
+		newConn.setReadOnly( true );
+		return( newConn );
+	}
+	
+	// Sets the table records to be read straight from the database file, if the export asks for it. A shared
+	// lock is taken on the database first (by opening a read transaction on the connection) and held until
+	// endFileReads(), so that nothing can write to the file while it is mapped. The records are read through
+	// the driver if the lock cannot be taken or the file cannot be read that way
+	private void beginFileReads( SqliteConverterExportConfig config )
+	{
+		if( !config.isFileReads() || fileReader != null )
+			return;
+		
+		try
+		{
+			dbConn.setAutoCommit( false );
+			Statement dbStat = dbConn.createStatement();
+			try
+			{
+				dbStat.executeQuery( "SELECT count(*) FROM sqlite_master;" ).next();
+			}
+			finally
+			{
+				dbStat.close();
+			}
+		}
+		catch( SQLException e )
+		{
+			logWriter.logAppend( String.format("Reading records through the database driver since the database cannot be locked: %1$s", e.getMessage()) );
+			endReadTransaction();
+			return;
+		}
+		
+		try
+		{
+			fileReader = SqliteFileReader.open( dbFile );
+		}
+		catch( IOException e )
+		{
+			logWriter.logAppend( String.format("Reading records through the database driver since %1$s", e.getMessage()) );
+			endReadTransaction();
+			return;
+		}
+		
+		for( SqliteTableHandler tableHandler : tableHandlers )
+			tableHandler.setFileReader( fileReader );
+	}
+	
+	// Whether the table's records are being read straight from the database file (during an export)
+	boolean isFileReads( String tableName )
+	{
+		for( SqliteTableHandler tableHandler : tableHandlers )
+		{
+			if( tableHandler.getName().equals( tableName ) )
+				return( tableHandler.isFileReads() );
+		}
+		return( false );
+	}
+	
+	// Releases the lock taken by beginFileReads() and then the database file
+	private void endFileReads()
+	{
+		if( fileReader == null )
+			return;
+		
+		for( SqliteTableHandler tableHandler : tableHandlers )
+			tableHandler.setFileReader( null );
+		endReadTransaction();
+		fileReader.close();
+		fileReader = null;
+	}
+	
+	private void endReadTransaction()
+	{
+		try
+		{
+			dbConn.setAutoCommit( true );
+		}
+		catch( SQLException e )
+		{
+			logWriter.logAppend( String.format("SQL exception occured trying to release the database lock:\n%1$s", e.toString()) );
+		}
+	}
+	
 	private Vector<SqliteTableHandler> processSchema() throws SQLException
 	{
 		Vector<SqliteTableHandler> tableHandlers = new Vector<SqliteTableHandler>();
@@ -114,6 +247,23 @@ public class SqliteConverter
 	}
 	
 	public Boolean export( File outFile, ExportFormat format, SqliteConverterExportConfig config )
+	{
+		failedTables.clear();
+		beginFileReads( config );
+		try
+		{
+			if( config.getIncrementalState() != null )
+				return( exportIncremental(outFile, format, config) );
+			
+			return( exportFormat(outFile, format, config) );
+		}
+		finally
+		{
+			endFileReads();
+		}
+	}
+	
+	private Boolean exportFormat( File outFile, ExportFormat format, SqliteConverterExportConfig config )
 	{
 		switch( format )
 		{
@@ -122,11 +272,217 @@ public class SqliteConverter
 				
 			case JSON:
 				return( exportToJson(outFile, config) );
+				
+			case COLUMNAR:
+				return( exportToColumnar(outFile, config) );
+				
+			case CSV:
+				return( exportToCsv(outFile, config) );
+				
+			case ARROW:
+				return( exportToArrow(outFile, config) );
+				
+			case NDJSON:
+				return( exportToNdjson(outFile, config) );
+				
 			default:
 				return( false );
 		}
 	}
 	
+	// Exports the changes between a base snapshot of the database and this one as JSON. Each table (in either
+	// snapshot) maps to a list of change records, see SqliteTableDiff
+	public Boolean exportDiff( File outFile, SqliteConverter baseConverter, SqliteConverterExportConfig config )
+	{
+		failedTables.clear();
+		beginFileReads( config );
+		baseConverter.beginFileReads( config );
+		try
+		{
+			return( exportDiffToJson(outFile, baseConverter, config) );
+		}
+		finally
+		{
+			baseConverter.endFileReads();
+			endFileReads();
+		}
+	}
+	
+	private Boolean exportDiffToJson( File outFile, SqliteConverter baseConverter, SqliteConverterExportConfig config )
+	{
+		logWriter.logAppend( "JSON diff export commencing" );
+		
+		Map<String, SqliteTableHandler> baseTableHandlers = new TreeMap<String, SqliteTableHandler>();
+		for( SqliteTableHandler tableHandler : baseConverter.tableHandlers )
+			baseTableHandlers.put( tableHandler.getName(), tableHandler );
+		Map<String, SqliteTableHandler> newTableHandlers = new TreeMap<String, SqliteTableHandler>();
+		for( SqliteTableHandler tableHandler : tableHandlers )
+			newTableHandlers.put( tableHandler.getName(), tableHandler );
+		
+		Set<String> tableNames = new TreeSet<String>( baseTableHandlers.keySet() );
+		tableNames.addAll( newTableHandlers.keySet() );
+		
+		try
+		{
+			Writer fOut = openOutput( outFile, config );
+			try
+			{
+				JsonStreamWriter jsonOut = new JsonStreamWriter( fOut, 2 );
+				
+				jsonOut.beginObject();
+				for( String tableName : tableNames )
+				{
+					SqliteTableHandler baseTableHandler = baseTableHandlers.get( tableName );
+					SqliteTableHandler newTableHandler = newTableHandlers.get( tableName );
+					if( !(newTableHandler != null ? newTableHandler : baseTableHandler).isExported(config) )
+						continue;
+					
+					int tableDepth = jsonOut.getDepth();
+					try
+					{
+		        		logWriter.logAppend( String.format("Comparing contents for table '%1$s'", tableName) );
+						SqliteTableDiff.exportToJson( jsonOut, baseTableHandler, newTableHandler, config );
+					}
+		        	catch( SQLException e )
+		        	{
+		        		logWriter.logAppend( String.format("SQL exception occured trying to compare table '%1$s'", tableName) );
+		        		failedTables.add( tableName );
+		        		jsonOut.unwind( tableDepth );
+		        	}
+				}
+				jsonOut.endObject();
+			}
+			finally
+			{
+				fOut.close();
+			}
+		}
+		catch( IOException e )
+		{
+			logWriter.logAppend( String.format("I/O error encountered trying to output database changes to file '%1$s'", outFile.getAbsolutePath()) );
+			return( false );
+		}
+		
+		logWriter.logAppend( "JSON diff export complete" );
+		return( true );
+	}
+	
+	// Exports only the records added since the previous incremental export, as marked by each table's
+	// high-water mark in the state file. The new marks are read up front and bound the export, so records
+	// added while the export runs are left for the next one. The marks of tables that fail to export are
+	// left as they were, so their records are picked up again by the next export
+	private Boolean exportIncremental( File outFile, ExportFormat format, SqliteConverterExportConfig config )
+	{
+		File stateFile = new File( config.getIncrementalState() );
+		if( !stateFile.isAbsolute() )
+			stateFile = new File( outFile.getAbsoluteFile().getParentFile(), config.getIncrementalState() );
+		
+		SqliteIncrementalState state;
+		try
+		{
+			state = SqliteIncrementalState.read( stateFile );
+		}
+		catch( IOException e )
+		{
+			logWriter.logAppend( String.format("Cannot read incremental export state file '%1$s': %2$s", stateFile.getAbsolutePath(), e.getMessage()) );
+			return( false );
+		}
+		
+		SqliteConverterExportConfig deltaConfig = new SqliteConverterExportConfig( config );
+		Map<String, Object> watermarks = new HashMap<String, Object>();
+		for( SqliteTableHandler tableHandler : tableHandlers )
+		{
+			if( !tableHandler.isExported(config) )
+				continue;
+			
+			String tableName = tableHandler.getName();
+			String column = config.getWatermarkColumn( tableName );
+			Object watermark;
+			try
+			{
+				watermark = tableHandler.getWatermark( column );
+			}
+			catch( SQLException e )
+			{
+				logWriter.logAppend( String.format("SQL exception occured trying to read the high-water mark of table '%1$s'", tableName) );
+				return( false );
+			}
+			
+			Object watermarkLast = state.getWatermark( tableName, column );
+			if( watermark == null )
+				watermark = watermarkLast;
+			
+			deltaConfig.setRowFilter( tableName, new SqliteRowFilter(column, watermarkLast, watermark) );
+			watermarks.put( tableName, watermark );
+		}
+		
+		logWriter.logAppend( String.format("Exporting the records added since the last export recorded in '%1$s'", stateFile.getAbsolutePath()) );
+		if( !exportFormat(outFile, format, deltaConfig) )
+			return( false );
+		
+		try
+		{
+			for( Map.Entry<String, Object> watermark : watermarks.entrySet() )
+			{
+				String tableName = watermark.getKey();
+				if( watermark.getValue() != null && !failedTables.contains(tableName) )
+					state.setWatermark( tableName, config.getWatermarkColumn(tableName), watermark.getValue() );
+			}
+			
+			state.write( stateFile );
+		}
+		catch( JSONException e )
+		{
+			logWriter.logAppend( String.format("Cannot update incremental export state file '%1$s': %2$s", stateFile.getAbsolutePath(), e.getMessage()) );
+			return( false );
+		}
+		catch( IOException e )
+		{
+			logWriter.logAppend( String.format("Cannot update incremental export state file '%1$s': %2$s", stateFile.getAbsolutePath(), e.getMessage()) );
+			return( false );
+		}
+		
+		return( true );
+	}
+	
+	// Opens the output file for writing as UTF-8, compressed if the configuration asks for it. The compression
+	// runs on a background thread so it overlaps with reading the database rather than adding to it
+	private Utf8ChannelWriter openOutput( File outFile, SqliteConverterExportConfig config ) throws IOException
+	{
+		OutputCodec codec = null;
+		String compression = config.getCompression();
+		if( compression != null )
+		{
+			codec = OutputCodecs.get( compression );
+			if( codec == null )
+			{
+				logWriter.logAppend( String.format("Unknown output compression '%1$s'", compression) );
+				throw new IOException( "Unknown output compression" );
+			}
+		}
+		
+		FileOutputStream fOut = new FileOutputStream( outFile );
+		WritableByteChannel outChannel;
+		if( codec == null )
+		{
+			outChannel = fOut.getChannel();
+		}
+		else
+		{
+			try
+			{
+				outChannel = Channels.newChannel( new AsyncOutputStream(codec.wrap(fOut, config.getCompressionLevel())) );
+			}
+			catch( IOException e )
+			{
+				fOut.close();
+				throw e;
+			}
+		}
+		
+		return( new Utf8ChannelWriter( outChannel, config.getOutputBufferSize() ) );
+	}
+	
 	private Boolean exportToXml( File xmlFile, SqliteConverterExportConfig config )
 	{
 		logWriter.logAppend( "XML export commencing" );
@@ -134,16 +490,36 @@ public class SqliteConverter
 		// Handle the export...
 		try
 		{
-			FileWriter		fStream = new FileWriter( xmlFile );
-			BufferedWriter	fOut	= new BufferedWriter( fStream );
-			
-			fOut.write( "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" );
-			fOut.write( "<database>\n" );
-			exportTablesToXml( fOut, "\t", config );
-			fOut.write( "</database>\n" );
+			SqliteRollingOutput xmlOut = openRollingOutput( xmlFile, config, new SqliteRollingOutput.Wrapper()
+			{
+				@Override
+				public void writeHeader( Writer partOut ) throws IOException
+				{
+					partOut.write( "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" );
+					partOut.write( "<database>\n" );
+				}
+				
+				@Override
+				public void writeTrailer( Writer partOut ) throws IOException
+				{
+					partOut.write( "</database>\n" );
+				}
+			});
+			try
+			{
+				Writer fOut = xmlOut.getWriter();
+				if( isParallelExport( config ) && !xmlOut.isRolling() )
+					exportTablesToXmlParallel( fOut, xmlOut, "\t", config, xmlFile.getAbsoluteFile().getParentFile() );
+				else
+					exportTablesToXml( xmlOut, "\t", config );
+			}
+			finally
+			{
+				xmlOut.close();
+			}
 			
-			fOut.close();
-			fStream.close();
+			if( xmlOut.isRolling() )
+				xmlOut.writeManifest( getManifestFile(xmlFile), ExportFormat.XML.name() );
 		}
 		catch( IOException e )
 		{
@@ -155,26 +531,143 @@ public class SqliteConverter
 		return( true );
 	}
 	
-	private void exportTablesToXml( Writer fOut, String indent, SqliteConverterExportConfig config )
+	// Rolling output only ever rolls over between records, either between tables or within one
+	private void exportTablesToXml( SqliteRollingOutput xmlOut, String indent, SqliteConverterExportConfig config ) throws IOException
 	{
         for( SqliteTableHandler tableHandler : tableHandlers )
         {
+        	if( xmlOut.isRollDue() )
+        		xmlOut.roll();
+        	
         	try
         	{
         		logWriter.logAppend( String.format("Exporting contents for table '%1$s'", tableHandler.getName()) );
-        		tableHandler.exportTableToXml( fOut, indent, config );
+        		tableHandler.exportTableToXml( xmlOut, indent, config );
         	}
         	catch( SQLException e )
         	{
         		logWriter.logAppend( String.format("SQL exception occured trying to export table '%1$s'", tableHandler.getName()) );
+        		failedTables.add( tableHandler.getName() );
         	}
         	catch( IOException e )
         	{
         		logWriter.logAppend( String.format("I/O exception occured trying to export table '%1$s'", tableHandler.getName()) );
+        		failedTables.add( tableHandler.getName() );
         	}
         }
 	}
 
+	private void exportTablesToXmlParallel( Writer fOut, SqliteRollingOutput xmlOut, final String indent, final SqliteConverterExportConfig config, File tempDir ) throws IOException
+	{
+		SqliteParallelExport parallelExport = startParallelExport( config, tempDir );
+		if( parallelExport == null )
+		{
+			exportTablesToXml( xmlOut, indent, config );
+			return;
+		}
+		
+		try
+		{
+			List<TableFragments> tablesFragments = new ArrayList<TableFragments>();
+	        for( SqliteTableHandler tableHandler : tableHandlers )
+	        {
+	        	TableFragments tableFragments = new TableFragments( tableHandler, getTableRanges(tableHandler, config, true) );
+	        	if( tableFragments.rangeFragments == null )
+	        	{
+		        	tableFragments.tableFragment = parallelExport.submit( tableHandler, new SqliteParallelExport.FragmentExporter()
+		        	{
+						@Override
+						public void export( SqliteTableHandler fragmentHandler, Writer fragmentOut ) throws SQLException, IOException
+						{
+							fragmentHandler.exportTableToXml( fragmentOut, indent, config );
+						}
+		        	});
+	        	}
+	        	else
+	        	{
+	        		for( final SqliteRowidRange range : tableFragments.ranges )
+	        		{
+			        	tableFragments.rangeFragments.add( parallelExport.submit( tableHandler, new SqliteParallelExport.FragmentExporter()
+			        	{
+							@Override
+							public void export( SqliteTableHandler fragmentHandler, Writer fragmentOut ) throws SQLException, IOException
+							{
+								fragmentHandler.exportRecordRangeToXml( fragmentOut, indent, config, range );
+							}
+			        	}));
+	        		}
+	        	}
+	        	tablesFragments.add( tableFragments );
+	        }
+	        
+	        for( TableFragments tableFragments : tablesFragments )
+	        {
+	        	if( tableFragments.rangeFragments == null )
+	        	{
+	        		tableFragments.tableFragment.appendTo( fOut );
+	        		continue;
+	        	}
+	        	
+	        	tableFragments.tableHandler.writeXmlTableStart( fOut, indent );
+	        	for( SqliteParallelExport.Fragment rangeFragment : tableFragments.rangeFragments )
+	        		rangeFragment.appendTo( fOut );
+	        	tableFragments.tableHandler.writeXmlTableEnd( fOut, indent );
+	        }
+		}
+		finally
+		{
+			parallelExport.shutdown();
+			failedTables.addAll( parallelExport.getFailedTables() );
+		}
+	}
+	
+	// Sets up the worker threads and connections for a parallel export. Returns null if the connections
+	// cannot be opened, in which case the export should proceed sequentially
+	private SqliteParallelExport startParallelExport( SqliteConverterExportConfig config, File tempDir )
+	{
+		int threadsNum = config.getExportThreads();
+		if( config.getPartitionRows() <= 0 )
+			threadsNum = Math.min( threadsNum, tableHandlers.size() );
+		try
+		{
+			logWriter.logAppend( String.format("Exporting tables over %1$d connections", threadsNum) );
+			return( new SqliteParallelExport( this, threadsNum, tempDir, logWriter ) );
+		}
+		catch( SQLException e )
+		{
+			logWriter.logAppend( String.format("SQL exception occured trying to open additional connections. Exporting sequentially...\n%1$s", e.toString()) );
+			return( null );
+		}
+	}
+	
+	private boolean isParallelExport( SqliteConverterExportConfig config )
+	{
+		if( config.getExportThreads() <= 1 )
+			return( false );
+		
+		return( tableHandlers.size() > 1 || config.getPartitionRows() > 0 );
+	}
+	
+	// Returns the rowid ranges a table is split into for a parallel export, or null if the table is exported
+	// in one piece. Keyed JSON tables are never split since their duplicate record names are resolved in order
+	private List<SqliteRowidRange> getTableRanges( SqliteTableHandler tableHandler, SqliteConverterExportConfig config, boolean splitKeyed )
+	{
+		if( config.getPartitionRows() <= 0 || !tableHandler.isExported(config) )
+			return( null );
+		if( !splitKeyed && tableHandler.getPrimaryKey(config) != null )
+			return( null );
+		
+		try
+		{
+			return( tableHandler.getRowidRanges( config.getPartitionRows(), config ) );
+		}
+		catch( SQLException e )
+		{
+			logWriter.logAppend( String.format("SQL exception occured trying to partition table '%1$s'. Exporting it in one piece...", tableHandler.getName()) );
+			return( null );
+		}
+	}
+	
 	private Boolean exportToJson( File jsonFile, SqliteConverterExportConfig config )
 	{
 		logWriter.logAppend( "JSON export commencing" );
@@ -182,43 +675,380 @@ public class SqliteConverter
 		// Handle the export...
 		try
 		{
-			FileWriter		fStream = new FileWriter( jsonFile );
-			BufferedWriter	fOut	= new BufferedWriter( fStream );
-			JSONObject		jsonOut	= new JSONObject();
-			
-			exportTablesToJson( jsonOut, config );
-			fOut.write( jsonOut.toString(2) );
+			// The JSON writer carries on from one part to the next
+			final JsonStreamWriter jsonOut = new JsonStreamWriter( null, 2 );
+			SqliteRollingOutput jsonRollOut = openRollingOutput( jsonFile, config, new SqliteRollingOutput.Wrapper()
+			{
+				@Override
+				public void writeHeader( Writer partOut ) throws IOException
+				{
+					jsonOut.setWriter( partOut );
+					jsonOut.beginObject();
+				}
+				
+				@Override
+				public void writeTrailer( Writer partOut ) throws IOException
+				{
+					jsonOut.unwind( 0 );
+				}
+			});
+			try
+			{
+				jsonRollOut.getWriter();
+				if( isParallelExport( config ) && !jsonRollOut.isRolling() )
+					exportTablesToJsonParallel( jsonOut, jsonRollOut, config, jsonFile.getAbsoluteFile().getParentFile() );
+				else
+					exportTablesToJson( jsonOut, jsonRollOut, config );
+			}
+			finally
+			{
+				jsonRollOut.close();
+			}
 			
-			fOut.close();
-			fStream.close();
+			if( jsonRollOut.isRolling() )
+				jsonRollOut.writeManifest( getManifestFile(jsonFile), ExportFormat.JSON.name() );
 		}
 		catch( IOException e )
 		{
 			logWriter.logAppend( String.format("I/O error encountered trying to output database to file '%1$s'", jsonFile.getAbsolutePath()) );
 			return( false );
 		}
-		catch (JSONException e)
+		
+		logWriter.logAppend( "JSON export complete" );
+		return( true );
+	}
+	
+	private void exportTablesToJson( JsonStreamWriter jsonOut, SqliteRollingOutput jsonRollOut, SqliteConverterExportConfig config ) throws IOException
+	{
+        for( SqliteTableHandler tableHandler : tableHandlers )
+        {
+        	if( jsonRollOut.isRollDue() )
+        		jsonRollOut.roll();
+        	
+        	int tableDepth = jsonOut.getDepth();
+        	try
+        	{
+        		logWriter.logAppend( String.format("Exporting contents for table '%1$s'", tableHandler.getName()) );
+        		tableHandler.exportTableToJson( jsonOut, jsonRollOut, config );
+        	}
+        	catch( SQLException e )
+        	{
+        		logWriter.logAppend( String.format("SQL exception occured trying to export table '%1$s'", tableHandler.getName()) );
+        		failedTables.add( tableHandler.getName() );
+        		jsonOut.unwind( tableDepth );
+        	}
+        }
+	}
+	
+	private void exportTablesToJsonParallel( JsonStreamWriter jsonOut, SqliteRollingOutput jsonRollOut, final SqliteConverterExportConfig config, File tempDir ) throws IOException
+	{
+		SqliteParallelExport parallelExport = startParallelExport( config, tempDir );
+		if( parallelExport == null )
+		{
+			exportTablesToJson( jsonOut, jsonRollOut, config );
+			return;
+		}
+		
+		final int tableDepth = jsonOut.getDepth();
+		try
+		{
+			List<TableFragments> tablesFragments = new ArrayList<TableFragments>();
+	        for( SqliteTableHandler tableHandler : tableHandlers )
+	        {
+	        	TableFragments tableFragments = new TableFragments( tableHandler, getTableRanges(tableHandler, config, false) );
+	        	if( tableFragments.rangeFragments == null )
+	        	{
+		        	tableFragments.tableFragment = parallelExport.submit( tableHandler, new SqliteParallelExport.FragmentExporter()
+		        	{
+						@Override
+						public void export( SqliteTableHandler fragmentHandler, Writer fragmentOut ) throws SQLException, IOException
+						{
+							fragmentHandler.exportTableToJson( new JsonStreamWriter(fragmentOut, 2, tableDepth, false), config );
+						}
+		        	});
+	        	}
+	        	else
+	        	{
+	        		for( final SqliteRowidRange range : tableFragments.ranges )
+	        		{
+			        	tableFragments.rangeFragments.add( parallelExport.submit( tableHandler, new SqliteParallelExport.FragmentExporter()
+			        	{
+							@Override
+							public void export( SqliteTableHandler fragmentHandler, Writer fragmentOut ) throws SQLException, IOException
+							{
+								fragmentHandler.exportRecordRangeToJson( new JsonStreamWriter(fragmentOut, 2, tableDepth + 1, true), config, range );
+							}
+			        	}));
+	        		}
+	        	}
+	        	tablesFragments.add( tableFragments );
+	        }
+	        
+	        for( TableFragments tableFragments : tablesFragments )
+	        {
+	        	if( tableFragments.rangeFragments == null )
+	        	{
+	        		tableFragments.tableFragment.appendTo( jsonOut );
+	        		continue;
+	        	}
+	        	
+	        	jsonOut.key( tableFragments.tableHandler.getName() );
+	        	jsonOut.beginArray();
+	        	for( SqliteParallelExport.Fragment rangeFragment : tableFragments.rangeFragments )
+	        		rangeFragment.appendTo( jsonOut );
+	        	jsonOut.endArray();
+	        }
+		}
+		finally
 		{
-			logWriter.logAppend( String.format("Error encoding database file '%1$s' into JSON", jsonFile.getAbsolutePath()) );
+			parallelExport.shutdown();
+			failedTables.addAll( parallelExport.getFailedTables() );
 		}
+	}
+	
+	// Columnar output is binary and exported one table at a time, so the compression and thread settings
+	// do not apply to it
+	private Boolean exportToColumnar( File columnarFile, SqliteConverterExportConfig config )
+	{
+		logWriter.logAppend( "Columnar export commencing" );
 		
-		logWriter.logAppend( "JSON export complete" );
+		// Handle the export...
+		try
+		{
+			OutputStream fOut = new BufferedOutputStream( new FileOutputStream(columnarFile), config.getOutputBufferSize() );
+			try
+			{
+				SqliteColumnarWriter columnarOut = new SqliteColumnarWriter( fOut, config.getRowGroupRows() );
+				exportTablesToColumnar( columnarOut, config );
+				columnarOut.finish();
+			}
+			finally
+			{
+				fOut.close();
+			}
+		}
+		catch( IOException e )
+		{
+			logWriter.logAppend( String.format("I/O error encountered trying to output database to file '%1$s'", columnarFile.getAbsolutePath()) );
+			return( false );
+		}
+		
+		logWriter.logAppend( "Columnar export complete" );
 		return( true );
 	}
 	
-	private void exportTablesToJson( JSONObject jsonOut, SqliteConverterExportConfig config )
+	private void exportTablesToColumnar( SqliteColumnarWriter columnarOut, SqliteConverterExportConfig config ) throws IOException
 	{
         for( SqliteTableHandler tableHandler : tableHandlers )
         {
         	try
         	{
         		logWriter.logAppend( String.format("Exporting contents for table '%1$s'", tableHandler.getName()) );
-        		tableHandler.exportTableToJson( jsonOut, config );
+        		tableHandler.exportTableToColumnar( columnarOut, config );
         	}
         	catch( SQLException e )
         	{
         		logWriter.logAppend( String.format("SQL exception occured trying to export table '%1$s'", tableHandler.getName()) );
+        		failedTables.add( tableHandler.getName() );
+        		columnarOut.abortTable();
         	}
         }
 	}
+	
+	// Formats holding a single table are exported to a file per table. The file names are derived from the
+	// output file's, with the table name added (e.g. 'zoo.csv' becomes 'zoo_Animals.csv')
+	private interface TableFileExporter
+	{
+		void export( SqliteTableHandler tableHandler, File tableFile ) throws SQLException, IOException;
+	}
+	
+	private Boolean exportToCsv( File csvFile, final SqliteConverterExportConfig config )
+	{
+		logWriter.logAppend( "CSV export commencing" );
+		
+		boolean exported = exportTablesToFiles( csvFile, config.getCompression() != null, config, new TableFileExporter()
+		{
+			@Override
+			public void export( SqliteTableHandler tableHandler, File tableFile ) throws SQLException, IOException
+			{
+				Writer fOut = openOutput( tableFile, config );
+				try
+				{
+					tableHandler.exportTableToCsv( fOut, config );
+				}
+				finally
+				{
+					fOut.close();
+				}
+			}
+		});
+		if( !exported )
+			return( false );
+		
+		logWriter.logAppend( "CSV export complete" );
+		return( true );
+	}
+	
+	// Arrow files are meant to be memory-mapped by their readers, so they are never compressed
+	private Boolean exportToArrow( File arrowFile, final SqliteConverterExportConfig config )
+	{
+		logWriter.logAppend( "Arrow export commencing" );
+		
+		boolean exported = exportTablesToFiles( arrowFile, false, config, new TableFileExporter()
+		{
+			@Override
+			public void export( SqliteTableHandler tableHandler, File tableFile ) throws SQLException, IOException
+			{
+				FileChannel fOut = new FileOutputStream( tableFile ).getChannel();
+				try
+				{
+					tableHandler.exportTableToArrow( fOut, config );
+				}
+				finally
+				{
+					fOut.close();
+				}
+			}
+		});
+		if( !exported )
+			return( false );
+		
+		logWriter.logAppend( "Arrow export complete" );
+		return( true );
+	}
+	
+	// Newline-delimited JSON can be split on its line breaks, so its files can be read in parallel. Rolling
+	// the output over into part files gives readers more files to share out
+	private Boolean exportToNdjson( File ndjsonFile, final SqliteConverterExportConfig config )
+	{
+		logWriter.logAppend( "NDJSON export commencing" );
+		
+		boolean exported = exportTablesToFiles( ndjsonFile, config.getCompression() != null, config, new TableFileExporter()
+		{
+			@Override
+			public void export( SqliteTableHandler tableHandler, File tableFile ) throws SQLException, IOException
+			{
+				SqliteRollingOutput ndjsonOut = openRollingOutput( tableFile, config, null );
+				boolean exported = false;
+				try
+				{
+					tableHandler.exportTableToNdjson( ndjsonOut, config );
+					exported = true;
+				}
+				finally
+				{
+					ndjsonOut.close();
+					if( !exported )
+						ndjsonOut.deleteFiles();
+				}
+			}
+		});
+		if( !exported )
+			return( false );
+		
+		logWriter.logAppend( "NDJSON export complete" );
+		return( true );
+	}
+	
+	// The manifest of a rolling export is named after the output file (e.g. 'zoo.xml.manifest.json')
+	private static File getManifestFile( File outFile )
+	{
+		return( new File( outFile.getAbsolutePath() + ".manifest.json" ) );
+	}
+	
+	// Opens an output that rolls over to a new part file as configured. The wrapper (if any) opens and
+	// closes the document in each part
+	private SqliteRollingOutput openRollingOutput( File outFile, final SqliteConverterExportConfig config, SqliteRollingOutput.Wrapper wrapper )
+	{
+		return( new SqliteRollingOutput( outFile, config, new SqliteRollingOutput.Opener()
+		{
+			@Override
+			public Utf8ChannelWriter open( File partFile ) throws IOException
+			{
+				return( openOutput( partFile, config ) );
+			}
+		}, wrapper ));
+	}
+	
+	// A table that fails to export has its file removed. Returns false if a file could not be written
+	private boolean exportTablesToFiles( File outFile, boolean compressed, SqliteConverterExportConfig config, TableFileExporter exporter )
+	{
+		Set<String> tableFileNames = new HashSet<String>();
+        for( SqliteTableHandler tableHandler : tableHandlers )
+        {
+        	if( !tableHandler.isExported( config ) )
+        		continue;
+        	
+        	File tableFile = getTableFile( outFile, tableHandler.getName(), compressed, tableFileNames );
+        	boolean exported = false;
+        	try
+        	{
+        		logWriter.logAppend( String.format("Exporting contents for table '%1$s'", tableHandler.getName()) );
+        		exporter.export( tableHandler, tableFile );
+        		exported = true;
+        	}
+        	catch( SQLException e )
+        	{
+        		logWriter.logAppend( String.format("SQL exception occured trying to export table '%1$s'", tableHandler.getName()) );
+        		failedTables.add( tableHandler.getName() );
+        	}
+        	catch( IOException e )
+        	{
+        		logWriter.logAppend( String.format("I/O error encountered trying to output table to file '%1$s'", tableFile.getAbsolutePath()) );
+        		return( false );
+        	}
+        	finally
+        	{
+        		if( !exported )
+        			tableFile.delete();
+        	}
+        }
+        
+        return( true );
+	}
+	
+	// Characters that are not safe in a file name are replaced in the table name. A file name already used
+	// by another table (ignoring case, as some file systems do) is made unique with a number, rather than
+	// have one table overwrite the other
+	private File getTableFile( File outFile, String tableName, boolean compressed, Set<String> tableFileNames )
+	{
+		String tableSuffix = "_" + tableName.replaceAll( "[^A-Za-z0-9_.-]", "_" );
+		File tableFile = addFileNameSuffix( outFile, tableSuffix, compressed );
+		if( tableFileNames.add( tableFile.getName().toLowerCase(Locale.ENGLISH) ) )
+			return( tableFile );
+		
+		File tableFileUnique;
+		int nameIndex = 2;
+		do
+		{
+			tableFileUnique = addFileNameSuffix( outFile, tableSuffix + "_" + nameIndex++, compressed );
+		}
+		while( !tableFileNames.add( tableFileUnique.getName().toLowerCase(Locale.ENGLISH) ) );
+		
+		logWriter.logAppend( String.format("Table '%1$s' is exported to file '%2$s' because '%3$s' is taken by another table", tableName, tableFileUnique.getName(), tableFile.getName()) );
+		return( tableFileUnique );
+	}
+	
+	// Adds the suffix to the file name, before its extension or before the last two if the file is compressed
+	// (as in 'zoo.csv.gz')
+	static File addFileNameSuffix( File file, String suffix, boolean compressed )
+	{
+		String fileName = file.getName();
+		String fileExt = "";
+		int extIndex = fileName.lastIndexOf( '.' );
+		if( extIndex > 0 && compressed )
+		{
+			int innerExtIndex = fileName.lastIndexOf( '.', extIndex - 1 );
+			if( innerExtIndex > 0 )
+				extIndex = innerExtIndex;
+		}
+		
+		if( extIndex > 0 )
+		{
+			fileExt = fileName.substring( extIndex );
+			fileName = fileName.substring( 0, extIndex );
+		}
+		
+		return( new File( file.getAbsoluteFile().getParentFile(), fileName + suffix + fileExt ) );
+	}
 }
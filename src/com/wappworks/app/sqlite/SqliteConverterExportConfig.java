@@ -16,10 +16,31 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import com.wappworks.common.io.OutputCodec;
+
 public class SqliteConverterExportConfig
 {
+	public static final int OUTPUT_BUFFER_SIZE_DEFAULT = 256 * 1024;
+	public static final String WATERMARK_COLUMN_DEFAULT = "rowid";
+	public static final int ROW_GROUP_ROWS_DEFAULT = 64 * 1024;
+	public static final char DELIMITER_DEFAULT = ',';
+	
 	List<String> excludeList;
 	Map<String, String> tablePrimaryKeys;
+	int exportThreads;
+	long partitionRows;
+	String compression;
+	int compressionLevel;
+	boolean pipelined;
+	boolean fileReads;
+	int outputBufferSize;
+	int rowGroupRows;
+	String delimiter;
+	long rollRows;
+	long rollBytes;
+	String incrementalState;
+	Map<String, String> watermarkColumns;
+	Map<String, SqliteRowFilter> rowFilters;
 	
 	public SqliteConverterExportConfig( JSONObject jsonConfig )
 	{
@@ -31,6 +52,20 @@ public class SqliteConverterExportConfig
 	{
 		excludeList = new ArrayList<String>( src.excludeList );
 		tablePrimaryKeys = new Hashtable<String, String>( src.tablePrimaryKeys );
+		exportThreads = src.exportThreads;
+		partitionRows = src.partitionRows;
+		compression = src.compression;
+		compressionLevel = src.compressionLevel;
+		pipelined = src.pipelined;
+		fileReads = src.fileReads;
+		outputBufferSize = src.outputBufferSize;
+		rowGroupRows = src.rowGroupRows;
+		delimiter = src.delimiter;
+		rollRows = src.rollRows;
+		rollBytes = src.rollBytes;
+		incrementalState = src.incrementalState;
+		watermarkColumns = new Hashtable<String, String>( src.watermarkColumns );
+		rowFilters = new Hashtable<String, SqliteRowFilter>( src.rowFilters );
 	}
 	
 	public SqliteConverterExportConfig( List<String> inExcludeList, Map<String, String> inTablePrimaryKeys )
@@ -67,6 +102,32 @@ public class SqliteConverterExportConfig
 	{
 		tablePrimaryKeys.putAll( source.tablePrimaryKeys );
 		excludeList.addAll( source.excludeList );
+		if( source.exportThreads > 0 )
+			exportThreads = source.exportThreads;
+		if( source.partitionRows > 0 )
+			partitionRows = source.partitionRows;
+		if( source.compression != null )
+			compression = source.compression;
+		if( source.compressionLevel != OutputCodec.LEVEL_DEFAULT )
+			compressionLevel = source.compressionLevel;
+		if( source.pipelined )
+			pipelined = true;
+		if( source.fileReads )
+			fileReads = true;
+		if( source.outputBufferSize > 0 )
+			outputBufferSize = source.outputBufferSize;
+		if( source.rowGroupRows > 0 )
+			rowGroupRows = source.rowGroupRows;
+		if( source.delimiter != null )
+			delimiter = source.delimiter;
+		if( source.rollRows > 0 )
+			rollRows = source.rollRows;
+		if( source.rollBytes > 0 )
+			rollBytes = source.rollBytes;
+		if( source.incrementalState != null )
+			incrementalState = source.incrementalState;
+		watermarkColumns.putAll( source.watermarkColumns );
+		rowFilters.putAll( source.rowFilters );
 	}
 	
 	public void add( JSONObject jsonConfig )
@@ -102,6 +163,50 @@ public class SqliteConverterExportConfig
 				catch (JSONException e)	{}
 			}
 		}
+		
+		// Import the export thread count (if available)...
+		exportThreads = jsonConfig.optInt( "threads", exportThreads );
+		partitionRows = jsonConfig.optLong( "partitionRows", partitionRows );
+		
+		// Import the output compression settings (if available)...
+		compression = jsonConfig.optString( "compression", compression );
+		compressionLevel = jsonConfig.optInt( "compressionLevel", compressionLevel );
+		
+		// Import the pipelined export setting (if available)...
+		pipelined = jsonConfig.optBoolean( "pipelined", pipelined );
+		
+		// Import the database read setting (if available)...
+		fileReads = jsonConfig.optBoolean( "fileReads", fileReads );
+		
+		// Import the output buffer size (if available)...
+		outputBufferSize = jsonConfig.optInt( "outputBufferSize", outputBufferSize );
+		
+		// Import the columnar output row group size (if available)...
+		rowGroupRows = jsonConfig.optInt( "rowGroupRows", rowGroupRows );
+		
+		// Import the CSV output field delimiter (if available)...
+		delimiter = jsonConfig.optString( "delimiter", delimiter );
+		
+		// Import the output file rolling settings (if available)...
+		rollRows = jsonConfig.optLong( "rollRows", rollRows );
+		rollBytes = jsonConfig.optLong( "rollBytes", rollBytes );
+		
+		// Import the incremental export settings (if available)...
+		incrementalState = jsonConfig.optString( "incrementalState", incrementalState );
+		JSONObject watermarkMap = jsonConfig.optJSONObject( "watermarks" );
+		if( watermarkMap != null )
+		{
+			Iterator<String> tables = watermarkMap.keys();
+			while( tables.hasNext() )
+			{
+				String currTable = tables.next();
+				try
+				{
+					watermarkColumns.put( currTable, watermarkMap.getString(currTable) );
+				}
+				catch (JSONException e)	{}
+			}
+		}
 	}
 	
 	public List<String> getExcludeList()
@@ -114,6 +219,176 @@ public class SqliteConverterExportConfig
 		return( tablePrimaryKeys );
 	}
 	
+	// The number of tables exported concurrently, each over its own database connection
+	public int getExportThreads()
+	{
+		return( exportThreads > 0 ? exportThreads : 1 );
+	}
+	
+	public void setExportThreads( int inExportThreads )
+	{
+		exportThreads = inExportThreads;
+	}
+	
+	// During a parallel export, tables spanning more rowids than this are split into rowid ranges that are
+	// exported concurrently. Zero disables the split
+	public long getPartitionRows()
+	{
+		return( partitionRows );
+	}
+	
+	public void setPartitionRows( long inPartitionRows )
+	{
+		partitionRows = inPartitionRows;
+	}
+	
+	// The name of the codec the output is compressed with (see OutputCodecs), or null for uncompressed output
+	public String getCompression()
+	{
+		if( compression == null || compression.length() <= 0 || compression.equalsIgnoreCase("none") )
+			return( null );
+		
+		return( compression );
+	}
+	
+	public void setCompression( String inCompression )
+	{
+		compression = inCompression;
+	}
+	
+	// The compression level, from 1 (fastest) to 9 (smallest). OutputCodec.LEVEL_DEFAULT leaves the choice to the codec
+	public int getCompressionLevel()
+	{
+		return( compressionLevel );
+	}
+	
+	public void setCompressionLevel( int inCompressionLevel )
+	{
+		compressionLevel = inCompressionLevel;
+	}
+	
+	// Whether each table's records are read on a thread of their own, alongside the thread writing them out
+	public boolean isPipelined()
+	{
+		return( pipelined );
+	}
+	
+	public void setPipelined( boolean inPipelined )
+	{
+		pipelined = inPipelined;
+	}
+	
+	// Whether the records are read straight from the database file where possible, rather than through the
+	// database driver
+	public boolean isFileReads()
+	{
+		return( fileReads );
+	}
+	
+	public void setFileReads( boolean inFileReads )
+	{
+		fileReads = inFileReads;
+	}
+	
+	// The size in bytes of the buffer the output is encoded into before being written out
+	public int getOutputBufferSize()
+	{
+		return( outputBufferSize > 0 ? outputBufferSize : OUTPUT_BUFFER_SIZE_DEFAULT );
+	}
+	
+	public void setOutputBufferSize( int inOutputBufferSize )
+	{
+		outputBufferSize = inOutputBufferSize;
+	}
+	
+	// The number of records gathered into each row group of the columnar output
+	public int getRowGroupRows()
+	{
+		return( rowGroupRows > 0 ? rowGroupRows : ROW_GROUP_ROWS_DEFAULT );
+	}
+	
+	public void setRowGroupRows( int inRowGroupRows )
+	{
+		rowGroupRows = inRowGroupRows;
+	}
+	
+	// The character separating the fields of the CSV output. Only the first character of the configured
+	// delimiter is used
+	public char getDelimiter()
+	{
+		if( delimiter == null || delimiter.length() <= 0 )
+			return( DELIMITER_DEFAULT );
+		
+		return( delimiter.charAt(0) );
+	}
+	
+	public void setDelimiter( String inDelimiter )
+	{
+		delimiter = inDelimiter;
+	}
+	
+	// The number of records after which the output rolls over to a new part file. Zero disables the limit
+	public long getRollRows()
+	{
+		return( rollRows );
+	}
+	
+	public void setRollRows( long inRollRows )
+	{
+		rollRows = inRollRows;
+	}
+	
+	// The size in bytes (before any compression) after which the output rolls over to a new part file. Zero
+	// disables the limit
+	public long getRollBytes()
+	{
+		return( rollBytes );
+	}
+	
+	public void setRollBytes( long inRollBytes )
+	{
+		rollBytes = inRollBytes;
+	}
+	
+	// The file recording the high-water mark of each table between incremental exports, or null for a full
+	// export. A relative path is resolved against the export output's folder
+	public String getIncrementalState()
+	{
+		if( incrementalState == null || incrementalState.length() <= 0 )
+			return( null );
+		
+		return( incrementalState );
+	}
+	
+	public void setIncrementalState( String inIncrementalState )
+	{
+		incrementalState = inIncrementalState;
+	}
+	
+	// The column whose values mark the records of the table added since the last incremental export.
+	// Defaults to the rowid
+	public String getWatermarkColumn( String tableName )
+	{
+		String column = watermarkColumns.get( tableName );
+		return( column != null ? column : WATERMARK_COLUMN_DEFAULT );
+	}
+	
+	public Map<String, String> getWatermarkColumns()
+	{
+		return( watermarkColumns );
+	}
+	
+	// The filter restricting the records exported from the table, or null if they are all exported
+	SqliteRowFilter getRowFilter( String tableName )
+	{
+		return( rowFilters.get( tableName ) );
+	}
+	
+	void setRowFilter( String tableName, SqliteRowFilter rowFilter )
+	{
+		rowFilters.put( tableName, rowFilter );
+	}
+	
 	private void init( List<String> inExcludeList, Map<String, String> inTablePrimaryKeys )
 	{
 		excludeList = inExcludeList;
@@ -123,5 +398,20 @@ public class SqliteConverterExportConfig
 		tablePrimaryKeys = inTablePrimaryKeys;
 		if( tablePrimaryKeys == null )
 			tablePrimaryKeys = new Hashtable<String, String>();
+		
+		exportThreads = 0;
+		partitionRows = 0;
+		compression = null;
+		compressionLevel = OutputCodec.LEVEL_DEFAULT;
+		pipelined = false;
+		fileReads = false;
+		outputBufferSize = 0;
+		rowGroupRows = 0;
+		delimiter = null;
+		rollRows = 0;
+		rollBytes = 0;
+		incrementalState = null;
+		watermarkColumns = new Hashtable<String, String>();
+		rowFilters = new Hashtable<String, SqliteRowFilter>();
 	}
 }
\ No newline at end of file
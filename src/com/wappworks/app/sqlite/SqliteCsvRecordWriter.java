@@ -0,0 +1,156 @@
+/* 
+ * SQLite CSV Record Writer
+ *
+ * Copyright 2011 Wappworks Studios
+ */
+package com.wappworks.app.sqlite;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import com.wappworks.common.util.NumberChars;
+
+// Writes table records as delimiter separated values, one record per line. Values are quoted only when
+// they hold the delimiter, a quote or a line break, with any quotes doubled up. Nulls are written as empty
+// fields and empty strings as an empty quoted field, so the two can be told apart on import
+class SqliteCsvRecordWriter
+{
+	private static final int	BUFFER_SIZE = 16 * 1024;
+	
+	private static final char	QUOTE = '"';
+	private static final char	RECORD_END = '\n';
+	
+	private Writer		writer;
+	private char		delimiter;
+	private char[]		buffer;
+	private int			bufferPos;
+	private boolean		recordHasFields;
+	
+	SqliteCsvRecordWriter( Writer inWriter, char inDelimiter )
+	{
+		writer = inWriter;
+		delimiter = inDelimiter;
+		buffer = new char[ BUFFER_SIZE ];
+		bufferPos = 0;
+		recordHasFields = false;
+	}
+	
+	void writeField( String value ) throws IOException
+	{
+		if( recordHasFields )
+			append( delimiter );
+		recordHasFields = true;
+		
+		if( value == null )
+			return;
+		
+		if( value.length() <= 0 )
+		{
+			append( QUOTE );
+			append( QUOTE );
+			return;
+		}
+		
+		// Most values need no quoting and are copied across in one go
+		int quoteStart = getQuoteStart( value );
+		if( quoteStart < 0 )
+		{
+			appendRun( value, 0, value.length() );
+			return;
+		}
+		
+		append( QUOTE );
+		appendRun( value, 0, quoteStart );
+		appendQuoted( value, quoteStart );
+		append( QUOTE );
+	}
+	
+	// Writes an integer value, formatting its digits straight into the buffer. A delimiter that could turn up
+	// in a number means the value may need quoting, so it then goes through the text path
+	void writeField( long value ) throws IOException
+	{
+		if( delimiter == '-' || (delimiter >= '0' && delimiter <= '9') )
+		{
+			writeField( Long.toString(value) );
+			return;
+		}
+		
+		if( recordHasFields )
+			append( delimiter );
+		recordHasFields = true;
+		
+		if( bufferPos + NumberChars.LONG_CHARS_MAX > buffer.length )
+			flush();
+		bufferPos = NumberChars.formatLong( value, buffer, bufferPos );
+	}
+	
+	void endRecord() throws IOException
+	{
+		append( RECORD_END );
+		recordHasFields = false;
+	}
+	
+	// Hands any buffered output over to the destination writer
+	void flush() throws IOException
+	{
+		if( bufferPos <= 0 )
+			return;
+		
+		writer.write( buffer, 0, bufferPos );
+		bufferPos = 0;
+	}
+	
+	// Returns the index of the first character that forces the value to be quoted, or -1 if there is none
+	private int getQuoteStart( String value )
+	{
+		int valueLength = value.length();
+		for( int charIndex = 0; charIndex < valueLength; charIndex++ )
+		{
+			char valueChar = value.charAt( charIndex );
+			if( valueChar == delimiter || valueChar == QUOTE || valueChar == '\n' || valueChar == '\r' )
+				return( charIndex );
+		}
+		
+		return( -1 );
+	}
+	
+	// Copies the rest of a quoted value across in runs, only breaking a run to double up a quote
+	private void appendQuoted( String value, int start ) throws IOException
+	{
+		int valueLength = value.length();
+		int runStart = start;
+		for( int charIndex = start; charIndex < valueLength; charIndex++ )
+		{
+			if( value.charAt(charIndex) != QUOTE )
+				continue;
+			
+			appendRun( value, runStart, charIndex + 1 );
+			append( QUOTE );
+			runStart = charIndex + 1;
+		}
+		
+		appendRun( value, runStart, valueLength );
+	}
+	
+	private void append( char value ) throws IOException
+	{
+		if( bufferPos >= buffer.length )
+			flush();
+		
+		buffer[ bufferPos++ ] = value;
+	}
+	
+	private void appendRun( String value, int start, int end ) throws IOException
+	{
+		while( start < end )
+		{
+			if( bufferPos >= buffer.length )
+				flush();
+			
+			int copyLength = Math.min( end - start, buffer.length - bufferPos );
+			value.getChars( start, start + copyLength, buffer, bufferPos );
+			bufferPos += copyLength;
+			start += copyLength;
+		}
+	}
+}
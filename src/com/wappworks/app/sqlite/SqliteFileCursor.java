@@ -0,0 +1,575 @@
+/* 
+ * SQLite File Cursor
+ *
+ * Copyright 2011 Wappworks Studios
+ */
+package com.wappworks.app.sqlite;
+
+import java.nio.ByteBuffer;
+import java.sql.SQLException;
+
+// Steps through the records of a table b-tree in a memory-mapped database file, in rowid order, decoding
+// the current record's columns on demand. The columns are read through the same getters as a result set
+// (with 1-based column indexes) and are converted the way the driver converts them, so a record reads the
+// same either way. The few values whose conversion is not reproduced here (text read as a float, and text
+// the driver would mangle, such as text with embedded nulls) are flagged instead: wasConverted() returns
+// false once the current record holds one, and the record should then be read through the driver
+class SqliteFileCursor
+{
+	private static final int		PAGE_TYPE_TABLE_INTERIOR = 0x05;
+	private static final int		PAGE_TYPE_TABLE_LEAF = 0x0D;
+	private static final int		PAGE_DEPTH_MAX = 20;
+	private static final int[]		SERIAL_TYPE_SIZES = { 0, 1, 2, 3, 4, 6, 8, 8, 0, 0 };
+	private static final int		SERIAL_TYPE_NULL = 0;
+	private static final int		SERIAL_TYPE_FLOAT = 7;
+	private static final int		SERIAL_TYPE_ZERO = 8;
+	private static final int		SERIAL_TYPE_BLOB_MIN = 12;
+	
+	private SqliteFileReader	fileReader;
+	private ByteBuffer[]		segments;
+	private int					pageSize;
+	private int					usableSize;
+	private int					rowidColumnIndex;
+	private boolean[]			realColumns;
+	private long				rowidLast = Long.MAX_VALUE;
+	private boolean				exhausted = false;
+	private boolean				closed = false;
+	
+	// The path from the root page down to the current leaf page: each page's segment and offset, its cell
+	// count and the index of the next cell (or child) to visit
+	private int					depth = -1;
+	private ByteBuffer[]		pageSegments = new ByteBuffer[ PAGE_DEPTH_MAX ];
+	private int[]				pageOffsets = new int[ PAGE_DEPTH_MAX ];
+	private int[]				pageHeaderOffsets = new int[ PAGE_DEPTH_MAX ];
+	private boolean[]			pageLeaves = new boolean[ PAGE_DEPTH_MAX ];
+	private int[]				pageCellsNum = new int[ PAGE_DEPTH_MAX ];
+	private int[]				pageCellIndexes = new int[ PAGE_DEPTH_MAX ];
+	
+	// The current record: its payload (in the mapped file if it fits on its page, or else gathered from its
+	// overflow pages) and the serial type and payload offset of each of its columns
+	private long				rowid;
+	private ByteBuffer			payload;
+	private byte[]				overflowPayload = new byte[ 0 ];
+	private ByteBuffer			overflowPayloadBuffer = ByteBuffer.wrap( overflowPayload );
+	private int					columnsNum;
+	private long[]				columnTypes = new long[ 16 ];
+	private int[]				columnOffsets = new int[ 16 ];
+	private char[]				textChars = new char[ 256 ];
+	private boolean				converted;
+	private boolean				wasNull;
+	
+	// Reads the records of the given b-tree, limited to the given rowid range (if any)
+	SqliteFileCursor( SqliteFileReader inFileReader, int rootPage, int inRowidColumnIndex, boolean[] inRealColumns, SqliteRowidRange range ) throws SQLException
+	{
+		fileReader = inFileReader;
+		segments = fileReader.getSegments();
+		pageSize = fileReader.getPageSize();
+		usableSize = fileReader.getUsableSize();
+		rowidColumnIndex = inRowidColumnIndex;
+		realColumns = inRealColumns;
+		
+		long rowidFirst = Long.MIN_VALUE;
+		if( range != null )
+		{
+			rowidFirst = range.getFirst();
+			rowidLast = range.getLast();
+		}
+		
+		seek( rootPage, rowidFirst );
+	}
+	
+	// Moves on to the next record. Returns false once all the records have been read
+	boolean next() throws SQLException
+	{
+		while( !exhausted )
+		{
+			if( depth < 0 )
+			{
+				exhausted = true;
+				break;
+			}
+			
+			int cellIndex = pageCellIndexes[ depth ];
+			if( pageLeaves[depth] )
+			{
+				if( cellIndex >= pageCellsNum[depth] )
+				{
+					depth--;
+					continue;
+				}
+				
+				pageCellIndexes[ depth ]++;
+				readLeafCell( getCellOffset(depth, cellIndex) );
+				if( rowid > rowidLast )
+				{
+					exhausted = true;
+					break;
+				}
+				
+				return( true );
+			}
+			
+			// Interior pages lead on to a child per cell, then to their right-most child
+			if( cellIndex > pageCellsNum[depth] )
+			{
+				depth--;
+				continue;
+			}
+			
+			pageCellIndexes[ depth ]++;
+			pushPage( getChildPage(depth, cellIndex) );
+		}
+		
+		return( false );
+	}
+	
+	long getRowid()
+	{
+		return( rowid );
+	}
+	
+	long getLong( int columnIndex ) throws SQLException
+	{
+		long columnType = getColumnType( columnIndex );
+		if( columnType == SERIAL_TYPE_FLOAT )
+			return( floatToLong( payload.getDouble(columnOffsets[columnIndex - 1]) ) );
+		
+		if( columnType >= SERIAL_TYPE_BLOB_MIN )
+			return( parseLong( columnOffsets[columnIndex - 1], getBlobLength(columnType) ) );
+		
+		if( isRealColumn( columnIndex ) )
+			return( floatToLong( readInteger(columnIndex, columnType) ) );
+		
+		return( readInteger( columnIndex, columnType ) );
+	}
+	
+	double getDouble( int columnIndex ) throws SQLException
+	{
+		long columnType = getColumnType( columnIndex );
+		if( columnType == SERIAL_TYPE_FLOAT )
+			return( payload.getDouble( columnOffsets[columnIndex - 1] ) );
+		
+		// The driver's text to float conversion is not reproduced
+		if( columnType >= SERIAL_TYPE_BLOB_MIN )
+		{
+			converted = false;
+			return( 0 );
+		}
+		
+		return( readInteger( columnIndex, columnType ) );
+	}
+	
+	String getString( int columnIndex ) throws SQLException
+	{
+		long columnType = getColumnType( columnIndex );
+		if( wasNull )
+			return( null );
+		
+		int columnOffset = columnOffsets[ columnIndex - 1 ];
+		if( columnType == SERIAL_TYPE_FLOAT )
+			return( SqliteRealFormat.format( payload.getDouble(columnOffset) ) );
+		
+		if( columnType >= SERIAL_TYPE_BLOB_MIN )
+			return( decodeText( columnOffset, getBlobLength(columnType) ) );
+		
+		if( isRealColumn( columnIndex ) )
+			return( SqliteRealFormat.format( readInteger(columnIndex, columnType) ) );
+		
+		return( Long.toString( readInteger(columnIndex, columnType) ) );
+	}
+	
+	// Whether the column holds an integer, which getString() would read as its digits and getLong() as it is
+	boolean isInteger( int columnIndex )
+	{
+		long columnType = getColumnType( columnIndex );
+		if( wasNull || columnType == SERIAL_TYPE_FLOAT || columnType >= SERIAL_TYPE_BLOB_MIN )
+			return( false );
+		
+		return( !isRealColumn( columnIndex ) );
+	}
+	
+	// Whether the last column read was null
+	boolean wasNull()
+	{
+		return( wasNull );
+	}
+	
+	// Whether every column read from the current record so far was converted as the driver would have
+	boolean wasConverted()
+	{
+		return( converted );
+	}
+	
+	// Checks that the database was not written to while it was being read
+	void close() throws SQLException
+	{
+		if( closed )
+			return;
+		
+		closed = true;
+		exhausted = true;
+		try
+		{
+			fileReader.checkUnchanged();
+		}
+		finally
+		{
+			fileReader.cursorClosed();
+		}
+	}
+	
+	// Positions the cursor before the first record with a rowid of at least the given one, by following
+	// the interior cells' keys (the largest rowid of their child's subtree) down from the root page
+	private void seek( int rootPage, long rowidFirst ) throws SQLException
+	{
+		pushPage( rootPage );
+		while( true )
+		{
+			int cellsNum = pageCellsNum[ depth ];
+			int cellIndex = 0;
+			if( pageLeaves[depth] )
+			{
+				while( cellIndex < cellsNum && readVarint( pageSegments[depth], skipVarint(pageSegments[depth], getCellOffset(depth, cellIndex)) ) < rowidFirst )
+					cellIndex++;
+				pageCellIndexes[ depth ] = cellIndex;
+				return;
+			}
+			
+			while( cellIndex < cellsNum && readVarint( pageSegments[depth], getCellOffset(depth, cellIndex) + 4 ) < rowidFirst )
+				cellIndex++;
+			pageCellIndexes[ depth ] = cellIndex + 1;
+			pushPage( getChildPage(depth, cellIndex) );
+		}
+	}
+	
+	private void pushPage( long pageNum ) throws SQLException
+	{
+		if( pageNum < 1 || pageNum > fileReader.getPagesNum() )
+			throw corrupt( String.format("page %1$d is out of range", pageNum) );
+		if( depth + 1 >= PAGE_DEPTH_MAX )
+			throw corrupt( "the table b-tree is too deep" );
+		
+		ByteBuffer pageSegment = getPageSegment( pageNum );
+		int pageOffset = getPageOffset( pageNum );
+		int headerOffset = pageOffset + (pageNum == 1 ? SqliteFileReader.HEADER_SIZE : 0);
+		
+		int pageType = pageSegment.get( headerOffset ) & 0xFF;
+		if( pageType != PAGE_TYPE_TABLE_LEAF && pageType != PAGE_TYPE_TABLE_INTERIOR )
+			throw corrupt( String.format("page %1$d is not a table b-tree page", pageNum) );
+		
+		depth++;
+		pageSegments[ depth ] = pageSegment;
+		pageOffsets[ depth ] = pageOffset;
+		pageHeaderOffsets[ depth ] = headerOffset;
+		pageLeaves[ depth ] = (pageType == PAGE_TYPE_TABLE_LEAF);
+		pageCellsNum[ depth ] = pageSegment.getShort( headerOffset + 3 ) & 0xFFFF;
+		pageCellIndexes[ depth ] = 0;
+	}
+	
+	// Pages never straddle the mapped segments, since the segment size is a multiple of the page size
+	private ByteBuffer getPageSegment( long pageNum )
+	{
+		return( segments[ (int) (((pageNum - 1) * pageSize) >>> SqliteFileReader.SEGMENT_SHIFT) ] );
+	}
+	
+	private int getPageOffset( long pageNum )
+	{
+		return( (int) (((pageNum - 1) * pageSize) & ((1L << SqliteFileReader.SEGMENT_SHIFT) - 1)) );
+	}
+	
+	// The cell pointer array follows the page header, which is 4 bytes longer on interior pages
+	private int getCellOffset( int pageDepth, int cellIndex )
+	{
+		int pointerOffset = pageHeaderOffsets[ pageDepth ] + (pageLeaves[pageDepth] ? 8 : 12) + cellIndex * 2;
+		return( pageOffsets[pageDepth] + (pageSegments[pageDepth].getShort( pointerOffset ) & 0xFFFF) );
+	}
+	
+	private long getChildPage( int pageDepth, int cellIndex )
+	{
+		ByteBuffer pageSegment = pageSegments[ pageDepth ];
+		if( cellIndex < pageCellsNum[pageDepth] )
+			return( pageSegment.getInt( getCellOffset(pageDepth, cellIndex) ) & 0xFFFFFFFFL );
+		
+		return( pageSegment.getInt( pageHeaderOffsets[pageDepth] + 8 ) & 0xFFFFFFFFL );
+	}
+	
+	// Reads the leaf cell's rowid and payload, then the record header listing the columns
+	private void readLeafCell( int cellOffset ) throws SQLException
+	{
+		ByteBuffer pageSegment = pageSegments[ depth ];
+		long payloadLength = readVarint( pageSegment, cellOffset );
+		cellOffset = skipVarint( pageSegment, cellOffset );
+		rowid = readVarint( pageSegment, cellOffset );
+		cellOffset = skipVarint( pageSegment, cellOffset );
+		
+		int localLength = getLocalPayloadLength( payloadLength );
+		int payloadStart;
+		if( localLength == payloadLength )
+		{
+			payload = pageSegment;
+			payloadStart = cellOffset;
+		}
+		else
+		{
+			readOverflowPayload( pageSegment, cellOffset, localLength, (int) payloadLength );
+			payload = overflowPayloadBuffer;
+			payloadStart = 0;
+		}
+		
+		long headerLength = readVarint( payload, payloadStart );
+		int headerOffset = skipVarint( payload, payloadStart );
+		int headerEnd = payloadStart + (int) headerLength;
+		int columnOffset = headerEnd;
+		columnsNum = 0;
+		while( headerOffset < headerEnd )
+		{
+			long columnType = readVarint( payload, headerOffset );
+			headerOffset = skipVarint( payload, headerOffset );
+			if( columnType == 10 || columnType == 11 )
+				throw corrupt( String.format("record %1$d has a reserved column type", rowid) );
+			
+			if( columnsNum >= columnTypes.length )
+			{
+				long[] newColumnTypes = new long[ columnsNum * 2 ];
+				int[] newColumnOffsets = new int[ columnsNum * 2 ];
+				System.arraycopy( columnTypes, 0, newColumnTypes, 0, columnsNum );
+				System.arraycopy( columnOffsets, 0, newColumnOffsets, 0, columnsNum );
+				columnTypes = newColumnTypes;
+				columnOffsets = newColumnOffsets;
+			}
+			
+			columnTypes[ columnsNum ] = columnType;
+			columnOffsets[ columnsNum ] = columnOffset;
+			columnOffset += (columnType >= SERIAL_TYPE_BLOB_MIN) ? getBlobLength( columnType ) : SERIAL_TYPE_SIZES[ (int) columnType ];
+			columnsNum++;
+		}
+		
+		converted = true;
+	}
+	
+	// The part of a payload kept on the leaf page itself, the rest going to overflow pages
+	private int getLocalPayloadLength( long payloadLength )
+	{
+		int localMax = usableSize - 35;
+		if( payloadLength <= localMax )
+			return( (int) payloadLength );
+		
+		int localMin = ((usableSize - 12) * 32 / 255) - 23;
+		int localLength = localMin + (int) ((payloadLength - localMin) % (usableSize - 4));
+		return( (localLength <= localMax) ? localLength : localMin );
+	}
+	
+	// Gathers the payload from the leaf page and the chain of overflow pages following it. Each overflow page
+	// starts with the number of the next
+	private void readOverflowPayload( ByteBuffer pageSegment, int localOffset, int localLength, int payloadLength ) throws SQLException
+	{
+		if( overflowPayload.length < payloadLength )
+		{
+			overflowPayload = new byte[ Math.max( payloadLength, overflowPayload.length * 2 ) ];
+			overflowPayloadBuffer = ByteBuffer.wrap( overflowPayload );
+		}
+		
+		pageSegment.position( localOffset );
+		pageSegment.get( overflowPayload, 0, localLength );
+		long overflowPage = pageSegment.getInt( localOffset + localLength ) & 0xFFFFFFFFL;
+		
+		int payloadOffset = localLength;
+		while( payloadOffset < payloadLength )
+		{
+			if( overflowPage < 1 || overflowPage > fileReader.getPagesNum() )
+				throw corrupt( String.format("record %1$d has a broken overflow chain", rowid) );
+			
+			ByteBuffer overflowSegment = getPageSegment( overflowPage );
+			int pageOffset = getPageOffset( overflowPage );
+			int copyLength = Math.min( payloadLength - payloadOffset, usableSize - 4 );
+			overflowSegment.position( pageOffset + 4 );
+			overflowSegment.get( overflowPayload, payloadOffset, copyLength );
+			payloadOffset += copyLength;
+			overflowPage = overflowSegment.getInt( pageOffset ) & 0xFFFFFFFFL;
+		}
+	}
+	
+	// Returns the column's serial type, setting the null flag. Columns beyond the end of the record (added
+	// to the table since it was written) are null, and the INTEGER PRIMARY KEY column is stored as null in
+	// favour of the rowid
+	private long getColumnType( int columnIndex )
+	{
+		long columnType = (columnIndex <= columnsNum) ? columnTypes[ columnIndex - 1 ] : SERIAL_TYPE_NULL;
+		wasNull = (columnType == SERIAL_TYPE_NULL && columnIndex != rowidColumnIndex);
+		return( columnType );
+	}
+	
+	// Whether the column has REAL affinity. Such columns store integral values as integers to save space,
+	// which read back as floats
+	private boolean isRealColumn( int columnIndex )
+	{
+		return( realColumns != null && realColumns[columnIndex - 1] );
+	}
+	
+	private long readInteger( int columnIndex, long columnType )
+	{
+		if( columnType == SERIAL_TYPE_NULL )
+			return( (columnIndex == rowidColumnIndex) ? rowid : 0 );
+		
+		int columnOffset = columnOffsets[ columnIndex - 1 ];
+		switch( (int) columnType )
+		{
+			case 1:
+				return( payload.get( columnOffset ) );
+			
+			case 2:
+				return( payload.getShort( columnOffset ) );
+			
+			case 3:
+				return( (payload.get( columnOffset ) << 16) | ((payload.getShort( columnOffset + 1 ) & 0xFFFF)) );
+			
+			case 4:
+				return( payload.getInt( columnOffset ) );
+			
+			case 5:
+				return( ((long) payload.getShort( columnOffset ) << 32) | (payload.getInt( columnOffset + 2 ) & 0xFFFFFFFFL) );
+			
+			case 6:
+				return( payload.getLong( columnOffset ) );
+			
+			case SERIAL_TYPE_ZERO:
+				return( 0 );
+			
+			default:
+				return( 1 );
+		}
+	}
+	
+	private static int getBlobLength( long columnType )
+	{
+		return( (int) ((columnType - SERIAL_TYPE_BLOB_MIN) / 2) );
+	}
+	
+	// Floats beyond the range of a long convert to the smallest long, as they do in the driver
+	private static long floatToLong( double value )
+	{
+		if( value >= -9.223372036854775808e18 && value < 9.223372036854775808e18 )
+			return( (long) value );
+		
+		return( Long.MIN_VALUE );
+	}
+	
+	// Parses text as an integer the way SQLite does: any leading white space and sign are followed by as
+	// many digits as there are, with no check for overflow
+	private long parseLong( int textOffset, int textLength )
+	{
+		int textEnd = textOffset + textLength;
+		int charOffset = textOffset;
+		while( charOffset < textEnd && isSpace( payload.get(charOffset) ) )
+			charOffset++;
+		
+		boolean negative = false;
+		if( charOffset < textEnd && (payload.get( charOffset ) == '-' || payload.get( charOffset ) == '+') )
+			negative = (payload.get( charOffset++ ) == '-');
+		
+		long value = 0;
+		for( ; charOffset < textEnd; charOffset++ )
+		{
+			byte digit = payload.get( charOffset );
+			if( digit < '0' || digit > '9' )
+				break;
+			value = value * 10 + (digit - '0');
+		}
+		
+		return( negative ? -value : value );
+	}
+	
+	private static boolean isSpace( byte textByte )
+	{
+		return( textByte == ' ' || (textByte >= '\t' && textByte <= '\r') );
+	}
+	
+	// Decodes UTF-8 text. The driver hands text over as modified UTF-8, which only agrees with UTF-8 for
+	// well-formed text with no nulls and no characters beyond the basic multilingual plane. Any other text
+	// is left to the driver
+	private String decodeText( int textOffset, int textLength )
+	{
+		if( textChars.length < textLength )
+			textChars = new char[ Math.max( textLength, textChars.length * 2 ) ];
+		
+		int textEnd = textOffset + textLength;
+		int charsNum = 0;
+		int byteOffset = textOffset;
+		while( byteOffset < textEnd )
+		{
+			int leadByte = payload.get( byteOffset++ );
+			if( leadByte > 0 )
+			{
+				textChars[ charsNum++ ] = (char) leadByte;
+				continue;
+			}
+			
+			int codePoint;
+			leadByte &= 0xFF;
+			if( leadByte >= 0xC2 && leadByte <= 0xDF && byteOffset < textEnd )
+			{
+				codePoint = ((leadByte & 0x1F) << 6) | getContinuation( byteOffset++ );
+			}
+			else if( leadByte >= 0xE0 && leadByte <= 0xEF && byteOffset + 1 < textEnd )
+			{
+				codePoint = ((leadByte & 0x0F) << 12) | (getContinuation( byteOffset ) << 6) | getContinuation( byteOffset + 1 );
+				byteOffset += 2;
+				if( codePoint < 0x800 || (codePoint >= 0xD800 && codePoint <= 0xDFFF) )
+					codePoint = -1;
+			}
+			else
+			{
+				codePoint = -1;
+			}
+			
+			if( codePoint < 0 )
+			{
+				converted = false;
+				return( null );
+			}
+			textChars[ charsNum++ ] = (char) codePoint;
+		}
+		
+		return( new String( textChars, 0, charsNum ) );
+	}
+	
+	// Returns the continuation byte's bits, or -1 (so the decoded character is negative too) if the byte is
+	// not a continuation byte
+	private int getContinuation( int byteOffset )
+	{
+		int continuationByte = payload.get( byteOffset ) & 0xFF;
+		return( ((continuationByte & 0xC0) == 0x80) ? (continuationByte & 0x3F) : -1 );
+	}
+	
+	// Varints hold 7 bits per byte, high bits first, with the top bit set on every byte bar the last. The
+	// ninth byte (if reached) contributes all 8 of its bits
+	private static long readVarint( ByteBuffer buffer, int offset )
+	{
+		long value = 0;
+		for( int byteIndex = 0; byteIndex < 8; byteIndex++ )
+		{
+			int varintByte = buffer.get( offset + byteIndex );
+			value = (value << 7) | (varintByte & 0x7F);
+			if( varintByte >= 0 )
+				return( value );
+		}
+		
+		return( (value << 8) | (buffer.get( offset + 8 ) & 0xFF) );
+	}
+	
+	private static int skipVarint( ByteBuffer buffer, int offset )
+	{
+		for( int byteIndex = 0; byteIndex < 8; byteIndex++ )
+		{
+			if( buffer.get( offset + byteIndex ) >= 0 )
+				return( offset + byteIndex + 1 );
+		}
+		
+		return( offset + 9 );
+	}
+	
+	private SQLException corrupt( String reason )
+	{
+		return( new SQLException( String.format("Database file '%1$s' cannot be read: %2$s", fileReader.getFile().getPath(), reason) ) );
+	}
+}
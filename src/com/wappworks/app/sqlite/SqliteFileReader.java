@@ -0,0 +1,309 @@
+/* 
+ * SQLite File Reader
+ *
+ * Copyright 2011 Wappworks Studios
+ */
+package com.wappworks.app.sqlite;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+// Reads table records straight from a memory-mapped SQLite database file, walking the table b-trees and
+// decoding the records itself rather than going through the driver, which is far slower per record. Only
+// a database that nothing is writing to can be read this way, so the caller holds a shared lock on it
+// (through the driver) for as long as the file reader is open. The file must also have no rollback
+// journal (or write-ahead log) beside it, and its change counter is checked again once each table has
+// been read. The file is mapped in segments of 1GB, so that databases beyond 2GB can be mapped as well.
+// Each cursor works on its own views of the segments, so tables can be read on several threads at once
+class SqliteFileReader
+{
+	private static final String		HEADER_MAGIC = "SQLite format 3\u0000";
+	static final int				HEADER_SIZE = 100;
+	private static final int		HEADER_OFFSET_PAGE_SIZE = 16;
+	private static final int		HEADER_OFFSET_WRITE_VERSION = 18;
+	private static final int		HEADER_OFFSET_READ_VERSION = 19;
+	private static final int		HEADER_OFFSET_RESERVED_SIZE = 20;
+	private static final int		HEADER_OFFSET_CHANGE_COUNTER = 24;
+	private static final int		HEADER_OFFSET_TEXT_ENCODING = 56;
+	private static final int		TEXT_ENCODING_UTF8 = 1;
+	static final int				SEGMENT_SHIFT = 30;
+	private static final String[]	LOG_SUFFIXES = { "-journal", "-wal" };
+	
+	// The columns of the schema table
+	private static final int		SCHEMA_COLUMN_TYPE = 1;
+	private static final int		SCHEMA_COLUMN_NAME = 2;
+	private static final int		SCHEMA_COLUMN_ROOT_PAGE = 4;
+	
+	private File					dbFile;
+	private FileInputStream			dbIn;
+	private ByteBuffer[]			segments;
+	private int						pageSize;
+	private int						usableSize;
+	private int						pagesNum;
+	private int						changeCounter;
+	private Map<String, Integer>	tableRootPages = new HashMap<String, Integer>();
+	private int						cursorsOpen = 0;
+	private boolean					closed = false;
+	
+	// Maps the database file and reads its schema. Throws an IOException giving the reason if the file
+	// cannot be read this way
+	static SqliteFileReader open( File dbFile ) throws IOException
+	{
+		for( String logSuffix : LOG_SUFFIXES )
+		{
+			if( new File( dbFile.getPath() + logSuffix ).exists() )
+				throw new IOException( String.format("the database has a '%1$s' file, so it may be being written", logSuffix) );
+		}
+		
+		SqliteFileReader fileReader = new SqliteFileReader( dbFile );
+		try
+		{
+			fileReader.readSchema();
+		}
+		catch( SQLException e )
+		{
+			fileReader.close();
+			throw new IOException( e.getMessage() );
+		}
+		
+		return( fileReader );
+	}
+	
+	// The file is kept open until the file reader is closed. Closing any descriptor of the file releases all
+	// of the process's (POSIX) locks on it, including the shared lock held through the driver
+	private SqliteFileReader( File inDbFile ) throws IOException
+	{
+		dbFile = inDbFile;
+		
+		dbIn = new FileInputStream( dbFile );
+		boolean mapped = false;
+		try
+		{
+			FileChannel dbChannel = dbIn.getChannel();
+			long fileLength = dbChannel.size();
+			if( fileLength < HEADER_SIZE )
+				throw new IOException( "the database file is too short" );
+			
+			int segmentsNum = (int) ((fileLength + (1L << SEGMENT_SHIFT) - 1) >>> SEGMENT_SHIFT);
+			segments = new ByteBuffer[ segmentsNum ];
+			for( int segmentIndex = 0; segmentIndex < segmentsNum; segmentIndex++ )
+			{
+				long segmentStart = ((long) segmentIndex) << SEGMENT_SHIFT;
+				long segmentLength = Math.min( 1L << SEGMENT_SHIFT, fileLength - segmentStart );
+				MappedByteBuffer segment = dbChannel.map( FileChannel.MapMode.READ_ONLY, segmentStart, segmentLength );
+				segments[ segmentIndex ] = segment;
+			}
+			
+			readHeader( fileLength );
+			mapped = true;
+		}
+		finally
+		{
+			if( !mapped )
+			{
+				closeFile();
+				unmap();
+			}
+		}
+	}
+	
+	// Returns the root page of the named table's b-tree, or 0 if the schema has no such table
+	int getTableRootPage( String tableName )
+	{
+		Integer rootPage = tableRootPages.get( tableName );
+		return( (rootPage != null) ? rootPage.intValue() : 0 );
+	}
+	
+	// Opens a cursor over the records of the table with the given root page, in rowid order. The records'
+	// INTEGER PRIMARY KEY column (if any, given by its 1-based column index) reads as the rowid, and the
+	// integers held by the columns with REAL affinity (if any, flagged by column) read as floats
+	SqliteFileCursor openCursor( int rootPage, int rowidColumnIndex, boolean[] realColumns, SqliteRowidRange range ) throws SQLException
+	{
+		synchronized( this )
+		{
+			if( closed )
+				throw new SQLException( String.format("Database file '%1$s' is no longer open for reading", dbFile.getPath()) );
+			cursorsOpen++;
+		}
+		
+		SqliteFileCursor cursor = null;
+		try
+		{
+			cursor = new SqliteFileCursor( this, rootPage, rowidColumnIndex, realColumns, range );
+		}
+		finally
+		{
+			if( cursor == null )
+				cursorClosed();
+		}
+		
+		return( cursor );
+	}
+	
+	// Closes the file, which should only be done once the lock on the database has been released, and
+	// releases the mapping once the last of the cursors still open is closed
+	synchronized void close()
+	{
+		closeFile();
+		closed = true;
+		if( cursorsOpen <= 0 )
+			unmap();
+	}
+	
+	File getFile()
+	{
+		return( dbFile );
+	}
+	
+	int getPageSize()
+	{
+		return( pageSize );
+	}
+	
+	int getUsableSize()
+	{
+		return( usableSize );
+	}
+	
+	int getPagesNum()
+	{
+		return( pagesNum );
+	}
+	
+	// Views of the mapped segments, for the use of a single thread
+	ByteBuffer[] getSegments()
+	{
+		ByteBuffer[] segmentViews = new ByteBuffer[ segments.length ];
+		for( int segmentIndex = 0; segmentIndex < segments.length; segmentIndex++ )
+			segmentViews[ segmentIndex ] = segments[ segmentIndex ].duplicate();
+		
+		return( segmentViews );
+	}
+	
+	synchronized void cursorClosed()
+	{
+		cursorsOpen--;
+		if( closed && cursorsOpen <= 0 )
+			unmap();
+	}
+	
+	// Throws an SQLException if the database has been written to since it was mapped
+	void checkUnchanged() throws SQLException
+	{
+		if( segments[0].getInt( HEADER_OFFSET_CHANGE_COUNTER ) != changeCounter )
+			throw new SQLException( String.format("Database file '%1$s' was changed while it was being read", dbFile.getPath()) );
+	}
+	
+	// The page size must be a power of two, which keeps every page within a single segment
+	private void readHeader( long fileLength ) throws IOException
+	{
+		ByteBuffer header = segments[ 0 ];
+		byte[] magic = new byte[ HEADER_MAGIC.length() ];
+		for( int magicIndex = 0; magicIndex < magic.length; magicIndex++ )
+			magic[ magicIndex ] = header.get( magicIndex );
+		if( !HEADER_MAGIC.equals( new String(magic, "ISO-8859-1") ) )
+			throw new IOException( "the file is not an SQLite 3 database" );
+		
+		pageSize = header.getShort( HEADER_OFFSET_PAGE_SIZE ) & 0xFFFF;
+		if( pageSize == 1 )
+			pageSize = 65536;
+		if( pageSize < 512 || (pageSize & (pageSize - 1)) != 0 )
+			throw new IOException( String.format("the database page size (%1$d) is invalid", pageSize) );
+		
+		if( header.get( HEADER_OFFSET_WRITE_VERSION ) != 1 || header.get( HEADER_OFFSET_READ_VERSION ) != 1 )
+			throw new IOException( "the database is not in rollback journal mode" );
+		
+		if( header.getInt( HEADER_OFFSET_TEXT_ENCODING ) != TEXT_ENCODING_UTF8 )
+			throw new IOException( "the database text is not encoded as UTF-8" );
+		
+		usableSize = pageSize - (header.get( HEADER_OFFSET_RESERVED_SIZE ) & 0xFF);
+		pagesNum = (int) Math.min( fileLength / pageSize, Integer.MAX_VALUE );
+		changeCounter = header.getInt( HEADER_OFFSET_CHANGE_COUNTER );
+	}
+	
+	// Lists the root pages of the tables from the schema table, whose b-tree is rooted at the first page
+	private void readSchema() throws SQLException
+	{
+		SqliteFileCursor schemaCursor = openCursor( 1, 0, null, null );
+		try
+		{
+			while( schemaCursor.next() )
+			{
+				if( !"table".equals( schemaCursor.getString(SCHEMA_COLUMN_TYPE) ) )
+					continue;
+				
+				String tableName = schemaCursor.getString( SCHEMA_COLUMN_NAME );
+				long rootPage = schemaCursor.getLong( SCHEMA_COLUMN_ROOT_PAGE );
+				if( !schemaCursor.wasConverted() )
+					throw new SQLException( "the database schema cannot be read" );
+				
+				// Virtual tables have no b-tree
+				if( tableName != null && rootPage > 0 )
+					tableRootPages.put( tableName, Integer.valueOf( (int) rootPage ) );
+			}
+		}
+		finally
+		{
+			schemaCursor.close();
+		}
+	}
+	
+	private void closeFile()
+	{
+		if( dbIn == null )
+			return;
+		
+		try						{	dbIn.close();	}
+		catch( IOException e )	{}
+		dbIn = null;
+	}
+	
+	// There is no public API for unmapping a file, so the segments' cleaners are run where the runtime allows
+	// it (sun.misc.Unsafe.invokeCleaner() from Java 9 on, the buffer's own cleaner before). Otherwise the
+	// mapping is released once the segments are garbage collected
+	private void unmap()
+	{
+		if( segments == null )
+			return;
+		
+		ByteBuffer[] mappedSegments = segments;
+		segments = null;
+		for( ByteBuffer segment : mappedSegments )
+		{
+			if( segment == null )
+				continue;
+			
+			try
+			{
+				Class<?> unsafeClass = Class.forName( "sun.misc.Unsafe" );
+				try
+				{
+					Method invokeCleaner = unsafeClass.getMethod( "invokeCleaner", ByteBuffer.class );
+					Field unsafeField = unsafeClass.getDeclaredField( "theUnsafe" );
+					unsafeField.setAccessible( true );
+					invokeCleaner.invoke( unsafeField.get(null), segment );
+				}
+				catch( NoSuchMethodException e )
+				{
+					Method cleanerMethod = segment.getClass().getMethod( "cleaner" );
+					cleanerMethod.setAccessible( true );
+					Object cleaner = cleanerMethod.invoke( segment );
+					if( cleaner != null )
+						cleaner.getClass().getMethod( "clean" ).invoke( cleaner );
+				}
+			}
+			catch( Exception e )
+			{
+			}
+		}
+	}
+}
@@ -0,0 +1,77 @@
+/* 
+ * SQLite File Row Reader
+ *
+ * Copyright 2011 Wappworks Studios
+ */
+package com.wappworks.app.sqlite;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+// A row reader over a table read straight from the database file. The odd record holding a value that
+// cannot be converted exactly as the driver would is read again through the driver, by its rowid, so the
+// rows come out the same as those read through the driver throughout
+class SqliteFileRowReader extends SqliteRowReader
+{
+	private SqliteFileCursor	cursor;
+	private SqliteRow			row;
+	private Connection			dbConn;
+	private String				tableName;
+	private PreparedStatement	recordStat = null;
+	
+	SqliteFileRowReader( SqliteFileCursor inCursor, SqliteRecordProjection inProjection, Connection inDbConn, String inTableName )
+	{
+		super( inProjection );
+		cursor = inCursor;
+		row = new SqliteRow( inProjection );
+		dbConn = inDbConn;
+		tableName = inTableName;
+	}
+	
+	@Override
+	SqliteRow next() throws SQLException
+	{
+		if( !cursor.next() )
+			return( null );
+		
+		if( !row.read( cursor, getProjection() ) )
+			readRecord( cursor.getRowid() );
+		return( row );
+	}
+	
+	@Override
+	void close() throws SQLException
+	{
+		try
+		{
+			if( recordStat != null )
+				recordStat.close();
+		}
+		finally
+		{
+			cursor.close();
+		}
+	}
+	
+	private void readRecord( long rowid ) throws SQLException
+	{
+		if( recordStat == null )
+			recordStat = dbConn.prepareStatement( String.format("select * from '%1$s' where rowid = ?;", tableName) );
+		
+		recordStat.setLong( 1, rowid );
+		ResultSet rs = recordStat.executeQuery();
+		try
+		{
+			if( !rs.next() )
+				throw new SQLException( String.format("Record %1$d of table '%2$s' cannot be read", rowid, tableName) );
+			
+			row.read( rs, getProjection() );
+		}
+		finally
+		{
+			rs.close();
+		}
+	}
+}
@@ -0,0 +1,145 @@
+/* 
+ * SQLite Incremental Export State
+ *
+ * Copyright 2011 Wappworks Studios
+ */
+package com.wappworks.app.sqlite;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.wappworks.common.json.JsonStreamReader;
+
+// The high-water mark of each table as of the last incremental export, kept in a JSON-encoded state file:
+//     { tables: { <table name>: { column: <column name>, watermark: <value> }, ... } }
+class SqliteIncrementalState
+{
+	private static final String	STATE_CHARSET = "UTF-8";
+	private static final String	SUFFIX_TEMP = ".tmp";
+	private static final String	SUFFIX_BACKUP = ".bak";
+	
+	private JSONObject	tableStates;
+	
+	private SqliteIncrementalState( JSONObject inTableStates )
+	{
+		tableStates = inTableStates;
+	}
+	
+	// Reads the state file. A state file that does not exist yet gives an empty state, so that the first
+	// incremental export is a full export. A write that was interrupted after the previous state file was
+	// moved aside (see write()) leaves the new state in the temporary file, and the previous state in the
+	// backup file, and the state is recovered from those
+	static SqliteIncrementalState read( File stateFile ) throws IOException
+	{
+		if( stateFile.exists() )
+			return( readFile( stateFile ) );
+		
+		File stateFileBackup = new File( stateFile.getPath() + SUFFIX_BACKUP );
+		if( !stateFileBackup.exists() )
+			return( new SqliteIncrementalState( new JSONObject() ) );
+		
+		File stateFileTemp = new File( stateFile.getPath() + SUFFIX_TEMP );
+		if( stateFileTemp.exists() )
+		{
+			try
+			{
+				return( readFile( stateFileTemp ) );
+			}
+			catch( IOException e )
+			{
+			}
+		}
+		
+		return( readFile( stateFileBackup ) );
+	}
+	
+	private static SqliteIncrementalState readFile( File stateFile ) throws IOException
+	{
+		JsonStreamReader stateIn = new JsonStreamReader( new InputStreamReader(new FileInputStream(stateFile), STATE_CHARSET) );
+		try
+		{
+			JSONObject tableStates = stateIn.readObject().optJSONObject( "tables" );
+			return( new SqliteIncrementalState( tableStates != null ? tableStates : new JSONObject() ) );
+		}
+		catch( JSONException e )
+		{
+			throw new IOException( "State file holds invalid data: " + e.getMessage() );
+		}
+		finally
+		{
+			stateIn.close();
+		}
+	}
+	
+	// Returns the table's high-water mark, or null if there is none. A mark recorded against another column
+	// is disregarded
+	Object getWatermark( String tableName, String column )
+	{
+		JSONObject tableState = tableStates.optJSONObject( tableName );
+		if( tableState == null || !column.equals( tableState.optString("column") ) )
+			return( null );
+		
+		Object watermark = tableState.opt( "watermark" );
+		if( watermark instanceof Integer )
+			watermark = Long.valueOf( ((Integer) watermark).longValue() );
+		return( watermark );
+	}
+	
+	void setWatermark( String tableName, String column, Object watermark ) throws JSONException
+	{
+		JSONObject tableState = new JSONObject();
+		tableState.put( "column", column );
+		tableState.put( "watermark", watermark );
+		tableStates.put( tableName, tableState );
+	}
+	
+	// Writes the state to a temporary file which then replaces the state file. The previous state file is
+	// moved aside to a backup file until the new one is in place, so an interrupted write never leaves a
+	// truncated state file behind, nor loses the state (see read())
+	void write( File stateFile ) throws IOException
+	{
+		File stateFileTemp = new File( stateFile.getPath() + SUFFIX_TEMP );
+		File stateFileBackup = new File( stateFile.getPath() + SUFFIX_BACKUP );
+		Writer stateOut = new BufferedWriter( new OutputStreamWriter(new FileOutputStream(stateFileTemp), STATE_CHARSET) );
+		try
+		{
+			JSONObject state = new JSONObject();
+			state.put( "tables", tableStates );
+			state.write( stateOut, 2, 0 );
+		}
+		catch( JSONException e )
+		{
+			if( e.getCause() instanceof IOException )
+				throw (IOException) e.getCause();
+			throw new IOException( "State cannot be encoded: " + e.getMessage() );
+		}
+		finally
+		{
+			stateOut.close();
+		}
+		
+		if( stateFile.exists() )
+		{
+			if( stateFileBackup.exists() && !stateFileBackup.delete() )
+				throw new IOException( "State backup file cannot be replaced" );
+			if( !stateFile.renameTo( stateFileBackup ) )
+				throw new IOException( "State file cannot be replaced" );
+		}
+		
+		if( !stateFileTemp.renameTo( stateFile ) )
+		{
+			stateFileBackup.renameTo( stateFile );
+			throw new IOException( "State file cannot be replaced" );
+		}
+		stateFileBackup.delete();
+	}
+}
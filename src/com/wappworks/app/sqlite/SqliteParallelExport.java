@@ -0,0 +1,298 @@
+/*
+ * SQLite Parallel Export
+ *
+ * Copyright 2011 Wappworks Studios
+ */
+package com.wappworks.app.sqlite;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.wappworks.common.io.Utf8ChannelWriter;
+import com.wappworks.common.json.JsonStreamWriter;
+import com.wappworks.common.log.LogWriter;
+import com.wappworks.common.log.LogWriterSynchronized;
+
+// Exports document fragments concurrently. Each worker thread reads over its own database connection and
+// writes its fragment to a temporary file. The fragments are then collected in submission order so they
+// can be stitched into the final document exactly as a sequential export would have written them
+class SqliteParallelExport
+{
+	private static final String	FRAGMENT_CHARSET = "UTF-8";
+	private static final int	FRAGMENT_BUFFER_SIZE = 64 * 1024;
+	private static final int	SHUTDOWN_WAIT_SECONDS = 30;
+	
+	interface FragmentExporter
+	{
+		void export( SqliteTableHandler tableHandler, Writer fragmentOut ) throws SQLException, IOException;
+	}
+
+	class Fragment
+	{
+		private String			tableName;
+		private Future<File>	fragmentFile;
+		private File			fragmentFileDone = null;
+		private boolean			fragmentDone = false;
+		private boolean			fragmentInterrupted = false;
+		private Reader			fragmentIn = null;
+
+		private Fragment( String inTableName, Future<File> inFragmentFile )
+		{
+			tableName = inTableName;
+			fragmentFile = inFragmentFile;
+		}
+
+		// Waits for the fragment to be exported and opens it for reading. Returns null if the export failed.
+		// Being interrupted while waiting fails the whole export, as the fragment would be missing from it
+		Reader open() throws IOException
+		{
+			if( waitForFile() == null )
+			{
+				if( fragmentInterrupted )
+					throw new InterruptedIOException( String.format("Interrupted waiting for table '%1$s' to export", tableName) );
+				return( null );
+			}
+
+			fragmentIn = new InputStreamReader( new FileInputStream(fragmentFileDone), FRAGMENT_CHARSET );
+			return( fragmentIn );
+		}
+
+		// Copies the fragment to the output and releases it
+		void appendTo( Writer fOut ) throws IOException
+		{
+			try
+			{
+				Reader fragmentIn = open();
+				if( fragmentIn != null )
+					copyFragment( fragmentIn, fOut );
+			}
+			finally
+			{
+				close();
+			}
+		}
+
+		void appendTo( JsonStreamWriter jsonOut ) throws IOException
+		{
+			try
+			{
+				Reader fragmentIn = open();
+				if( fragmentIn != null )
+					jsonOut.appendFragment( fragmentIn );
+			}
+			finally
+			{
+				close();
+			}
+		}
+
+		void close()
+		{
+			if( fragmentIn != null )
+			{
+				try					{	fragmentIn.close();		}
+				catch( IOException e )	{}
+				fragmentIn = null;
+			}
+
+			if( waitForFile() != null )
+				fragmentFileDone.delete();
+			fragments.remove( this );
+		}
+
+		// Stops the fragment's export if it has not finished. Once cancelled, waiting on the fragment returns
+		// straight away, whether or not its export ever started
+		private void cancel()
+		{
+			fragmentFile.cancel( true );
+		}
+
+		private File waitForFile()
+		{
+			if( fragmentDone )
+				return( fragmentFileDone );
+
+			fragmentDone = true;
+			try
+			{
+				fragmentFileDone = fragmentFile.get();
+			}
+			catch( InterruptedException e )
+			{
+				Thread.currentThread().interrupt();
+				fragmentInterrupted = true;
+				failedTables.add( tableName );
+				logWriter.logAppend( String.format("Interrupted waiting for table '%1$s' to export", tableName) );
+			}
+			catch( CancellationException e )
+			{
+			}
+			catch( ExecutionException e )
+			{
+				failedTables.add( tableName );
+				if( e.getCause() instanceof SQLException )
+					logWriter.logAppend( String.format("SQL exception occured trying to export table '%1$s'", tableName) );
+				else
+					logWriter.logAppend( String.format("I/O exception occured trying to export table '%1$s'", tableName) );
+			}
+
+			return( fragmentFileDone );
+		}
+	}
+
+	private LogWriter					logWriter;
+	private File						tempDir;
+	private ExecutorService				executor;
+	private BlockingQueue<Connection>	connections;
+	private List<Fragment>				fragments;
+	private Set<String>					failedTables;
+
+	SqliteParallelExport( SqliteConverter converter, int threadsNum, File inTempDir, LogWriter inLogWriter ) throws SQLException
+	{
+		logWriter = new LogWriterSynchronized( inLogWriter );
+		tempDir = inTempDir;
+		connections = new ArrayBlockingQueue<Connection>( threadsNum );
+		fragments = new Vector<Fragment>();
+		failedTables = new HashSet<String>();
+
+		try
+		{
+			for( int connIndex = 0; connIndex < threadsNum; connIndex++ )
+				connections.add( converter.openConnection() );
+		}
+		catch( SQLException e )
+		{
+			closeConnections();
+			throw e;
+		}
+
+		executor = Executors.newFixedThreadPool( threadsNum );
+	}
+
+	Fragment submit( final SqliteTableHandler tableHandler, final FragmentExporter exporter )
+	{
+		Future<File> fragmentFile = executor.submit( new Callable<File>()
+		{
+			@Override
+			public File call() throws Exception
+			{
+				return( exportFragment( tableHandler, exporter ) );
+			}
+		});
+
+		Fragment fragment = new Fragment( tableHandler.getName(), fragmentFile );
+		fragments.add( fragment );
+		return( fragment );
+	}
+
+	// Stops any outstanding work and releases the connections and temporary files. The fragments left are
+	// cancelled before the executor is stopped: shutdownNow() drops the exports still queued without
+	// cancelling them, and waiting on one of those would block for good
+	void shutdown()
+	{
+		Fragment[] fragmentsLeft = fragments.toArray( new Fragment[0] );
+		for( Fragment fragment : fragmentsLeft )
+			fragment.cancel();
+
+		executor.shutdownNow();
+		try
+		{
+			if( !executor.awaitTermination( SHUTDOWN_WAIT_SECONDS, TimeUnit.SECONDS ) )
+				logWriter.logAppend( "Timed out waiting for the export threads to stop" );
+		}
+		catch( InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+		}
+
+		for( Fragment fragment : fragmentsLeft )
+			fragment.close();
+
+		closeConnections();
+	}
+
+	// The tables with fragments that failed to export, as found while collecting the fragments
+	Set<String> getFailedTables()
+	{
+		return( failedTables );
+	}
+	
+	private static void copyFragment( Reader fragmentIn, Writer fOut ) throws IOException
+	{
+		char[] copyBuffer = new char[ 16 * 1024 ];
+		int readLength;
+		while( (readLength = fragmentIn.read( copyBuffer )) > 0 )
+			fOut.write( copyBuffer, 0, readLength );
+	}
+
+	private File exportFragment( SqliteTableHandler tableHandler, FragmentExporter exporter ) throws SQLException, IOException, InterruptedException
+	{
+		File fragmentFile = File.createTempFile( "sqlite-exporter", ".part", tempDir );
+		boolean exported = false;
+		try
+		{
+			Connection dbConn = connections.take();
+			try
+			{
+				logWriter.logAppend( String.format("Exporting contents for table '%1$s'", tableHandler.getName()) );
+
+				Writer fragmentOut = new Utf8ChannelWriter( new FileOutputStream(fragmentFile).getChannel(), FRAGMENT_BUFFER_SIZE );
+				try
+				{
+					exporter.export( tableHandler.withConnection(dbConn, logWriter), fragmentOut );
+				}
+				finally
+				{
+					fragmentOut.close();
+				}
+			}
+			finally
+			{
+				connections.put( dbConn );
+			}
+
+			// A cancelled export's fragment is never collected, so it is not kept
+			if( Thread.currentThread().isInterrupted() )
+				throw new InterruptedException();
+			exported = true;
+		}
+		finally
+		{
+			if( !exported )
+				fragmentFile.delete();
+		}
+
+		return( fragmentFile );
+	}
+
+	private void closeConnections()
+	{
+		Connection dbConn;
+		while( (dbConn = connections.poll()) != null )
+		{
+			try						{	dbConn.close();	}
+			catch( SQLException e )	{}
+		}
+	}
+}
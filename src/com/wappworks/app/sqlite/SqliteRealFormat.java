@@ -0,0 +1,350 @@
+/* 
+ * SQLite Real Format
+ *
+ * Copyright 2011 Wappworks Studios
+ */
+package com.wappworks.app.sqlite;
+
+// Converts REAL values to text exactly as the bundled SQLite (3.6.3) driver does, so that records read
+// straight from the database file match those read through the driver. SQLite formats them with its own
+// printf ("%!.15g"), which carries out the rounding and digit extraction in x87 extended precision. The
+// digits it comes up with can differ from a correctly rounded conversion in the last place, so the
+// extended precision arithmetic is reproduced here rather than approximated
+class SqliteRealFormat
+{
+	private static final int	PRECISION = 15;
+	private static final int	DIGITS_MAX = 16;
+	
+	// An x87 extended precision value (never negative): a 64 bit significand, normalised so that its top
+	// bit is set (or zero for a zero value), scaled by a power of two
+	private static class Extended
+	{
+		long	significand;
+		int		exponent;
+		
+		Extended( double value )
+		{
+			set( value );
+		}
+		
+		void set( double value )
+		{
+			long valueBits = Double.doubleToRawLongBits( Math.abs(value) );
+			int biasedExponent = (int) (valueBits >>> 52);
+			significand = valueBits & ((1L << 52) - 1);
+			if( biasedExponent == 0 )
+			{
+				// Subnormal (or zero)
+				exponent = -1074;
+			}
+			else
+			{
+				significand |= (1L << 52);
+				exponent = biasedExponent - 1075;
+			}
+			normalise();
+		}
+		
+		boolean isZero()
+		{
+			return( significand == 0 );
+		}
+		
+		int compareTo( Extended other )
+		{
+			if( isZero() || other.isZero() )
+				return( (isZero() ? 0 : 1) - (other.isZero() ? 0 : 1) );
+			
+			if( exponent != other.exponent )
+				return( exponent < other.exponent ? -1 : 1 );
+			
+			return( compareUnsigned( significand, other.significand ) );
+		}
+		
+		void multiply( Extended factor )
+		{
+			if( isZero() || factor.isZero() )
+			{
+				significand = 0;
+				return;
+			}
+			
+			// The full 128 bit product, from 32 bit halves
+			long aHi = significand >>> 32;
+			long aLo = significand & 0xFFFFFFFFL;
+			long bHi = factor.significand >>> 32;
+			long bLo = factor.significand & 0xFFFFFFFFL;
+			long loLo = aLo * bLo;
+			long hiLo = aHi * bLo;
+			long loHi = aLo * bHi;
+			long cross = (loLo >>> 32) + (hiLo & 0xFFFFFFFFL) + (loHi & 0xFFFFFFFFL);
+			long productHi = aHi * bHi + (hiLo >>> 32) + (loHi >>> 32) + (cross >>> 32);
+			long productLo = (cross << 32) | (loLo & 0xFFFFFFFFL);
+			
+			exponent += factor.exponent + 64;
+			if( productHi >= 0 )
+			{
+				productHi = (productHi << 1) | (productLo >>> 63);
+				productLo <<= 1;
+				exponent--;
+			}
+			
+			significand = productHi;
+			round( productLo, false );
+		}
+		
+		void add( Extended addend )
+		{
+			if( addend.isZero() )
+				return;
+			if( isZero() )
+			{
+				significand = addend.significand;
+				exponent = addend.exponent;
+				return;
+			}
+			
+			Extended larger = this;
+			Extended smaller = addend;
+			if( addend.compareTo( this ) > 0 )
+			{
+				larger = addend;
+				smaller = this;
+			}
+			
+			// Line the smaller value up against the larger one. Any bits shifted out beyond the 128 bits only
+			// matter as a sticky bit for the rounding
+			int shift = larger.exponent - smaller.exponent;
+			long addendHi;
+			long addendLo;
+			boolean sticky = false;
+			if( shift == 0 )
+			{
+				addendHi = smaller.significand;
+				addendLo = 0;
+			}
+			else if( shift < 64 )
+			{
+				addendHi = smaller.significand >>> shift;
+				addendLo = smaller.significand << (64 - shift);
+			}
+			else if( shift == 64 )
+			{
+				addendHi = 0;
+				addendLo = smaller.significand;
+			}
+			else if( shift < 128 )
+			{
+				addendHi = 0;
+				addendLo = smaller.significand >>> (shift - 64);
+				sticky = (smaller.significand << (128 - shift)) != 0;
+			}
+			else
+			{
+				addendHi = 0;
+				addendLo = 0;
+				sticky = true;
+			}
+			
+			long sumHi = larger.significand + addendHi;
+			long sumLo = addendLo;
+			exponent = larger.exponent;
+			if( compareUnsigned( sumHi, larger.significand ) < 0 )
+			{
+				// Carried out of the top bit
+				sticky |= (sumLo & 1) != 0;
+				sumLo = (sumLo >>> 1) | (sumHi << 63);
+				sumHi = (sumHi >>> 1) | (1L << 63);
+				exponent++;
+			}
+			
+			significand = sumHi;
+			round( sumLo, sticky );
+		}
+		
+		// The integer part of the value, which must be less than 2^31
+		int truncate()
+		{
+			if( isZero() || exponent <= -64 )
+				return( 0 );
+			
+			return( (int) (significand >>> -exponent) );
+		}
+		
+		// Subtracts the value's integer part (as returned by truncate()), which is always exact
+		void subtract( int integerPart )
+		{
+			if( integerPart == 0 )
+				return;
+			
+			significand -= ((long) integerPart) << -exponent;
+			normalise();
+		}
+		
+		// Rounds to nearest (ties to even), given the bits below the significand
+		private void round( long fraction, boolean sticky )
+		{
+			if( fraction >= 0 )
+				return;
+			
+			if( (fraction << 1) == 0 && !sticky && (significand & 1) == 0 )
+				return;
+			
+			significand++;
+			if( significand == 0 )
+			{
+				significand = (1L << 63);
+				exponent++;
+			}
+		}
+		
+		private void normalise()
+		{
+			if( significand == 0 )
+				return;
+			
+			int shift = Long.numberOfLeadingZeros( significand );
+			significand <<= shift;
+			exponent -= shift;
+		}
+		
+		private static int compareUnsigned( long a, long b )
+		{
+			if( a == b )
+				return( 0 );
+			
+			return( (a ^ Long.MIN_VALUE) < (b ^ Long.MIN_VALUE) ? -1 : 1 );
+		}
+	}
+	
+	private static final Extended	E32 = new Extended( 1e32 );
+	private static final Extended	E32_INVERSE = new Extended( 1e-32 );
+	private static final Extended	E8 = new Extended( 1e8 );
+	private static final Extended	E8_INVERSE = new Extended( 1e-8 );
+	private static final Extended	TEN = new Extended( 10.0 );
+	private static final Extended	TENTH = new Extended( 0.1 );
+	private static final Extended	ONE = new Extended( 1.0 );
+	private static final Extended	ROUNDER;
+	
+	static
+	{
+		ROUNDER = new Extended( 0.5 );
+		for( int digitIndex = 1; digitIndex < PRECISION; digitIndex++ )
+			ROUNDER.multiply( TENTH );
+	}
+	
+	// Follows SQLite's printf step by step: normalise the value to [1, 10) while counting the decimal
+	// exponent, round it, then pick the digits off one at a time
+	static String format( double value )
+	{
+		if( Double.isNaN( value ) )
+			return( "NaN" );
+		
+		StringBuilder text = new StringBuilder( 24 );
+		if( value < 0.0 )
+			text.append( '-' );
+		if( Double.isInfinite( value ) )
+			return( text.append( "Inf" ).toString() );
+		
+		Extended realValue = new Extended( value );
+		int exponent = 0;
+		if( !realValue.isZero() )
+		{
+			while( realValue.compareTo( E32 ) >= 0 )
+			{
+				realValue.multiply( E32_INVERSE );
+				exponent += 32;
+			}
+			while( realValue.compareTo( E8 ) >= 0 )
+			{
+				realValue.multiply( E8_INVERSE );
+				exponent += 8;
+			}
+			while( realValue.compareTo( TEN ) >= 0 )
+			{
+				realValue.multiply( TENTH );
+				exponent++;
+			}
+			while( realValue.compareTo( E8_INVERSE ) < 0 )
+			{
+				realValue.multiply( E8 );
+				exponent -= 8;
+			}
+			while( realValue.compareTo( ONE ) < 0 )
+			{
+				realValue.multiply( TEN );
+				exponent--;
+			}
+		}
+		
+		realValue.add( ROUNDER );
+		if( realValue.compareTo( TEN ) >= 0 )
+		{
+			realValue.multiply( TENTH );
+			exponent++;
+		}
+		
+		// Large and small values are written in exponent form
+		int precision = PRECISION - 1;
+		boolean exponentForm = (exponent < -4 || exponent > precision);
+		int integerDigits = 0;
+		if( !exponentForm )
+		{
+			precision -= exponent;
+			integerDigits = exponent;
+		}
+		
+		int[] digitsNum = new int[] { 0 };
+		if( integerDigits < 0 )
+		{
+			text.append( '0' );
+		}
+		else
+		{
+			for( ; integerDigits >= 0; integerDigits-- )
+				text.append( nextDigit( realValue, digitsNum ) );
+		}
+		
+		text.append( '.' );
+		for( integerDigits++; integerDigits < 0; integerDigits++, precision-- )
+			text.append( '0' );
+		while( (precision--) > 0 )
+			text.append( nextDigit( realValue, digitsNum ) );
+		
+		// Trailing zeros are dropped, but at least one digit is kept after the decimal point
+		int textLength = text.length();
+		while( text.charAt( textLength - 1 ) == '0' )
+			textLength--;
+		text.setLength( textLength );
+		if( text.charAt( textLength - 1 ) == '.' )
+			text.append( '0' );
+		
+		if( exponentForm )
+		{
+			text.append( 'e' );
+			text.append( exponent < 0 ? '-' : '+' );
+			exponent = Math.abs( exponent );
+			if( exponent >= 100 )
+			{
+				text.append( (char) ('0' + exponent / 100) );
+				exponent %= 100;
+			}
+			text.append( (char) ('0' + exponent / 10) );
+			text.append( (char) ('0' + exponent % 10) );
+		}
+		
+		return( text.toString() );
+	}
+	
+	// Only the first 16 digits are significant, the rest are written as zeros
+	private static char nextDigit( Extended realValue, int[] digitsNum )
+	{
+		if( (digitsNum[0]++) >= DIGITS_MAX )
+			return( '0' );
+		
+		int digit = realValue.truncate();
+		realValue.subtract( digit );
+		realValue.multiply( TEN );
+		return( (char) ('0' + digit) );
+	}
+}
@@ -0,0 +1,59 @@
+/* 
+ * SQLite Record Name Set
+ *
+ * Copyright 2011 Wappworks Studios
+ */
+package com.wappworks.app.sqlite;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import com.wappworks.common.util.LongHashSet;
+
+// Tracks the record names written by a keyed JSON export so duplicate names can be detected. Most tables are
+// keyed by integers, so names that are integers in canonical form are held as primitive longs. Only the
+// remaining names (text keys and the generated 'undef_' and '_dupe_' names) are held as strings
+class SqliteRecordNameSet
+{
+	private static final int	LONG_DIGITS_MAX = 19;
+	
+	private LongHashSet		integerNames = new LongHashSet();
+	private Set<String>		textNames = new HashSet<String>();
+	
+	// Adds the name to the set. Returns false if the name was already present
+	boolean add( String recordName )
+	{
+		if( isCanonicalInteger(recordName) )
+			return( integerNames.add( Long.parseLong(recordName) ) );
+		
+		return( textNames.add( recordName ) );
+	}
+	
+	// Checks that the name is exactly what Long.toString() would produce for its value (no sign on positive
+	// values, no leading zeros, no '-0' and within range), so that distinct names never map to the same long
+	private static boolean isCanonicalInteger( String recordName )
+	{
+		int nameLength = recordName.length();
+		int digitsStart = (nameLength > 0 && recordName.charAt(0) == '-') ? 1 : 0;
+		int digitsNum = nameLength - digitsStart;
+		if( digitsNum <= 0 || digitsNum > LONG_DIGITS_MAX )
+			return( false );
+		
+		if( recordName.charAt(digitsStart) == '0' )
+			return( nameLength == 1 );
+		
+		for( int charIndex = digitsStart; charIndex < nameLength; charIndex++ )
+		{
+			char nameChar = recordName.charAt( charIndex );
+			if( nameChar < '0' || nameChar > '9' )
+				return( false );
+		}
+		
+		// Only the longest names can fall outside the long range
+		if( digitsNum < LONG_DIGITS_MAX )
+			return( true );
+		
+		String limit = (digitsStart > 0) ? "9223372036854775808" : "9223372036854775807";
+		return( recordName.substring(digitsStart).compareTo( limit ) <= 0 );
+	}
+}
@@ -0,0 +1,83 @@
+/* 
+ * SQLite Record Projection
+ *
+ * Copyright 2011 Wappworks Studios
+ */
+package com.wappworks.app.sqlite;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.List;
+
+import org.json.JSONObject;
+
+import com.wappworks.app.sqlite.SqliteTableHandler.FieldType;
+
+// The exported fields of a table, resolved once per query to result set column indexes so that records
+// can be read by index without any per record name lookups or exclusion checks
+class SqliteRecordProjection
+{
+	final String[]		fieldNames;
+	final String[]		fieldNamesJson;
+	final FieldType[]	fieldTypes;
+	final int[]			columnIndexes;
+	final int			keyColumnIndex;
+	
+	// The key field (if not null) is read as the record name rather than as a field
+	SqliteRecordProjection( List<String> inFieldNames, List<FieldType> inFieldTypes, String keyFieldName, ResultSet rs ) throws SQLException
+	{
+		int fieldsNum = inFieldNames.size();
+		fieldNames = inFieldNames.toArray( new String[fieldsNum] );
+		fieldTypes = inFieldTypes.toArray( new FieldType[fieldsNum] );
+		fieldNamesJson = new String[ fieldsNum ];
+		columnIndexes = new int[ fieldsNum ];
+		
+		for( int fieldIndex = 0; fieldIndex < fieldsNum; fieldIndex++ )
+		{
+			fieldNamesJson[ fieldIndex ] = JSONObject.quote( fieldNames[fieldIndex] );
+			columnIndexes[ fieldIndex ] = findColumn( rs, fieldNames[fieldIndex] );
+		}
+		
+		keyColumnIndex = (keyFieldName != null) ? findColumn( rs, keyFieldName ) : 0;
+	}
+	
+	// Resolves the fields against the table schema instead of a result set, for records read straight from
+	// the database file. Their columns are in schema order, as they are for 'select *' queries
+	SqliteRecordProjection( List<String> inFieldNames, List<FieldType> inFieldTypes, String keyFieldName, SqliteTableSchema schema )
+	{
+		int fieldsNum = inFieldNames.size();
+		fieldNames = inFieldNames.toArray( new String[fieldsNum] );
+		fieldTypes = inFieldTypes.toArray( new FieldType[fieldsNum] );
+		fieldNamesJson = new String[ fieldsNum ];
+		columnIndexes = new int[ fieldsNum ];
+		
+		for( int fieldIndex = 0; fieldIndex < fieldsNum; fieldIndex++ )
+		{
+			fieldNamesJson[ fieldIndex ] = JSONObject.quote( fieldNames[fieldIndex] );
+			columnIndexes[ fieldIndex ] = schema.getFieldIndex( fieldNames[fieldIndex] ) + 1;
+		}
+		
+		keyColumnIndex = (keyFieldName != null) ? schema.getFieldIndex( keyFieldName ) + 1 : 0;
+	}
+	
+	// Looks the column up through the result set metadata since the driver closes result sets without any
+	// rows straight away, which leaves ResultSet.findColumn() unusable for them
+	static int findColumn( ResultSet rs, String fieldName ) throws SQLException
+	{
+		ResultSetMetaData rsMetaData = rs.getMetaData();
+		int columnsNum = rsMetaData.getColumnCount();
+		for( int columnIndex = 1; columnIndex <= columnsNum; columnIndex++ )
+		{
+			if( fieldName.equalsIgnoreCase( rsMetaData.getColumnName(columnIndex) ) )
+				return( columnIndex );
+		}
+		
+		throw new SQLException( String.format("Column '%1$s' not found in the query results", fieldName) );
+	}
+	
+	int getFieldsNum()
+	{
+		return( fieldNames.length );
+	}
+}
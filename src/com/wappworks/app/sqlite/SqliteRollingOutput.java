@@ -0,0 +1,280 @@
+/* 
+ * SQLite Rolling Output
+ *
+ * Copyright 2011 Wappworks Studios
+ */
+package com.wappworks.app.sqlite;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.wappworks.common.io.Utf8ChannelWriter;
+
+// An output that rolls over to a new part file once the current part holds a given number of records or
+// bytes (before any compression). Parts are only ever rolled over between records, so each stands on its
+// own. With rolling enabled the parts are numbered (e.g. 'zoo_Animals-00000.ndjson'), otherwise the output
+// is written to the one file as named.
+// A document format supplies a wrapper, which opens and closes the document in every part so that each is
+// well formed. The records written to each part are tracked by table, so the parts can be listed in a manifest
+class SqliteRollingOutput
+{
+	private static final String	MANIFEST_CHARSET = "UTF-8";
+	private static final String	CHECKSUM_ALGORITHM = "SHA-256";
+	
+	interface Opener
+	{
+		Utf8ChannelWriter open( File partFile ) throws IOException;
+	}
+	
+	interface Wrapper
+	{
+		void writeHeader( Writer partOut ) throws IOException;
+		void writeTrailer( Writer partOut ) throws IOException;
+	}
+	
+	// The records of a table held by a part: their count, and the index of the first within the table
+	private static class PartTable
+	{
+		String	tableName;
+		long	firstRow;
+		long	rows = 0;
+	}
+	
+	private static class Part
+	{
+		File			file;
+		List<PartTable>	tables = new ArrayList<PartTable>();
+	}
+	
+	private File				file;
+	private long				rollRows;
+	private long				rollBytes;
+	private boolean				compressed;
+	private Opener				opener;
+	private Wrapper				wrapper;
+	private List<Part>			parts = new ArrayList<Part>();
+	private Utf8ChannelWriter	partOut = null;
+	private long				partRows;
+	private PartTable			partTable = null;
+	private String				tableName = null;
+	private long				tableRows;
+	
+	SqliteRollingOutput( File inFile, long inRollRows, long inRollBytes, boolean inCompressed, Opener inOpener, Wrapper inWrapper )
+	{
+		file = inFile;
+		rollRows = inRollRows;
+		rollBytes = inRollBytes;
+		compressed = inCompressed;
+		opener = inOpener;
+		wrapper = inWrapper;
+	}
+	
+	SqliteRollingOutput( File inFile, SqliteConverterExportConfig config, Opener inOpener, Wrapper inWrapper )
+	{
+		this( inFile, config.getRollRows(), config.getRollBytes(), config.getCompression() != null, inOpener, inWrapper );
+	}
+	
+	// The writer for the current part, which changes as the output rolls over. The first part is opened on demand
+	Utf8ChannelWriter getWriter() throws IOException
+	{
+		if( partOut == null )
+			openPart();
+		
+		return( partOut );
+	}
+	
+	// Marks the start of a table's records. Should the output roll over before the table ends, the table's
+	// wrapper has to be closed before calling roll() and reopened after
+	void beginTable( String inTableName ) throws IOException
+	{
+		getWriter();
+		tableName = inTableName;
+		tableRows = 0;
+		addPartTable();
+	}
+	
+	void endTable()
+	{
+		tableName = null;
+		partTable = null;
+	}
+	
+	void endRecord()
+	{
+		partRows++;
+		tableRows++;
+		if( partTable != null )
+			partTable.rows++;
+	}
+	
+	// Whether the current part is full, so that the next record should go in a new part
+	boolean isRollDue()
+	{
+		if( partOut == null || partRows <= 0 )
+			return( false );
+		
+		if( rollRows > 0 && partRows >= rollRows )
+			return( true );
+		
+		return( rollBytes > 0 && partOut.getBytesWritten() >= rollBytes );
+	}
+	
+	// Closes the current part and opens the next
+	void roll() throws IOException
+	{
+		closePart();
+		openPart();
+	}
+	
+	void close() throws IOException
+	{
+		closePart();
+	}
+	
+	// Removes the part files written so far. Used when the output has to be abandoned
+	void deleteFiles()
+	{
+		for( Part part : parts )
+			part.file.delete();
+	}
+	
+	boolean isRolling()
+	{
+		return( rollRows > 0 || rollBytes > 0 );
+	}
+	
+	// Writes a JSON manifest listing the parts in order, with their size, checksum and the records of each
+	// table they hold. The output must be closed first
+	void writeManifest( File manifestFile, String formatName ) throws IOException
+	{
+		Writer manifestOut = new BufferedWriter( new OutputStreamWriter(new FileOutputStream(manifestFile), MANIFEST_CHARSET) );
+		try
+		{
+			JSONArray partsManifest = new JSONArray();
+			for( Part part : parts )
+			{
+				JSONArray tablesManifest = new JSONArray();
+				for( PartTable partTable : part.tables )
+				{
+					JSONObject tableManifest = new JSONObject();
+					tableManifest.put( "name", partTable.tableName );
+					tableManifest.put( "firstRow", partTable.firstRow );
+					tableManifest.put( "rows", partTable.rows );
+					tablesManifest.put( tableManifest );
+				}
+				
+				JSONObject partManifest = new JSONObject();
+				partManifest.put( "file", part.file.getName() );
+				partManifest.put( "bytes", part.file.length() );
+				partManifest.put( "sha256", getChecksum( part.file ) );
+				partManifest.put( "tables", tablesManifest );
+				partsManifest.put( partManifest );
+			}
+			
+			JSONObject manifest = new JSONObject();
+			manifest.put( "format", formatName );
+			manifest.put( "parts", partsManifest );
+			manifest.write( manifestOut, 2, 0 );
+		}
+		catch( JSONException e )
+		{
+			if( e.getCause() instanceof IOException )
+				throw (IOException) e.getCause();
+			throw new IOException( "Manifest cannot be encoded: " + e.getMessage() );
+		}
+		finally
+		{
+			manifestOut.close();
+		}
+	}
+	
+	private void openPart() throws IOException
+	{
+		Part part = new Part();
+		part.file = file;
+		if( isRolling() )
+			part.file = SqliteConverter.addFileNameSuffix( file, String.format("-%1$05d", parts.size()), compressed );
+		
+		partOut = opener.open( part.file );
+		parts.add( part );
+		partRows = 0;
+		
+		// A table cut short by the previous part carries on in this one
+		if( tableName != null )
+			addPartTable();
+		
+		if( wrapper != null )
+			wrapper.writeHeader( partOut );
+	}
+	
+	private void closePart() throws IOException
+	{
+		if( partOut == null )
+			return;
+		
+		Utf8ChannelWriter closingOut = partOut;
+		partOut = null;
+		try
+		{
+			if( wrapper != null )
+				wrapper.writeTrailer( closingOut );
+		}
+		finally
+		{
+			closingOut.close();
+		}
+	}
+	
+	private void addPartTable()
+	{
+		partTable = new PartTable();
+		partTable.tableName = tableName;
+		partTable.firstRow = tableRows;
+		parts.get( parts.size() - 1 ).tables.add( partTable );
+	}
+	
+	private static String getChecksum( File partFile ) throws IOException
+	{
+		MessageDigest digest;
+		try
+		{
+			digest = MessageDigest.getInstance( CHECKSUM_ALGORITHM );
+		}
+		catch( NoSuchAlgorithmException e )
+		{
+			throw new IOException( "Checksum algorithm unavailable: " + CHECKSUM_ALGORITHM );
+		}
+		
+		InputStream partIn = new FileInputStream( partFile );
+		try
+		{
+			byte[] readBuffer = new byte[ 64 * 1024 ];
+			int readLength;
+			while( (readLength = partIn.read( readBuffer )) > 0 )
+				digest.update( readBuffer, 0, readLength );
+		}
+		finally
+		{
+			partIn.close();
+		}
+		
+		StringBuilder checksum = new StringBuilder();
+		for( byte digestByte : digest.digest() )
+			checksum.append( String.format("%1$02x", digestByte & 0xFF) );
+		return( checksum.toString() );
+	}
+}
@@ -0,0 +1,146 @@
+/* 
+ * SQLite Row
+ *
+ * Copyright 2011 Wappworks Studios
+ */
+package com.wappworks.app.sqlite;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import com.wappworks.app.sqlite.SqliteTableHandler.FieldType;
+
+// A reusable holder for the exported fields of a single record. Each field is held in the array matching
+// its projection type, so reading a record into a row allocates nothing beyond the driver's own strings.
+// Numeric fields read as zero when null; the null bitmap tells the two apart. Text fields read straight
+// from the database file that hold an integer are kept in longValues, and only turned into text (by
+// getString()) for the writers that cannot write the number out as it is
+class SqliteRow
+{
+	final long[]	longValues;
+	final double[]	doubleValues;
+	final String[]	stringValues;
+	String			recordName = null;
+	
+	// One bit per field, for null fields and for text fields held as integers
+	private final long[]	nullBits;
+	private final long[]	integerBits;
+	
+	SqliteRow( SqliteRecordProjection projection )
+	{
+		int fieldsNum = projection.getFieldsNum();
+		longValues = new long[ fieldsNum ];
+		doubleValues = new double[ fieldsNum ];
+		stringValues = new String[ fieldsNum ];
+		nullBits = new long[ (fieldsNum + 63) >> 6 ];
+		integerBits = new long[ (fieldsNum + 63) >> 6 ];
+	}
+	
+	boolean isNull( int fieldIndex )
+	{
+		return( (nullBits[fieldIndex >> 6] & (1L << fieldIndex)) != 0 );
+	}
+	
+	// Whether the text field holds an integer (in longValues) rather than a string
+	boolean isInteger( int fieldIndex )
+	{
+		return( (integerBits[fieldIndex >> 6] & (1L << fieldIndex)) != 0 );
+	}
+	
+	// The text field's value, converting an integer held in its place to text on first use
+	String getString( int fieldIndex )
+	{
+		if( isInteger( fieldIndex ) )
+		{
+			stringValues[ fieldIndex ] = Long.toString( longValues[fieldIndex] );
+			integerBits[ fieldIndex >> 6 ] &= ~(1L << fieldIndex);
+		}
+		return( stringValues[fieldIndex] );
+	}
+	
+	// Copies the current record of the result set into the row
+	void read( ResultSet rs, SqliteRecordProjection projection ) throws SQLException
+	{
+		FieldType[] fieldTypes = projection.fieldTypes;
+		int[] columnIndexes = projection.columnIndexes;
+		int fieldsNum = fieldTypes.length;
+		
+		Arrays.fill( nullBits, 0 );
+		Arrays.fill( integerBits, 0 );
+		for( int fieldIndex = 0; fieldIndex < fieldsNum; fieldIndex++ )
+		{
+			switch( fieldTypes[fieldIndex] )
+			{
+				case INTEGER:
+					longValues[ fieldIndex ] = rs.getLong( columnIndexes[fieldIndex] );
+					setNull( fieldIndex, rs.wasNull() );
+					break;
+					
+				case FLOAT:
+					doubleValues[ fieldIndex ] = rs.getDouble( columnIndexes[fieldIndex] );
+					setNull( fieldIndex, rs.wasNull() );
+					break;
+					
+				default:
+					stringValues[ fieldIndex ] = rs.getString( columnIndexes[fieldIndex] );
+					setNull( fieldIndex, stringValues[fieldIndex] == null );
+					break;
+			}
+		}
+		
+		if( projection.keyColumnIndex > 0 )
+			recordName = rs.getString( projection.keyColumnIndex );
+	}
+	
+	// Copies the cursor's current record into the row. Returns false if a value in the record could not be
+	// converted as the driver would, in which case the record should be read through the driver instead
+	boolean read( SqliteFileCursor cursor, SqliteRecordProjection projection ) throws SQLException
+	{
+		FieldType[] fieldTypes = projection.fieldTypes;
+		int[] columnIndexes = projection.columnIndexes;
+		int fieldsNum = fieldTypes.length;
+		
+		Arrays.fill( nullBits, 0 );
+		Arrays.fill( integerBits, 0 );
+		for( int fieldIndex = 0; fieldIndex < fieldsNum; fieldIndex++ )
+		{
+			switch( fieldTypes[fieldIndex] )
+			{
+				case INTEGER:
+					longValues[ fieldIndex ] = cursor.getLong( columnIndexes[fieldIndex] );
+					setNull( fieldIndex, cursor.wasNull() );
+					break;
+					
+				case FLOAT:
+					doubleValues[ fieldIndex ] = cursor.getDouble( columnIndexes[fieldIndex] );
+					setNull( fieldIndex, cursor.wasNull() );
+					break;
+					
+				default:
+					if( cursor.isInteger( columnIndexes[fieldIndex] ) )
+					{
+						longValues[ fieldIndex ] = cursor.getLong( columnIndexes[fieldIndex] );
+						stringValues[ fieldIndex ] = null;
+						integerBits[ fieldIndex >> 6 ] |= (1L << fieldIndex);
+						break;
+					}
+					
+					stringValues[ fieldIndex ] = cursor.getString( columnIndexes[fieldIndex] );
+					setNull( fieldIndex, stringValues[fieldIndex] == null );
+					break;
+			}
+		}
+		
+		if( projection.keyColumnIndex > 0 )
+			recordName = cursor.getString( projection.keyColumnIndex );
+		
+		return( cursor.wasConverted() );
+	}
+	
+	private void setNull( int fieldIndex, boolean isNull )
+	{
+		if( isNull )
+			nullBits[ fieldIndex >> 6 ] |= (1L << fieldIndex);
+	}
+}
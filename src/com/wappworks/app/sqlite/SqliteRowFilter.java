@@ -0,0 +1,57 @@
+/* 
+ * SQLite Row Filter
+ *
+ * Copyright 2011 Wappworks Studios
+ */
+package com.wappworks.app.sqlite;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+// Restricts a table export to the records whose column value lies above a lower bound (if any) and up to
+// an upper bound. Without an upper bound, no records are selected at all. Incremental exports use this to
+// select the records added since the previous export
+class SqliteRowFilter
+{
+	private String	column;
+	private Object	valueAfter;
+	private Object	valueUpTo;
+	
+	SqliteRowFilter( String inColumn, Object inValueAfter, Object inValueUpTo )
+	{
+		column = inColumn;
+		valueAfter = inValueAfter;
+		valueUpTo = inValueUpTo;
+	}
+	
+	// The SQL condition selecting the records, with placeholders for the bounds
+	String getCondition()
+	{
+		if( valueUpTo == null )
+			return( "0" );
+		
+		String quotedColumn = quoteColumn( column );
+		if( valueAfter == null )
+			return( String.format("%1$s <= ?", quotedColumn) );
+		
+		return( String.format("%1$s > ? and %1$s <= ?", quotedColumn) );
+	}
+	
+	// Binds the bounds to the condition's placeholders, starting at the given parameter index. Returns the
+	// index of the next parameter
+	int bind( PreparedStatement dbStat, int paramIndex ) throws SQLException
+	{
+		if( valueUpTo == null )
+			return( paramIndex );
+		
+		if( valueAfter != null )
+			dbStat.setObject( paramIndex++, valueAfter );
+		dbStat.setObject( paramIndex++, valueUpTo );
+		return( paramIndex );
+	}
+	
+	static String quoteColumn( String column )
+	{
+		return( "\"" + column.replace( "\"", "\"\"" ) + "\"" );
+	}
+}
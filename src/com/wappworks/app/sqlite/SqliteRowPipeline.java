@@ -0,0 +1,158 @@
+/* 
+ * SQLite Row Pipeline
+ *
+ * Copyright 2011 Wappworks Studios
+ */
+package com.wappworks.app.sqlite;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// A row reader that steps through the result set on a reader thread of its own, so the SQLite page
+// decoding overlaps with the caller encoding and writing out the rows. The rows circulate between the two
+// threads in a fixed ring of pre-allocated batches: the reader fills free batches and the caller hands
+// them back once it has moved past them. Nothing is allocated per row, and the reader can only get a
+// bounded number of rows ahead
+class SqliteRowPipeline extends SqliteRowReader
+{
+	private static final int	BATCH_ROWS = 256;
+	private static final int	BATCHES_NUM = 4;
+	
+	private static class Batch
+	{
+		SqliteRow[]		rows;
+		int				rowsNum = 0;
+		boolean			last = false;
+		
+		Batch( SqliteRecordProjection projection )
+		{
+			rows = new SqliteRow[ BATCH_ROWS ];
+			for( int rowIndex = 0; rowIndex < BATCH_ROWS; rowIndex++ )
+				rows[ rowIndex ] = new SqliteRow( projection );
+		}
+	}
+	
+	private ResultSet				rs;
+	private BlockingQueue<Batch>	freeBatches;
+	private BlockingQueue<Batch>	filledBatches;
+	private Batch					currBatch = null;
+	private int						currRowIndex = 0;
+	private Thread					readerThread;
+	private volatile SQLException	readError = null;
+	
+	SqliteRowPipeline( ResultSet inRs, SqliteRecordProjection inProjection )
+	{
+		super( inProjection );
+		rs = inRs;
+		freeBatches = new ArrayBlockingQueue<Batch>( BATCHES_NUM );
+		filledBatches = new ArrayBlockingQueue<Batch>( BATCHES_NUM );
+		for( int batchIndex = 0; batchIndex < BATCHES_NUM; batchIndex++ )
+			freeBatches.add( new Batch(inProjection) );
+		
+		readerThread = new Thread( new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				readBatches();
+			}
+		}, "SqliteRowPipeline reader" );
+		readerThread.setDaemon( true );
+		readerThread.start();
+	}
+	
+	@Override
+	SqliteRow next() throws SQLException
+	{
+		while( currBatch == null || currRowIndex >= currBatch.rowsNum )
+		{
+			if( currBatch != null )
+			{
+				if( currBatch.last )
+				{
+					if( readError != null )
+						throw readError;
+					return( null );
+				}
+				
+				freeBatches.add( currBatch );
+				currBatch = null;
+			}
+			
+			try
+			{
+				currBatch = filledBatches.take();
+				currRowIndex = 0;
+			}
+			catch( InterruptedException e )
+			{
+				Thread.currentThread().interrupt();
+				throw new SQLException( "Interrupted waiting for records to be read" );
+			}
+		}
+		
+		return( currBatch.rows[currRowIndex++] );
+	}
+	
+	// Stops the reader thread (if the records have not all been read) and waits for it to close the result set
+	@Override
+	void close()
+	{
+		readerThread.interrupt();
+		try
+		{
+			readerThread.join();
+		}
+		catch( InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	// Runs on the reader thread, which owns the result set until it is done with it
+	private void readBatches()
+	{
+		SqliteRecordProjection projection = getProjection();
+		try
+		{
+			boolean last = false;
+			while( !last )
+			{
+				Batch batch = freeBatches.take();
+				batch.rowsNum = 0;
+				try
+				{
+					while( batch.rowsNum < BATCH_ROWS )
+					{
+						if( !rs.next() )
+						{
+							last = true;
+							break;
+						}
+						
+						batch.rows[ batch.rowsNum++ ].read( rs, projection );
+					}
+				}
+				catch( SQLException e )
+				{
+					readError = e;
+					last = true;
+				}
+				
+				batch.last = last;
+				filledBatches.put( batch );
+			}
+		}
+		catch( InterruptedException e )
+		{
+			// The caller has stopped reading
+		}
+		finally
+		{
+			try						{	rs.close();	}
+			catch( SQLException e )	{}
+		}
+	}
+}
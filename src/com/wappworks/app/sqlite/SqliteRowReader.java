@@ -0,0 +1,60 @@
+/* 
+ * SQLite Row Reader
+ *
+ * Copyright 2011 Wappworks Studios
+ */
+package com.wappworks.app.sqlite;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+// Reads the records of a query into rows. The reader takes over the result set and closes it when it is
+// closed. This reader works on the calling thread, reusing a single row for every record
+class SqliteRowReader
+{
+	private ResultSet				rs;
+	private SqliteRecordProjection	projection;
+	private SqliteRow				row;
+	
+	// Opens a reader over the result set. A pipelined reader decodes the records on a thread of its own
+	static SqliteRowReader open( ResultSet rs, SqliteRecordProjection projection, boolean pipelined )
+	{
+		if( pipelined )
+			return( new SqliteRowPipeline( rs, projection ) );
+		
+		return( new SqliteRowReader( rs, projection ) );
+	}
+	
+	SqliteRowReader( ResultSet inRs, SqliteRecordProjection inProjection )
+	{
+		rs = inRs;
+		projection = inProjection;
+		row = new SqliteRow( projection );
+	}
+	
+	protected SqliteRowReader( SqliteRecordProjection inProjection )
+	{
+		projection = inProjection;
+	}
+	
+	SqliteRecordProjection getProjection()
+	{
+		return( projection );
+	}
+	
+	// Returns the next row, or null once all the records have been read. The row is only valid until the
+	// next call
+	SqliteRow next() throws SQLException
+	{
+		if( !rs.next() )
+			return( null );
+		
+		row.read( rs, projection );
+		return( row );
+	}
+	
+	void close() throws SQLException
+	{
+		rs.close();
+	}
+}
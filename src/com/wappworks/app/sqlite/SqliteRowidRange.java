@@ -0,0 +1,29 @@
+/* 
+ * SQLite Rowid Range
+ *
+ * Copyright 2011 Wappworks Studios
+ */
+package com.wappworks.app.sqlite;
+
+// An inclusive range of table rowids
+public class SqliteRowidRange
+{
+	private long first;
+	private long last;
+	
+	public SqliteRowidRange( long inFirst, long inLast )
+	{
+		first = inFirst;
+		last = inLast;
+	}
+	
+	public long getFirst()
+	{
+		return( first );
+	}
+	
+	public long getLast()
+	{
+		return( last );
+	}
+}
@@ -0,0 +1,322 @@
+/* 
+ * SQLite Table Diff
+ *
+ * Copyright 2011 Wappworks Studios
+ */
+package com.wappworks.app.sqlite;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import com.wappworks.app.sqlite.SqliteTableHandler.FieldType;
+import com.wappworks.common.json.JsonStreamWriter;
+
+// Compares a table across two snapshots of a database. Both snapshots are walked in key order side by side
+// (a sorted merge join), so the comparison takes a single pass over each and only holds the current record
+// of each in memory. Every record inserted, updated or deleted since the base snapshot is written out as a
+// change record:
+//     { op: "insert" | "update" | "delete", key: <key value>, record: <the record, as of its latest snapshot> }
+class SqliteTableDiff
+{
+	private static final String	OP_INSERT = "insert";
+	private static final String	OP_UPDATE = "update";
+	private static final String	OP_DELETE = "delete";
+	
+	private static final char[]	HEX_DIGITS = "0123456789abcdef".toCharArray();
+	
+	// Steps through a snapshot of the table in key order. A cursor without a result set stands in for a
+	// table missing from the snapshot
+	static class Cursor
+	{
+		private ResultSet				rs;
+		private SqliteRecordProjection	projection;
+		private SqliteRow				row;
+		private int						keyColumnIndex;
+		private Object					key = null;
+		private boolean					exhausted = false;
+		
+		Cursor( ResultSet inRs, SqliteRecordProjection inProjection, int inKeyColumnIndex )
+		{
+			rs = inRs;
+			projection = inProjection;
+			row = (projection != null) ? new SqliteRow( projection ) : null;
+			keyColumnIndex = inKeyColumnIndex;
+		}
+		
+		boolean next() throws SQLException
+		{
+			if( rs == null || !rs.next() )
+			{
+				exhausted = true;
+				return( false );
+			}
+			
+			Object keyLast = key;
+			key = rs.getObject( keyColumnIndex );
+			if( key instanceof Integer )
+				key = Long.valueOf( ((Integer) key).longValue() );
+			
+			// The merge join relies on both snapshots sorting their keys the same way
+			if( keyLast != null && compareKeys(keyLast, key) > 0 )
+				throw new SQLException( "Table records are not in key order" );
+			
+			row.read( rs, projection );
+			return( true );
+		}
+		
+		void close() throws SQLException
+		{
+			if( rs != null )
+				rs.close();
+		}
+	}
+	
+	private String		tableName;
+	private Cursor		baseCursor;
+	private Cursor		newCursor;
+	private int[]		baseFieldIndexes;
+	private boolean		fieldsChanged;
+	
+	// Either handler may be null if the table only exists in one of the snapshots
+	static void exportToJson( JsonStreamWriter jsonOut, SqliteTableHandler baseHandler, SqliteTableHandler newHandler, SqliteConverterExportConfig config ) throws SQLException, IOException
+	{
+		// The records are matched by the configured primary key if both snapshots have it, or else by rowid
+		String keyField = null;
+		if( baseHandler != null && newHandler != null )
+		{
+			if( baseHandler.getPrimaryKey(config) != null )
+				keyField = newHandler.getPrimaryKey( config );
+		}
+		else
+		{
+			keyField = (newHandler != null ? newHandler : baseHandler).getPrimaryKey( config );
+		}
+		
+		Cursor baseCursor = (baseHandler != null) ? baseHandler.openDiffCursor( keyField, config ) : new Cursor( null, null, 0 );
+		try
+		{
+			Cursor newCursor = (newHandler != null) ? newHandler.openDiffCursor( keyField, config ) : new Cursor( null, null, 0 );
+			try
+			{
+				String tableName = (newHandler != null ? newHandler : baseHandler).getName();
+				new SqliteTableDiff( tableName, baseCursor, newCursor ).export( jsonOut );
+			}
+			finally
+			{
+				newCursor.close();
+			}
+		}
+		finally
+		{
+			baseCursor.close();
+		}
+	}
+	
+	private SqliteTableDiff( String inTableName, Cursor inBaseCursor, Cursor inNewCursor )
+	{
+		tableName = inTableName;
+		baseCursor = inBaseCursor;
+		newCursor = inNewCursor;
+		
+		// Match the fields up by name. If the exported fields differ between the snapshots, every record
+		// present in both counts as updated
+		fieldsChanged = false;
+		if( baseCursor.projection == null || newCursor.projection == null )
+			return;
+		
+		int fieldsNum = newCursor.projection.getFieldsNum();
+		baseFieldIndexes = new int[ fieldsNum ];
+		fieldsChanged = (fieldsNum != baseCursor.projection.getFieldsNum());
+		for( int fieldIndex = 0; fieldIndex < fieldsNum; fieldIndex++ )
+		{
+			baseFieldIndexes[ fieldIndex ] = -1;
+			for( int baseFieldIndex = 0; baseFieldIndex < baseCursor.projection.getFieldsNum(); baseFieldIndex++ )
+			{
+				if( baseCursor.projection.fieldNames[baseFieldIndex].equals( newCursor.projection.fieldNames[fieldIndex] ) &&
+					baseCursor.projection.fieldTypes[baseFieldIndex] == newCursor.projection.fieldTypes[fieldIndex] )
+				{
+					baseFieldIndexes[ fieldIndex ] = baseFieldIndex;
+					break;
+				}
+			}
+			
+			if( baseFieldIndexes[fieldIndex] < 0 )
+				fieldsChanged = true;
+		}
+	}
+	
+	private void export( JsonStreamWriter jsonOut ) throws SQLException, IOException
+	{
+		jsonOut.key( tableName );
+		jsonOut.beginArray();
+		
+		baseCursor.next();
+		newCursor.next();
+		while( !baseCursor.exhausted || !newCursor.exhausted )
+		{
+			int keyOrder;
+			if( baseCursor.exhausted )
+				keyOrder = 1;
+			else if( newCursor.exhausted )
+				keyOrder = -1;
+			else
+				keyOrder = compareKeys( baseCursor.key, newCursor.key );
+			
+			if( keyOrder < 0 )
+			{
+				writeChange( jsonOut, OP_DELETE, baseCursor );
+				baseCursor.next();
+			}
+			else if( keyOrder > 0 )
+			{
+				writeChange( jsonOut, OP_INSERT, newCursor );
+				newCursor.next();
+			}
+			else
+			{
+				if( !isRecordUnchanged() )
+					writeChange( jsonOut, OP_UPDATE, newCursor );
+				baseCursor.next();
+				newCursor.next();
+			}
+		}
+		
+		jsonOut.endArray();
+	}
+	
+	// Compares the records as they are exported, so only changes that show up in the export count
+	private boolean isRecordUnchanged()
+	{
+		if( fieldsChanged )
+			return( false );
+		
+		SqliteRow baseRow = baseCursor.row;
+		SqliteRow newRow = newCursor.row;
+		FieldType[] fieldTypes = newCursor.projection.fieldTypes;
+		for( int fieldIndex = 0; fieldIndex < fieldTypes.length; fieldIndex++ )
+		{
+			int baseFieldIndex = baseFieldIndexes[ fieldIndex ];
+			switch( fieldTypes[fieldIndex] )
+			{
+				case INTEGER:
+					if( baseRow.longValues[baseFieldIndex] != newRow.longValues[fieldIndex] )
+						return( false );
+					break;
+					
+				case FLOAT:
+					if( Double.doubleToLongBits(baseRow.doubleValues[baseFieldIndex]) != Double.doubleToLongBits(newRow.doubleValues[fieldIndex]) )
+						return( false );
+					break;
+					
+				default:
+					String baseValue = baseRow.getString( baseFieldIndex );
+					String newValue = newRow.getString( fieldIndex );
+					if( baseValue == null ? newValue != null : !baseValue.equals(newValue) )
+						return( false );
+					break;
+			}
+		}
+		
+		return( true );
+	}
+	
+	private static void writeChange( JsonStreamWriter jsonOut, String op, Cursor cursor ) throws IOException
+	{
+		jsonOut.beginObject();
+		jsonOut.key( "op" ).value( op );
+		jsonOut.key( "key" );
+		writeKey( jsonOut, cursor.key );
+		jsonOut.key( "record" ).beginObject();
+		SqliteTableHandler.exportRecordFieldsToJson( jsonOut, cursor.row, cursor.projection );
+		jsonOut.endObject();
+		jsonOut.endObject();
+	}
+	
+	// Blob keys are written as hex strings
+	private static void writeKey( JsonStreamWriter jsonOut, Object key ) throws IOException
+	{
+		if( key == null )
+			jsonOut.valueNull();
+		else if( key instanceof Long )
+			jsonOut.value( ((Long) key).longValue() );
+		else if( key instanceof Number )
+			jsonOut.value( ((Number) key).doubleValue() );
+		else if( key instanceof byte[] )
+		{
+			byte[] keyBytes = (byte[]) key;
+			char[] keyHex = new char[ keyBytes.length * 2 ];
+			for( int byteIndex = 0; byteIndex < keyBytes.length; byteIndex++ )
+			{
+				keyHex[ byteIndex * 2 ] = HEX_DIGITS[ (keyBytes[byteIndex] >> 4) & 0x0F ];
+				keyHex[ byteIndex * 2 + 1 ] = HEX_DIGITS[ keyBytes[byteIndex] & 0x0F ];
+			}
+			jsonOut.value( new String(keyHex) );
+		}
+		else
+			jsonOut.value( key.toString() );
+	}
+	
+	// Orders keys the way SQLite sorts them with the binary collation: nulls first, then numbers, then text
+	// (in code point order, matching the order of its UTF-8 bytes) and finally blobs
+	static int compareKeys( Object key1, Object key2 )
+	{
+		int keyClassOrder = getKeyClass( key1 ) - getKeyClass( key2 );
+		if( keyClassOrder != 0 )
+			return( keyClassOrder );
+		
+		if( key1 == null )
+			return( 0 );
+		
+		if( key1 instanceof Long && key2 instanceof Long )
+		{
+			long value1 = ((Long) key1).longValue();
+			long value2 = ((Long) key2).longValue();
+			return( value1 < value2 ? -1 : (value1 == value2 ? 0 : 1) );
+		}
+		
+		if( key1 instanceof Number )
+			return( Double.compare( ((Number) key1).doubleValue(), ((Number) key2).doubleValue() ) );
+		
+		if( key1 instanceof byte[] )
+		{
+			byte[] bytes1 = (byte[]) key1;
+			byte[] bytes2 = (byte[]) key2;
+			int bytesNum = Math.min( bytes1.length, bytes2.length );
+			for( int byteIndex = 0; byteIndex < bytesNum; byteIndex++ )
+			{
+				int byteOrder = (bytes1[byteIndex] & 0xFF) - (bytes2[byteIndex] & 0xFF);
+				if( byteOrder != 0 )
+					return( byteOrder );
+			}
+			return( bytes1.length - bytes2.length );
+		}
+		
+		String text1 = key1.toString();
+		String text2 = key2.toString();
+		int charIndex1 = 0;
+		int charIndex2 = 0;
+		while( charIndex1 < text1.length() && charIndex2 < text2.length() )
+		{
+			int codePoint1 = text1.codePointAt( charIndex1 );
+			int codePoint2 = text2.codePointAt( charIndex2 );
+			if( codePoint1 != codePoint2 )
+				return( codePoint1 - codePoint2 );
+			
+			charIndex1 += Character.charCount( codePoint1 );
+			charIndex2 += Character.charCount( codePoint2 );
+		}
+		return( (text1.length() - charIndex1) - (text2.length() - charIndex2) );
+	}
+	
+	private static int getKeyClass( Object key )
+	{
+		if( key == null )
+			return( 0 );
+		if( key instanceof Number )
+			return( 1 );
+		if( key instanceof byte[] )
+			return( 3 );
+		return( 2 );
+	}
+}
@@ -7,23 +7,22 @@ package com.wappworks.app.sqlite;
 
 import java.io.IOException;
 import java.io.Writer;
+import java.nio.channels.WritableByteChannel;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.util.Hashtable;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
+import java.util.Locale;
 
+import com.wappworks.common.json.JsonStreamWriter;
 import com.wappworks.common.log.LogWriter;
 
 public class SqliteTableHandler
 {
-	private enum FieldType
+	enum FieldType
 	{
 		INTEGER,
 		FLOAT,
@@ -33,342 +32,699 @@ public class SqliteTableHandler
 	private LogWriter						logWriter;
 	private Connection						dbConn;
 	private String 							tableName;
-	private Hashtable<String, FieldType>	fieldInfo;
+	private SqliteTableSchema				schema;
+	
+	// The database file the records can be read from directly (if any), along with the root page of the
+	// table's b-tree, the 1-based index of its INTEGER PRIMARY KEY column (0 if it has none), which of
+	// its columns have REAL affinity and whether any of its columns have default values
+	private SqliteFileReader				fileReader = null;
+	private int								fileRootPage = 0;
+	private int								rowidColumnIndex = 0;
+	private boolean[]						realColumns;
+	private boolean							fieldDefaults;
 	
 	public SqliteTableHandler( String inTableName, Connection inDbConn, LogWriter inLogWriter ) throws SQLException
 	{
 		logWriter = inLogWriter;
 		dbConn = inDbConn;
 		tableName = inTableName;
-		fieldInfo = new Hashtable<String, FieldType>();
 		
 		logWriter.logAppend( String.format( "Reading column names for table '%1$s'", tableName) );
 		
+		// The pragma lists the columns in column id order, which is also their order in the table records
+		List<String> fieldNames = new ArrayList<String>();
+		List<FieldType> fieldTypes = new ArrayList<FieldType>();
+		List<Boolean> fieldRealAffinities = new ArrayList<Boolean>();
+		fieldDefaults = false;
+		int keyFieldsNum = 0;
+		int keyFieldIndex = -1;
 		Statement dbStat = dbConn.createStatement();
 	    ResultSet rs = dbStat.executeQuery( String.format("PRAGMA table_info('%1$s');", tableName) );
 	    try
 	    {
 		    while( rs.next() )
 		    {
-		    	fieldInfo.put( rs.getString("name"), fieldTypeStringToFieldType(rs.getString("type")) );
+		    	if( rs.getInt("pk") > 0 )
+		    	{
+		    		keyFieldsNum++;
+		    		if( "INTEGER".equalsIgnoreCase( rs.getString("type") ) )
+		    			keyFieldIndex = fieldNames.size();
+		    	}
+		    	if( rs.getString("dflt_value") != null )
+		    		fieldDefaults = true;
+		    	
+		    	fieldNames.add( rs.getString("name") );
+		    	fieldTypes.add( fieldTypeStringToFieldType(rs.getString("type")) );
+		    	fieldRealAffinities.add( isRealAffinity(rs.getString("type")) );
 		    }
 	    }	
 	    finally
 	    {
 	    	rs.close();
 	    }
+	    
+	    schema = new SqliteTableSchema( fieldNames, fieldTypes );
+	    
+	    // A lone INTEGER PRIMARY KEY column is the rowid, and is left out of the records themselves
+	    if( keyFieldsNum == 1 && keyFieldIndex >= 0 )
+	    	rowidColumnIndex = keyFieldIndex + 1;
+	    
+	    realColumns = new boolean[ fieldRealAffinities.size() ];
+	    for( int fieldIndex = 0; fieldIndex < realColumns.length; fieldIndex++ )
+	    	realColumns[ fieldIndex ] = fieldRealAffinities.get( fieldIndex );
+	}
+	
+	private SqliteTableHandler( SqliteTableHandler src, Connection inDbConn, LogWriter inLogWriter )
+	{
+		logWriter = inLogWriter;
+		dbConn = inDbConn;
+		tableName = src.tableName;
+		schema = src.schema;
+		fileReader = src.fileReader;
+		fileRootPage = src.fileRootPage;
+		rowidColumnIndex = src.rowidColumnIndex;
+		realColumns = src.realColumns;
+		fieldDefaults = src.fieldDefaults;
+	}
+	
+	// Reads the table's records straight from the database file while a file reader is set (null goes back
+	// to the driver), unless the table has columns with default values. Those columns may be missing from
+	// older records, which then take the default value, and the defaults are left to the driver to work out
+	void setFileReader( SqliteFileReader inFileReader )
+	{
+		fileReader = null;
+		fileRootPage = 0;
+		if( inFileReader == null || fieldDefaults )
+			return;
+		
+		fileRootPage = inFileReader.getTableRootPage( tableName );
+		if( fileRootPage > 0 )
+			fileReader = inFileReader;
+	}
+	
+	// Whether the table's records are being read straight from the database file
+	boolean isFileReads()
+	{
+		return( fileReader != null );
+	}
+	
+	// Returns a handler for the same table that reads its records over another connection. The table
+	// schema is shared rather than read again
+	public SqliteTableHandler withConnection( Connection inDbConn, LogWriter inLogWriter )
+	{
+		return( new SqliteTableHandler( this, inDbConn, inLogWriter ) );
 	}
 	
 	public Boolean exportTableToXml( Writer fOut, String indent, SqliteConverterExportConfig config ) throws SQLException, IOException
 	{
-		List<String> excludeList = config.getExcludeList();
-    	if( excludeList.contains( tableName ) )
-    		return( true );
-		if( excludeList.size() == 0 )
-			excludeList = null;
-    	
-		fOut.write( String.format( "%1$s<%2$s>\n", indent, tableName) );
-
-		String recordIndent = indent + "\t";
-		exportRecordsToXml( fOut, recordIndent, excludeList );
+		if( !isExported( config ) )
+			return( true );
 		
-		fOut.write( String.format( "%1$s</%2$s>\n", indent, tableName) );
+		writeXmlTableStart( fOut, indent );
+		exportRecordsToXml( fOut, null, indent, config, null );
+		writeXmlTableEnd( fOut, indent );
 		return( true );
 	}
 	
-	private void exportRecordsToXml( Writer fOut, String indent, List<String> excludeList ) throws SQLException, IOException
+	// Exports the table to an output that may roll over to a new part file between records. The table tags
+	// are closed at the end of each part and reopened at the start of the next
+	public Boolean exportTableToXml( SqliteRollingOutput xmlOut, String indent, SqliteConverterExportConfig config ) throws SQLException, IOException
 	{
-		Statement dbStat = dbConn.createStatement();
-	    ResultSet rs = dbStat.executeQuery( String.format("select * from '%1$s';", tableName) );
+		if( !isExported( config ) )
+			return( true );
+		
+		xmlOut.beginTable( tableName );
+		try
+		{
+			writeXmlTableStart( xmlOut.getWriter(), indent );
+			exportRecordsToXml( xmlOut.getWriter(), xmlOut, indent, config, null );
+			writeXmlTableEnd( xmlOut.getWriter(), indent );
+		}
+		finally
+		{
+			xmlOut.endTable();
+		}
+		return( true );
+	}
+	
+	// Exports only the records in the given rowid range. The enclosing table tags are left to the caller
+	public void exportRecordRangeToXml( Writer fOut, String indent, SqliteConverterExportConfig config, SqliteRowidRange range ) throws SQLException, IOException
+	{
+		exportRecordsToXml( fOut, null, indent, config, range );
+	}
+	
+	// Exports the table as delimiter separated values, with a header line naming the fields. Like XML,
+	// every field is exported as text
+	public Boolean exportTableToCsv( Writer fOut, SqliteConverterExportConfig config ) throws SQLException, IOException
+	{
+		if( !isExported( config ) )
+			return( true );
+		
+		SqliteRowReader rowReader = openRowReader( config, null, null, false );
 	    try
 	    {
-		    while( rs.next() )
-		    {
-				fOut.write( String.format( "%1$s<%2$sRecord>\n", indent, tableName) );
-				for( Map.Entry<String, FieldType> entry : fieldInfo.entrySet() )
-				{
-					String fieldName = entry.getKey();
-					
-					if( excludeList != null )
+	    	String[] fieldNames = rowReader.getProjection().fieldNames;
+	    	int fieldsNum = fieldNames.length;
+	    	
+			SqliteCsvRecordWriter recordWriter = new SqliteCsvRecordWriter( fOut, config.getDelimiter() );
+			try
+			{
+				for( String fieldName : fieldNames )
+					recordWriter.writeField( fieldName );
+				recordWriter.endRecord();
+				
+				SqliteRow row;
+			    while( (row = rowReader.next()) != null )
+			    {
+					for( int fieldIndex = 0; fieldIndex < fieldsNum; fieldIndex++ )
 					{
-						String fieldRefName = tableName + "." + fieldName;
-						if( excludeList.contains( fieldRefName ) )
-							continue;
+						if( row.isInteger( fieldIndex ) )
+							recordWriter.writeField( row.longValues[fieldIndex] );
+						else
+							recordWriter.writeField( row.stringValues[fieldIndex] );
 					}
-
-					fOut.write( String.format("%1$s\t<%2$s>%3$s</%2$s>\n", indent, fieldName, rs.getString( fieldName )) );
-				}
-				fOut.write( String.format( "%1$s</%2$sRecord>\n", indent, tableName) );
-		    }
+			    	recordWriter.endRecord();
+			    }
+			}
+			finally
+			{
+		    	recordWriter.flush();
+			}
 	    }	
 	    finally
 	    {
-	    	rs.close();
+	    	rowReader.close();
 	    }
+		
+		return( true );
 	}
 	
-	public Boolean exportTableToJson( JSONObject jsonOut, SqliteConverterExportConfig config ) throws SQLException
+	public void writeXmlTableStart( Writer fOut, String indent ) throws IOException
 	{
-		List<String> excludeList = config.getExcludeList();
-    	if( excludeList.contains( tableName ) )
-    		return( true );
-		if( excludeList.size() == 0 )
-			excludeList = null;
-		
-		String primaryKey = config.getTablePrimaryKeys().get( tableName );
-		if( primaryKey != null && !fieldInfo.containsKey(primaryKey) )
-			primaryKey = null;
+		fOut.write( String.format( "%1$s<%2$s>\n", indent, tableName) );
+	}
+	
+	public void writeXmlTableEnd( Writer fOut, String indent ) throws IOException
+	{
+		fOut.write( String.format( "%1$s</%2$s>\n", indent, tableName) );
+	}
+	
+	// The rolling output, if given, is checked for a roll over before each record
+	private void exportRecordsToXml( Writer fOut, SqliteRollingOutput xmlOut, String indent, SqliteConverterExportConfig config, SqliteRowidRange range ) throws SQLException, IOException
+	{
+		// XML exports every field as text, whatever its declared type
+		SqliteRowReader rowReader = openRowReader( config, range, null, false );
+	    try
+	    {
+	    	String[] fieldNames = rowReader.getProjection().fieldNames;
+	    	int fieldsNum = fieldNames.length;
+	    	
+			SqliteXmlRecordWriter recordWriter = new SqliteXmlRecordWriter( fOut, indent + "\t", tableName + "Record", fieldNames );
+			try
+			{
+				SqliteRow row;
+			    while( (row = rowReader.next()) != null )
+			    {
+			    	if( xmlOut != null && xmlOut.isRollDue() )
+			    	{
+			    		recordWriter.flush();
+			    		writeXmlTableEnd( fOut, indent );
+			    		xmlOut.roll();
+			    		fOut = xmlOut.getWriter();
+			    		writeXmlTableStart( fOut, indent );
+			    		recordWriter.setWriter( fOut );
+			    	}
+			    	
+			    	recordWriter.beginRecord();
+					for( int fieldIndex = 0; fieldIndex < fieldsNum; fieldIndex++ )
+					{
+						if( row.isInteger( fieldIndex ) )
+							recordWriter.writeField( fieldIndex, row.longValues[fieldIndex] );
+						else
+							recordWriter.writeField( fieldIndex, row.stringValues[fieldIndex] );
+					}
+			    	recordWriter.endRecord();
+			    	
+			    	if( xmlOut != null )
+			    		xmlOut.endRecord();
+			    }
+			}
+			finally
+			{
+		    	recordWriter.flush();
+			}
+	    }	
+	    finally
+	    {
+	    	rowReader.close();
+	    }
+	}
+	
+	public Boolean exportTableToJson( JsonStreamWriter jsonOut, SqliteConverterExportConfig config ) throws SQLException, IOException
+	{
+		return( exportTableToJson( jsonOut, null, config ) );
+	}
+	
+	// Exports the table to an output that may roll over to a new part file between records (or to a single
+	// file if no rolling output is given). The table's record list is closed at the end of each part and
+	// reopened at the start of the next
+	public Boolean exportTableToJson( JsonStreamWriter jsonOut, SqliteRollingOutput jsonRollOut, SqliteConverterExportConfig config ) throws SQLException, IOException
+	{
+		if( !isExported( config ) )
+			return( true );
 		
-		Object jsonRecords = null;
-		if( primaryKey == null )
-			jsonRecords = getRecordsAsJsonArray( excludeList );
-		else
-			jsonRecords = getRecordsAsJsonObject( excludeList, primaryKey );
+		String primaryKey = getPrimaryKey( config );
 		
-		if( jsonRecords != null )
+		if( jsonRollOut != null )
+			jsonRollOut.beginTable( tableName );
+		try
 		{
-			try
+			jsonOut.key( tableName );
+			if( primaryKey == null )
 			{
-				jsonOut.put(tableName, jsonRecords);
+				jsonOut.beginArray();
+				exportRecordsToJsonArray( jsonOut, jsonRollOut, config, null );
+				jsonOut.endArray();
 			}
-			catch (JSONException e)
+			else
 			{
-				addLogText( String.format("Error adding table '%1$s' to JSON output. Skipping record...", tableName) );
+				exportRecordsToJsonObject( jsonOut, jsonRollOut, config, primaryKey );
 			}
 		}
+		finally
+		{
+			if( jsonRollOut != null )
+				jsonRollOut.endTable();
+		}
 		
 		return( true );
 	}
 	
-	private JSONArray getRecordsAsJsonArray( List<String> excludeList ) throws SQLException
+	// Exports the table's records to the columnar writer. Record names play no part in the columnar layout,
+	// so any primary key is exported as an ordinary field
+	public Boolean exportTableToColumnar( SqliteColumnarWriter columnarOut, SqliteConverterExportConfig config ) throws SQLException, IOException
 	{
-		Statement dbStat = dbConn.createStatement();
-	    ResultSet rs = dbStat.executeQuery( String.format("select * from '%1$s';", tableName) );
-	    
-	    JSONArray jsonRecords = new JSONArray();
+		if( !isExported( config ) )
+			return( true );
+		
+		SqliteRowReader rowReader = openRowReader( config, null, null, true );
 	    try
 	    {
-		    while( rs.next() )
+	    	columnarOut.beginTable( tableName, rowReader.getProjection() );
+			SqliteRow row;
+		    while( (row = rowReader.next()) != null )
+		    	columnarOut.writeRow( row );
+	    	columnarOut.endTable();
+	    }
+	    finally
+	    {
+	    	rowReader.close();
+	    }
+		
+		return( true );
+	}
+	
+	// Exports the table's records as newline-delimited JSON: a record object per line. Record names play no
+	// part in the output, so any primary key is exported as an ordinary field
+	public Boolean exportTableToNdjson( SqliteRollingOutput ndjsonOut, SqliteConverterExportConfig config ) throws SQLException, IOException
+	{
+		if( !isExported( config ) )
+			return( true );
+		
+		SqliteRowReader rowReader = openRowReader( config, null, null, true );
+	    try
+	    {
+	    	SqliteRecordProjection projection = rowReader.getProjection();
+	    	Writer fOut = ndjsonOut.getWriter();
+	    	JsonStreamWriter jsonOut = new JsonStreamWriter( fOut );
+			SqliteRow row;
+		    while( (row = rowReader.next()) != null )
 		    {
-		    	Boolean saveRecord = true;
-		    	JSONObject jsonRecord = new JSONObject();
+		    	if( ndjsonOut.isRollDue() )
+		    	{
+		    		ndjsonOut.roll();
+		    		fOut = ndjsonOut.getWriter();
+		    		jsonOut = new JsonStreamWriter( fOut );
+		    	}
 		    	
-				for( Map.Entry<String, FieldType> entry : fieldInfo.entrySet() )
-				{
-					String fieldName = entry.getKey();
-					
-					if( excludeList != null )
-					{
-						String fieldRefName = tableName + "." + fieldName;
-						if( excludeList.contains( fieldRefName ) )
-							continue;
-					}
-
-					try
-					{
-						addFieldToJson( jsonRecord, rs, entry );
-					}
-					catch (JSONException e)
-					{
-						addLogText( String.format("Error adding field '%2$s' in table '%1$s' to JSON output for record [%3$d]. Skipping record...", tableName, entry.getKey(), rs.getRow()) );
-						saveRecord = false;
-					}
-				}
-				
-				if( saveRecord )
-					jsonRecords.put( jsonRecord );
+		    	jsonOut.beginObject();
+				exportRecordFieldsToJson( jsonOut, row, projection );
+		    	jsonOut.endObject();
+		    	fOut.write( '\n' );
+		    	ndjsonOut.endRecord();
+		    }
+	    }
+	    finally
+	    {
+	    	rowReader.close();
+	    }
+		
+		return( true );
+	}
+	
+	// Exports the table's records to the channel as an Arrow IPC file
+	public Boolean exportTableToArrow( WritableByteChannel channel, SqliteConverterExportConfig config ) throws SQLException, IOException
+	{
+		if( !isExported( config ) )
+			return( true );
+		
+		SqliteRowReader rowReader = openRowReader( config, null, null, true );
+	    try
+	    {
+	    	SqliteArrowWriter arrowOut = new SqliteArrowWriter( channel, rowReader.getProjection(), config.getRowGroupRows() );
+			SqliteRow row;
+		    while( (row = rowReader.next()) != null )
+		    	arrowOut.writeRow( row );
+		    arrowOut.finish();
+	    }
+	    finally
+	    {
+	    	rowReader.close();
+	    }
+		
+		return( true );
+	}
+	
+	// Exports only the records in the given rowid range as members of the table's record array. Only
+	// applies to tables without a primary key; the enclosing array is left to the caller
+	public void exportRecordRangeToJson( JsonStreamWriter jsonOut, SqliteConverterExportConfig config, SqliteRowidRange range ) throws SQLException, IOException
+	{
+		exportRecordsToJsonArray( jsonOut, null, config, range );
+	}
+	
+	// The rolling output, if given, is checked for a roll over before each record
+	private void exportRecordsToJsonArray( JsonStreamWriter jsonOut, SqliteRollingOutput jsonRollOut, SqliteConverterExportConfig config, SqliteRowidRange range ) throws SQLException, IOException
+	{
+		SqliteRowReader rowReader = openRowReader( config, range, null, true );
+	    try
+	    {
+	    	SqliteRecordProjection projection = rowReader.getProjection();
+	    	int tableDepth = jsonOut.getDepth() - 1;
+			SqliteRow row;
+		    while( (row = rowReader.next()) != null )
+		    {
+		    	if( jsonRollOut != null && jsonRollOut.isRollDue() )
+		    	{
+		    		jsonOut.unwind( tableDepth );
+		    		jsonRollOut.roll();
+		    		jsonOut.key( tableName );
+		    		jsonOut.beginArray();
+		    	}
+		    	
+		    	jsonOut.beginObject();
+				exportRecordFieldsToJson( jsonOut, row, projection );
+		    	jsonOut.endObject();
+		    	
+		    	if( jsonRollOut != null )
+		    		jsonRollOut.endRecord();
 		    }
 	    }	
 	    finally
 	    {
-	    	rs.close();
+	    	rowReader.close();
 	    }
-	    
-	    return( jsonRecords );
 	}
 	
-	private JSONObject getRecordsAsJsonObject( List<String> excludeList, String primaryKey ) throws SQLException
+	private void exportRecordsToJsonObject( JsonStreamWriter jsonOut, SqliteRollingOutput jsonRollOut, SqliteConverterExportConfig config, String primaryKey ) throws SQLException, IOException
 	{
-		Statement dbStat = dbConn.createStatement();
-	    ResultSet rs = dbStat.executeQuery( String.format("select * from '%1$s';", tableName) );
+		SqliteRowReader rowReader = openRowReader( config, null, primaryKey, true );
+	    
+	    // Only the record names are retained so duplicates can be told apart. The records themselves are
+	    // written out as soon as they are read
+	    SqliteRecordNameSet	recordNames = new SqliteRecordNameSet();
+	    int					recordIndex = 0;
 	    
-	    JSONObject	jsonRecords = new JSONObject();
-	    int			recordIndex = 0;
+	    jsonOut.beginObject();
 	    try
 	    {
-		    while( rs.next() )
+	    	SqliteRecordProjection projection = rowReader.getProjection();
+	    	int tableDepth = jsonOut.getDepth() - 1;
+			SqliteRow row;
+		    while( (row = rowReader.next()) != null )
 		    {
-		    	Boolean saveRecord = true;
-		    	JSONObject jsonRecord = new JSONObject();
+		    	if( jsonRollOut != null && jsonRollOut.isRollDue() )
+		    	{
+		    		jsonOut.unwind( tableDepth );
+		    		jsonRollOut.roll();
+		    		jsonOut.key( tableName );
+		    		jsonOut.beginObject();
+		    	}
 		    	
-				for( Map.Entry<String, FieldType> entry : fieldInfo.entrySet() )
+				String recordName = row.recordName;
+				if( recordName == null || recordName.length() <= 0 )
+					recordName = "undef_" + recordIndex;
+				if( !recordNames.add( recordName ) )
 				{
-					String fieldName = entry.getKey();
-					
-					if( fieldName.equals(primaryKey) )
-						continue;
-					
-					if( excludeList != null )
-					{
-						String fieldRefName = tableName + "." + fieldName;
-						if( excludeList.contains( fieldRefName ) )
-							continue;
-					}
-
-					try
-					{
-						addFieldToJson( jsonRecord, rs, entry );
-					}
-					catch (JSONException e)
-					{
-						addLogText( String.format("Error adding field '%2$s' in table '%1$s' to JSON output for record [%3$d]. Skipping record...", tableName, entry.getKey(), rs.getRow()) );
-						saveRecord = false;
-					}
+					recordName += "_dupe_" + recordIndex;
+					recordNames.add( recordName );
 				}
 				
-				if( saveRecord )
-				{
-					String recordName = rs.getString( primaryKey );
-					if( recordName.length() <= 0 )
-						recordName = "undef_" + recordIndex;
-					if( jsonRecords.has( recordName ) )
-						recordName += "_dupe_" + recordIndex;
-					
-					try
-					{
-						jsonRecords.put( recordName, jsonRecord );
-					}
-					catch (JSONException e)
-					{
-						addLogText( String.format("Error adding record '%2$s' in table '%1$s' to JSON output. Skipping record...", tableName, recordName) );
-					}
-				}
+				jsonOut.key( recordName );
+		    	jsonOut.beginObject();
+				exportRecordFieldsToJson( jsonOut, row, projection );
+		    	jsonOut.endObject();
+		    	
+		    	if( jsonRollOut != null )
+		    		jsonRollOut.endRecord();
 				
 				recordIndex++;
 		    }
 	    }	
 	    finally
 	    {
-	    	rs.close();
+	    	rowReader.close();
 	    }
-	    
-	    return( jsonRecords );
-		/*
-		JSONObject jsonRecords = null;
-		ISqlJetCursor cursor = tableData.open();
-		int recordIndex = 0;
+	    jsonOut.endObject();
+	}
+	
+	static void exportRecordFieldsToJson( JsonStreamWriter jsonOut, SqliteRow row, SqliteRecordProjection projection ) throws IOException
+	{
+		String[] fieldNamesJson = projection.fieldNamesJson;
+		FieldType[] fieldTypes = projection.fieldTypes;
+		int fieldsNum = projection.getFieldsNum();
 		
-		try
+		for( int fieldIndex = 0; fieldIndex < fieldsNum; fieldIndex++ )
 		{
-			if( !cursor.eof() )
+			switch( fieldTypes[fieldIndex] )
 			{
-				jsonRecords = new JSONObject();
-				
-				do
-				{
-					try
-					{
-						JSONObject jsonRecordCurr = new JSONObject();
-						boolean skipExport = false;
-						for( String fieldName : fieldNames )
-						{
-							if( fieldName.equals(primaryKey) )
-								continue;
-							
-							if( excludeList != null )
-							{
-								String fieldRefName = tableName + "." + fieldName;
-								if( excludeList.contains( fieldRefName ) )
-									continue;
-							}
-							
-							SqlJetValueType cursorType = cursor.getFieldType(fieldName);
-							switch( cursorType )
-							{
-								case INTEGER:
-									jsonRecordCurr.put( fieldName, cursor.getInteger(fieldName) );
-									break;
-									
-								case TEXT:
-									jsonRecordCurr.put( fieldName, cursor.getString(fieldName) );
-									break;
-									
-								case FLOAT:
-									String fieldValueString = cursor.getString(fieldName);
-									try
-									{
-										jsonRecordCurr.put( fieldName, Float.valueOf(fieldValueString) );
-									}
-									catch (NumberFormatException e)
-									{
-										addLogText( String.format("Encountered a bad number when exporting record %2$d in table %1$d. Problem field '%3$s' has value %4$s. Skipping record...", tableName, recordIndex, fieldName, fieldValueString) );
-										skipExport = true;
-									}
-									break;
-	
-								case NULL:
-									jsonRecordCurr.put( fieldName, true );
-									break;
-									
-								default:
-									// Ignore the other types...
-									break;
-							}
-						}
-						
-						if( !skipExport )
-						{
-							String recordName = getFieldAsString( cursor, primaryKey );
-							if( recordName == null )
-								recordName = "undef_" + recordIndex;
-							if( jsonRecords.has( recordName ) )
-								recordName += "_dupe_" + recordIndex;
-							
-							jsonRecords.put( recordName, jsonRecordCurr );
-						}
-						
-						recordIndex++;
-					}
-					catch (JSONException e) {
-						addLogText( String.format("Encountered JSON exception while trying to export record %2$d in table %1$d. Skipping record...", tableName, recordIndex) );
-					}
-				}
-				while( cursor.next() );
+				case INTEGER:
+					jsonOut.keyQuoted( fieldNamesJson[fieldIndex] ).value( row.longValues[fieldIndex] );
+					break;
+					
+				case FLOAT:
+					jsonOut.keyQuoted( fieldNamesJson[fieldIndex] ).value( row.doubleValues[fieldIndex] );
+					break;
+					
+				default:
+					// Null strings are left out of the record altogether
+					String fieldValue = row.getString( fieldIndex );
+					if( fieldValue != null )
+						jsonOut.keyQuoted( fieldNamesJson[fieldIndex] ).value( fieldValue );
+					break;
 			}
 		}
-		finally
+	}
+	
+	// Opens a cursor over the table's records in the order of the key field (or rowid if no key field is
+	// given), for comparison against another snapshot of the table. The key field is kept in the records.
+	// Text keys are sorted by the binary collation whatever the column's own collation, so that both
+	// snapshots sort the same way
+	SqliteTableDiff.Cursor openDiffCursor( String keyField, SqliteConverterExportConfig config ) throws SQLException
+	{
+		String keyOrder = (keyField != null) ? SqliteRowFilter.quoteColumn( keyField ) + " collate binary" : "rowid";
+		ResultSet rs = executeQuery( "select rowid, *", null, null, String.format("order by %1$s, rowid", keyOrder) );
+		try
+		{
+			SqliteRecordProjection projection = compileProjection( rs, getFieldExcludeList(config), null, true );
+			int keyColumnIndex = (keyField != null) ? SqliteRecordProjection.findColumn( rs, keyField ) : 1;
+			return( new SqliteTableDiff.Cursor( rs, projection, keyColumnIndex ) );
+		}
+		catch( SQLException e )
 		{
-			cursor.close();
+			rs.close();
+			throw e;
+		}
+	}
+	
+	// Sets up a reader for the records selected by the configuration (and optional rowid range). The result
+	// set is closed along with the reader. Unless the records are filtered, they are read straight from the
+	// database file where possible
+	private SqliteRowReader openRowReader( SqliteConverterExportConfig config, SqliteRowidRange range, String primaryKey, boolean typed ) throws SQLException
+	{
+		if( fileReader != null && config.isFileReads() && config.getRowFilter(tableName) == null )
+		{
+			SqliteRecordProjection projection = compileProjection( null, getFieldExcludeList(config), primaryKey, typed );
+			SqliteFileCursor cursor = fileReader.openCursor( fileRootPage, rowidColumnIndex, realColumns, range );
+			return( new SqliteFileRowReader( cursor, projection, dbConn, tableName ) );
+		}
+		
+		ResultSet rs = selectRecords( range, config.getRowFilter(tableName) );
+		SqliteRecordProjection projection;
+		try
+		{
+			projection = compileProjection( rs, getFieldExcludeList(config), primaryKey, typed );
+		}
+		catch( SQLException e )
+		{
+			rs.close();
+			throw e;
 		}
 		
-		return( jsonRecords );
-		*/
+		return( SqliteRowReader.open( rs, projection, config.isPipelined() ) );
 	}
 	
-	public String getName()
+	// Resolves the exported fields of the table against the query's result set columns (or the table schema's,
+	// if there is no result set). The primary key field (if specified) is read as the record name rather than
+	// as a field. Untyped projections read every field as text
+	private SqliteRecordProjection compileProjection( ResultSet rs, List<String> excludeList, String primaryKey, boolean typed ) throws SQLException
 	{
-		return( tableName );
+		List<String> fieldNames = new ArrayList<String>();
+		List<FieldType> fieldTypes = new ArrayList<FieldType>();
+		int schemaFieldsNum = schema.getFieldsNum();
+		for( int schemaFieldIndex = 0; schemaFieldIndex < schemaFieldsNum; schemaFieldIndex++ )
+		{
+			String fieldName = schema.getFieldName( schemaFieldIndex );
+			
+			if( fieldName.equals(primaryKey) )
+				continue;
+			
+			if( excludeList != null )
+			{
+				String fieldRefName = tableName + "." + fieldName;
+				if( excludeList.contains( fieldRefName ) )
+					continue;
+			}
+			
+			fieldNames.add( fieldName );
+			fieldTypes.add( typed ? schema.getFieldType(schemaFieldIndex) : FieldType.STRING );
+		}
+		
+		if( rs == null )
+			return( new SqliteRecordProjection( fieldNames, fieldTypes, primaryKey, schema ) );
+		
+		return( new SqliteRecordProjection( fieldNames, fieldTypes, primaryKey, rs ) );
 	}
-
-	private void addFieldToJson( JSONObject jsonDest, ResultSet rs, Map.Entry<String, FieldType> fieldInfo ) throws JSONException, SQLException
+	
+	public boolean isExported( SqliteConverterExportConfig config )
+	{
+		return( !config.getExcludeList().contains( tableName ) );
+	}
+	
+	// Returns the field used to key the JSON records, or null if the records are exported as an array
+	public String getPrimaryKey( SqliteConverterExportConfig config )
+	{
+		String primaryKey = config.getTablePrimaryKeys().get( tableName );
+		if( primaryKey != null && schema.getFieldIndex(primaryKey) < 0 )
+			primaryKey = null;
+		
+		return( primaryKey );
+	}
+	
+	// Splits the table's records selected by the configuration into consecutive rowid ranges, each spanning
+	// at most the given number of rowids. Returns null if the records fit within a single range
+	public List<SqliteRowidRange> getRowidRanges( long rangeSpanMax, SqliteConverterExportConfig config ) throws SQLException
+	{
+		long rowidMin;
+		long rowidMax;
+		
+	    ResultSet rs = executeQuery( "select min(rowid), max(rowid)", null, config.getRowFilter(tableName), null );
+	    try
+	    {
+	    	if( !rs.next() )
+	    		return( null );
+	    	
+	    	rowidMin = rs.getLong( 1 );
+	    	if( rs.wasNull() )
+	    		return( null );
+	    	rowidMax = rs.getLong( 2 );
+	    }
+	    finally
+	    {
+	    	rs.close();
+	    }
+	    
+	    if( rangeSpanMax <= 0 || rowidMax - rowidMin < rangeSpanMax )
+	    	return( null );
+	    
+	    List<SqliteRowidRange> ranges = new ArrayList<SqliteRowidRange>();
+	    for( long rangeFirst = rowidMin; rangeFirst <= rowidMax; rangeFirst += rangeSpanMax )
+	    {
+	    	long rangeLast = (rowidMax - rangeFirst < rangeSpanMax) ? rowidMax : rangeFirst + rangeSpanMax - 1;
+	    	ranges.add( new SqliteRowidRange( rangeFirst, rangeLast ) );
+	    	if( rangeLast == rowidMax )
+	    		break;
+	    }
+	    
+	    return( ranges );
+	}
+	
+	// Returns the highest value of the given column (or rowid) across the table, or null if the table is empty.
+	// Used as the high-water mark of incremental exports
+	public Object getWatermark( String column ) throws SQLException
 	{
-		String fieldName = fieldInfo.getKey();
-		switch( fieldInfo.getValue() )
+		Statement dbStat = dbConn.createStatement();
+	    ResultSet rs = dbStat.executeQuery( String.format("select max(%1$s) from '%2$s';", SqliteRowFilter.quoteColumn(column), tableName) );
+	    try
+	    {
+	    	if( !rs.next() )
+	    		return( null );
+	    	
+	    	Object watermark = rs.getObject( 1 );
+	    	if( watermark instanceof Integer )
+	    		watermark = Long.valueOf( ((Integer) watermark).longValue() );
+	    	return( watermark );
+	    }
+	    finally
+	    {
+	    	rs.close();
+	    }
+	}
+	
+	// Selects the table records in rowid order, optionally restricted to a rowid range and/or row filter
+	private ResultSet selectRecords( SqliteRowidRange range, SqliteRowFilter filter ) throws SQLException
+	{
+		return( executeQuery( "select *", range, filter, null ) );
+	}
+	
+	private ResultSet executeQuery( String selectClause, SqliteRowidRange range, SqliteRowFilter filter, String orderClause ) throws SQLException
+	{
+		String query = String.format( "%1$s from '%2$s'", selectClause, tableName );
+		
+		List<String> conditions = new ArrayList<String>();
+		if( range != null )
+			conditions.add( String.format("rowid >= %1$d and rowid <= %2$d", range.getFirst(), range.getLast()) );
+		if( filter != null )
+			conditions.add( filter.getCondition() );
+		for( int conditionIndex = 0; conditionIndex < conditions.size(); conditionIndex++ )
+			query += (conditionIndex == 0 ? " where " : " and ") + conditions.get( conditionIndex );
+		if( orderClause != null )
+			query += " " + orderClause;
+		
+		if( filter == null )
 		{
-			case INTEGER:
-				jsonDest.put( fieldName, rs.getLong( fieldName ) );
-				break;
-				
-			case FLOAT:
-				jsonDest.put( fieldName, rs.getDouble(fieldName) );
-				break;
-				
-			default:
-				jsonDest.put( fieldName, rs.getString( fieldName ) );
-				break;
+			Statement dbStat = dbConn.createStatement();
+			return( dbStat.executeQuery( query + ";" ) );
 		}
+		
+		PreparedStatement dbStat = dbConn.prepareStatement( query + ";" );
+		filter.bind( dbStat, 1 );
+		return( dbStat.executeQuery() );
 	}
 	
+	private List<String> getFieldExcludeList( SqliteConverterExportConfig config )
+	{
+		List<String> excludeList = config.getExcludeList();
+		if( excludeList.size() == 0 )
+			return( null );
+		
+		return( excludeList );
+	}
+	
+	public String getName()
+	{
+		return( tableName );
+	}
+
 	private FieldType fieldTypeStringToFieldType( String ident )
 	{
 		if( ident.equals("INTEGER") || ident.equals("NUMERIC") )
@@ -378,6 +734,17 @@ public class SqliteTableHandler
 		
 		return( FieldType.STRING );
 	}
+	
+	// Works out whether a column declared with the given type has REAL affinity, by SQLite's rules: the
+	// type names it, and does not name an INTEGER, TEXT or NONE affinity first
+	private static boolean isRealAffinity( String declaredType )
+	{
+		String type = (declaredType != null) ? declaredType.toUpperCase( Locale.ENGLISH ) : "";
+		if( type.contains("INT") || type.contains("CHAR") || type.contains("CLOB") || type.contains("TEXT") || type.contains("BLOB") )
+			return( false );
+		
+		return( type.contains("REAL") || type.contains("FLOA") || type.contains("DOUB") );
+	}
 
 	private void addLogText( String logText )
 	{
@@ -0,0 +1,50 @@
+/* 
+ * SQLite Table Schema
+ *
+ * Copyright 2011 Wappworks Studios
+ */
+package com.wappworks.app.sqlite;
+
+import java.util.List;
+
+import com.wappworks.app.sqlite.SqliteTableHandler.FieldType;
+
+// The fields of a table in schema (column id) order, so that exports always list fields in the same order
+class SqliteTableSchema
+{
+	private String[]	fieldNames;
+	private FieldType[]	fieldTypes;
+	
+	SqliteTableSchema( List<String> inFieldNames, List<FieldType> inFieldTypes )
+	{
+		fieldNames = inFieldNames.toArray( new String[inFieldNames.size()] );
+		fieldTypes = inFieldTypes.toArray( new FieldType[inFieldTypes.size()] );
+	}
+	
+	int getFieldsNum()
+	{
+		return( fieldNames.length );
+	}
+	
+	String getFieldName( int fieldIndex )
+	{
+		return( fieldNames[fieldIndex] );
+	}
+	
+	FieldType getFieldType( int fieldIndex )
+	{
+		return( fieldTypes[fieldIndex] );
+	}
+	
+	// Returns the schema position of the named field, or -1 if the table has no such field
+	int getFieldIndex( String fieldName )
+	{
+		for( int fieldIndex = 0; fieldIndex < fieldNames.length; fieldIndex++ )
+		{
+			if( fieldNames[fieldIndex].equals( fieldName ) )
+				return( fieldIndex );
+		}
+		
+		return( -1 );
+	}
+}
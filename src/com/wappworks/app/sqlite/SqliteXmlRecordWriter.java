@@ -0,0 +1,152 @@
+/*
+ * SQLite XML Record Writer
+ *
+ * Copyright 2011 Wappworks Studios
+ */
+package com.wappworks.app.sqlite;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import com.wappworks.common.util.NumberChars;
+
+// Writes table records as XML. The record and field tags (including their indentation) are prepared once
+// per table and the output is assembled in a reusable character buffer, so writing a record involves no
+// string formatting
+class SqliteXmlRecordWriter
+{
+	private static final int	BUFFER_SIZE = 16 * 1024;
+
+	private static final char[]	VALUE_NULL = "null".toCharArray();
+	private static final char[]	ESCAPE_AMP = "&amp;".toCharArray();
+	private static final char[]	ESCAPE_LT = "&lt;".toCharArray();
+	private static final char[]	ESCAPE_GT = "&gt;".toCharArray();
+
+	private Writer		writer;
+	private char[]		buffer;
+	private int			bufferPos;
+
+	private char[]		recordOpenTag;
+	private char[]		recordCloseTag;
+	private char[][]	fieldOpenTags;
+	private char[][]	fieldCloseTags;
+
+	SqliteXmlRecordWriter( Writer inWriter, String indent, String recordName, String[] fieldNames )
+	{
+		writer = inWriter;
+		buffer = new char[ BUFFER_SIZE ];
+		bufferPos = 0;
+
+		recordOpenTag = (indent + "<" + recordName + ">\n").toCharArray();
+		recordCloseTag = (indent + "</" + recordName + ">\n").toCharArray();
+
+		fieldOpenTags = new char[ fieldNames.length ][];
+		fieldCloseTags = new char[ fieldNames.length ][];
+		for( int fieldIndex = 0; fieldIndex < fieldNames.length; fieldIndex++ )
+		{
+			fieldOpenTags[ fieldIndex ] = (indent + "\t<" + fieldNames[fieldIndex] + ">").toCharArray();
+			fieldCloseTags[ fieldIndex ] = ("</" + fieldNames[fieldIndex] + ">\n").toCharArray();
+		}
+	}
+
+	void beginRecord() throws IOException
+	{
+		append( recordOpenTag );
+	}
+
+	void endRecord() throws IOException
+	{
+		append( recordCloseTag );
+	}
+
+	void writeField( int fieldIndex, String value ) throws IOException
+	{
+		append( fieldOpenTags[fieldIndex] );
+		if( value == null )
+			append( VALUE_NULL );
+		else
+			appendEscaped( value );
+		append( fieldCloseTags[fieldIndex] );
+	}
+
+	// Writes an integer value, formatting its digits straight into the buffer
+	void writeField( int fieldIndex, long value ) throws IOException
+	{
+		append( fieldOpenTags[fieldIndex] );
+		if( bufferPos + NumberChars.LONG_CHARS_MAX > buffer.length )
+			flush();
+		bufferPos = NumberChars.formatLong( value, buffer, bufferPos );
+		append( fieldCloseTags[fieldIndex] );
+	}
+
+	// Carries on writing to another writer, as when the output is split across files. Any buffered output
+	// must be flushed first
+	void setWriter( Writer inWriter )
+	{
+		writer = inWriter;
+	}
+
+	// Hands any buffered output over to the destination writer
+	void flush() throws IOException
+	{
+		if( bufferPos <= 0 )
+			return;
+
+		writer.write( buffer, 0, bufferPos );
+		bufferPos = 0;
+	}
+
+	private void append( char[] chars ) throws IOException
+	{
+		if( bufferPos + chars.length > buffer.length )
+		{
+			flush();
+			if( chars.length > buffer.length )
+			{
+				writer.write( chars );
+				return;
+			}
+		}
+
+		System.arraycopy( chars, 0, buffer, bufferPos, chars.length );
+		bufferPos += chars.length;
+	}
+
+	// Copies the value across in runs, only breaking a run for the characters that need escaping
+	private void appendEscaped( String value ) throws IOException
+	{
+		int valueLength = value.length();
+		int runStart = 0;
+		for( int charIndex = 0; charIndex < valueLength; charIndex++ )
+		{
+			char[] escape;
+			switch( value.charAt(charIndex) )
+			{
+				case '&':	escape = ESCAPE_AMP;	break;
+				case '<':	escape = ESCAPE_LT;		break;
+				case '>':	escape = ESCAPE_GT;		break;
+				default:	continue;
+			}
+
+			appendRun( value, runStart, charIndex );
+			append( escape );
+			runStart = charIndex + 1;
+		}
+
+		appendRun( value, runStart, valueLength );
+	}
+
+	private void appendRun( String value, int start, int end ) throws IOException
+	{
+		while( start < end )
+		{
+			if( bufferPos >= buffer.length )
+				flush();
+
+			int copyLength = Math.min( end - start, buffer.length - bufferPos );
+			value.getChars( start, start + copyLength, buffer, bufferPos );
+			bufferPos += copyLength;
+			start += copyLength;
+		}
+	}
+}
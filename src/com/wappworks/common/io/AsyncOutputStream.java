@@ -0,0 +1,207 @@
+/* 
+ * Background thread output stream
+ *
+ * Copyright 2011 Wappworks Studios
+ */
+package com.wappworks.common.io;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// Hands the data written to it over to a background thread which writes it to the destination stream. Used
+// in front of a compressing stream, it lets the compression run alongside the work producing the data. The
+// data is passed over in a fixed set of recycled blocks, so a producer outpacing the destination stream
+// blocks rather than queuing up unbounded amounts of memory. A write failure on the background thread is
+// reported by the next write, flush or close call
+public class AsyncOutputStream extends OutputStream
+{
+	private static final int	BLOCK_SIZE_DEFAULT = 64 * 1024;
+	private static final int	BLOCKS_NUM_DEFAULT = 4;
+	
+	private static class Block
+	{
+		byte[]	data;
+		int		length = 0;
+		
+		Block( int size )
+		{
+			data = new byte[ size ];
+		}
+	}
+	
+	// Queued after the last block to stop the background thread
+	private static final Block	END_OF_STREAM = new Block( 0 );
+	
+	private OutputStream			out;
+	private BlockingQueue<Block>	freeBlocks;
+	private BlockingQueue<Block>	filledBlocks;
+	private Block					currBlock = null;
+	private Thread					writerThread;
+	private volatile IOException	writeError = null;
+	private boolean					closed = false;
+	
+	public AsyncOutputStream( OutputStream inOut )
+	{
+		this( inOut, BLOCK_SIZE_DEFAULT, BLOCKS_NUM_DEFAULT );
+	}
+	
+	public AsyncOutputStream( OutputStream inOut, int blockSize, int blocksNum )
+	{
+		out = inOut;
+		freeBlocks = new ArrayBlockingQueue<Block>( blocksNum );
+		filledBlocks = new ArrayBlockingQueue<Block>( blocksNum + 1 );
+		for( int blockIndex = 0; blockIndex < blocksNum; blockIndex++ )
+			freeBlocks.add( new Block(blockSize) );
+		
+		writerThread = new Thread( new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				writeBlocks();
+			}
+		}, "AsyncOutputStream writer" );
+		writerThread.setDaemon( true );
+		writerThread.start();
+	}
+	
+	@Override
+	public void write( int value ) throws IOException
+	{
+		Block block = getBlock();
+		block.data[ block.length++ ] = (byte) value;
+		if( block.length >= block.data.length )
+			handOffBlock();
+	}
+	
+	@Override
+	public void write( byte[] data, int offset, int length ) throws IOException
+	{
+		while( length > 0 )
+		{
+			Block block = getBlock();
+			int copyLength = Math.min( length, block.data.length - block.length );
+			System.arraycopy( data, offset, block.data, block.length, copyLength );
+			block.length += copyLength;
+			offset += copyLength;
+			length -= copyLength;
+			
+			if( block.length >= block.data.length )
+				handOffBlock();
+		}
+	}
+	
+	// Passes any partially filled block on to the background thread. The destination stream itself is only
+	// flushed when the stream is closed, since flushing a compressing stream costs compression
+	@Override
+	public void flush() throws IOException
+	{
+		checkWriteError();
+		if( currBlock != null && currBlock.length > 0 )
+			handOffBlock();
+	}
+	
+	// Waits for the background thread to write out everything queued, then closes the destination stream
+	@Override
+	public void close() throws IOException
+	{
+		if( closed )
+			return;
+		closed = true;
+		
+		try
+		{
+			if( currBlock != null && currBlock.length > 0 )
+				filledBlocks.put( currBlock );
+			currBlock = null;
+			
+			filledBlocks.put( END_OF_STREAM );
+			writerThread.join();
+		}
+		catch( InterruptedException e )
+		{
+			writerThread.interrupt();
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException( "Interrupted waiting for queued output to be written" );
+		}
+		finally
+		{
+			out.close();
+		}
+		
+		checkWriteError();
+	}
+	
+	private Block getBlock() throws IOException
+	{
+		if( currBlock != null )
+			return( currBlock );
+		
+		checkWriteError();
+		try
+		{
+			currBlock = freeBlocks.take();
+		}
+		catch( InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException( "Interrupted waiting for an output block" );
+		}
+		
+		currBlock.length = 0;
+		return( currBlock );
+	}
+	
+	private void handOffBlock() throws IOException
+	{
+		try
+		{
+			filledBlocks.put( currBlock );
+			currBlock = null;
+		}
+		catch( InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException( "Interrupted queuing an output block" );
+		}
+	}
+	
+	private void checkWriteError() throws IOException
+	{
+		if( writeError != null )
+			throw new IOException( "Background output write failed", writeError );
+	}
+	
+	// Runs on the background thread. Blocks are always recycled, even after a failure, so the producer
+	// never stalls waiting for one
+	private void writeBlocks()
+	{
+		try
+		{
+			Block block;
+			while( (block = filledBlocks.take()) != END_OF_STREAM )
+			{
+				if( writeError == null )
+				{
+					try
+					{
+						out.write( block.data, 0, block.length );
+					}
+					catch( IOException e )
+					{
+						writeError = e;
+					}
+				}
+				
+				freeBlocks.put( block );
+			}
+		}
+		catch( InterruptedException e )
+		{
+			writeError = new InterruptedIOException( "Background output writer interrupted" );
+		}
+	}
+}
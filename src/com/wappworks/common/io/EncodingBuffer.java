@@ -0,0 +1,164 @@
+/* 
+ * Binary encoding buffer
+ *
+ * Copyright 2011 Wappworks Studios
+ */
+package com.wappworks.common.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+// A growable byte buffer with the primitive encodings used by binary file formats: little-endian fixed
+// width values, unsigned LEB128 varints, zigzag encoded signed varints and bit-packed integers
+public class EncodingBuffer
+{
+	private static final int	CAPACITY_INITIAL = 4 * 1024;
+	
+	private byte[]	bytes;
+	private int		length;
+	
+	// Bit-packing state: the bits not yet making up a whole byte
+	private long	bitsPending;
+	private int		bitsPendingNum;
+	
+	public EncodingBuffer()
+	{
+		bytes = new byte[ CAPACITY_INITIAL ];
+		length = 0;
+		bitsPending = 0;
+		bitsPendingNum = 0;
+	}
+	
+	public int length()
+	{
+		return( length );
+	}
+	
+	public void clear()
+	{
+		length = 0;
+		bitsPending = 0;
+		bitsPendingNum = 0;
+	}
+	
+	public void writeTo( OutputStream out ) throws IOException
+	{
+		out.write( bytes, 0, length );
+	}
+	
+	public void writeByte( int value )
+	{
+		ensureCapacity( 1 );
+		bytes[ length++ ] = (byte) value;
+	}
+	
+	public void writeBytes( byte[] values )
+	{
+		writeBytes( values, 0, values.length );
+	}
+	
+	public void writeBytes( byte[] values, int offset, int valuesLength )
+	{
+		ensureCapacity( valuesLength );
+		System.arraycopy( values, offset, bytes, length, valuesLength );
+		length += valuesLength;
+	}
+	
+	public void writeBuffer( EncodingBuffer buffer )
+	{
+		writeBytes( buffer.bytes, 0, buffer.length );
+	}
+	
+	public void writeIntLE( int value )
+	{
+		ensureCapacity( 4 );
+		for( int byteIndex = 0; byteIndex < 4; byteIndex++ )
+			bytes[ length++ ] = (byte) (value >>> (byteIndex * 8));
+	}
+	
+	public void writeLongLE( long value )
+	{
+		ensureCapacity( 8 );
+		for( int byteIndex = 0; byteIndex < 8; byteIndex++ )
+			bytes[ length++ ] = (byte) (value >>> (byteIndex * 8));
+	}
+	
+	public void writeDoubleLE( double value )
+	{
+		writeLongLE( Double.doubleToRawLongBits(value) );
+	}
+	
+	// Unsigned LEB128: 7 bits per byte, least significant group first, high bit set on all but the last byte
+	public void writeVarint( long value )
+	{
+		ensureCapacity( 10 );
+		while( (value & ~0x7FL) != 0 )
+		{
+			bytes[ length++ ] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		bytes[ length++ ] = (byte) value;
+	}
+	
+	// Zigzag encoding maps signed values onto unsigned ones (0, -1, 1, -2, ... to 0, 1, 2, 3, ...) so
+	// values of small magnitude stay short whatever their sign
+	public void writeZigzag( long value )
+	{
+		writeVarint( zigzag(value) );
+	}
+	
+	public static long zigzag( long value )
+	{
+		return( (value << 1) ^ (value >> 63) );
+	}
+	
+	// Appends the low bits of the value to the bit stream, least significant bit first. Call endBits() to
+	// pad the stream out to a whole byte
+	public void writeBits( long value, int bitsNum )
+	{
+		if( bitsNum <= 0 )
+			return;
+		
+		// Split wide values so the pending bits never exceed 64
+		if( bitsNum > 56 )
+		{
+			writeBits( value, 32 );
+			writeBits( value >>> 32, bitsNum - 32 );
+			return;
+		}
+		
+		bitsPending |= (value & ((1L << bitsNum) - 1)) << bitsPendingNum;
+		bitsPendingNum += bitsNum;
+		ensureCapacity( 8 );
+		while( bitsPendingNum >= 8 )
+		{
+			bytes[ length++ ] = (byte) bitsPending;
+			bitsPending >>>= 8;
+			bitsPendingNum -= 8;
+		}
+	}
+	
+	public void endBits()
+	{
+		if( bitsPendingNum > 0 )
+			writeByte( (int) bitsPending );
+		bitsPending = 0;
+		bitsPendingNum = 0;
+	}
+	
+	// The number of bits needed to hold the unsigned value
+	public static int getBitWidth( long value )
+	{
+		return( 64 - Long.numberOfLeadingZeros(value) );
+	}
+	
+	private void ensureCapacity( int extraLength )
+	{
+		if( length + extraLength <= bytes.length )
+			return;
+		
+		byte[] newBytes = new byte[ Math.max(bytes.length * 2, length + extraLength) ];
+		System.arraycopy( bytes, 0, newBytes, 0, length );
+		bytes = newBytes;
+	}
+}
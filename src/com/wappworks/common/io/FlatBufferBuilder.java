@@ -0,0 +1,253 @@
+/* 
+ * FlatBuffers builder
+ *
+ * Copyright 2011 Wappworks Studios
+ */
+package com.wappworks.common.io;
+
+import java.io.UnsupportedEncodingException;
+
+// A minimal FlatBuffers builder, enough to encode the metadata of binary formats such as Arrow IPC without
+// the FlatBuffers library. As with the library, the buffer is built back to front: each object is written
+// before the objects referring to it, and is referred to by its offset from the end of the buffer (as
+// returned when it is written). Every table field must be added between startTable() and endTable()
+public class FlatBufferBuilder
+{
+	private static final int	CAPACITY_INITIAL = 1024;
+	private static final String	STRING_CHARSET = "UTF-8";
+	
+	private byte[]	bytes;
+	private int		space;
+	private int		alignMin;
+	
+	// The table being built: the offsets of its fields by slot, and the offset it starts at
+	private int[]	vtable = null;
+	private int		tableStart;
+	
+	// The vector being built: its element count
+	private int		vectorLength;
+	
+	public FlatBufferBuilder()
+	{
+		bytes = new byte[ CAPACITY_INITIAL ];
+		space = bytes.length;
+		alignMin = 1;
+	}
+	
+	// The number of bytes written so far, which is also the offset of the last object written
+	public int offset()
+	{
+		return( bytes.length - space );
+	}
+	
+	public void startTable( int fieldsNum )
+	{
+		if( vtable != null )
+			throw new IllegalStateException( "FlatBuffers tables cannot be nested" );
+		
+		vtable = new int[ fieldsNum ];
+		tableStart = offset();
+	}
+	
+	public void addBoolean( int slot, boolean value )
+	{
+		prep( 1, 0 );
+		putByte( value ? 1 : 0 );
+		vtable[ slot ] = offset();
+	}
+	
+	public void addByte( int slot, int value )
+	{
+		prep( 1, 0 );
+		putByte( value );
+		vtable[ slot ] = offset();
+	}
+	
+	public void addShort( int slot, int value )
+	{
+		prep( 2, 0 );
+		putShort( value );
+		vtable[ slot ] = offset();
+	}
+	
+	public void addInt( int slot, int value )
+	{
+		prep( 4, 0 );
+		putInt( value );
+		vtable[ slot ] = offset();
+	}
+	
+	public void addLong( int slot, long value )
+	{
+		prep( 8, 0 );
+		putLong( value );
+		vtable[ slot ] = offset();
+	}
+	
+	// Adds a reference to a table, string or vector written earlier
+	public void addOffset( int slot, int objectOffset )
+	{
+		addOffset( objectOffset );
+		vtable[ slot ] = offset();
+	}
+	
+	// Writes the table's vtable (the fields left out take their default values) and returns the table's offset
+	public int endTable()
+	{
+		prep( 4, 0 );
+		putInt( 0 );
+		int tableOffset = offset();
+		
+		for( int slot = vtable.length - 1; slot >= 0; slot-- )
+			putShortAligned( vtable[slot] != 0 ? tableOffset - vtable[slot] : 0 );
+		putShortAligned( tableOffset - tableStart );
+		putShortAligned( (vtable.length + 2) * 2 );
+		
+		// The table starts with the signed distance back to its vtable
+		setInt( bytes.length - tableOffset, offset() - tableOffset );
+		vtable = null;
+		return( tableOffset );
+	}
+	
+	public int createString( String value )
+	{
+		byte[] valueBytes;
+		try
+		{
+			valueBytes = value.getBytes( STRING_CHARSET );
+		}
+		catch( UnsupportedEncodingException e )
+		{
+			throw new IllegalStateException( e.getMessage() );
+		}
+		
+		prep( 4, valueBytes.length + 1 );
+		putByte( 0 );
+		space -= valueBytes.length;
+		System.arraycopy( valueBytes, 0, bytes, space, valueBytes.length );
+		putInt( valueBytes.length );
+		return( offset() );
+	}
+	
+	// Vectors are written back to front too: start the vector, add the elements from last to first, then end it
+	public void startVector( int elementSize, int elementsNum, int alignment )
+	{
+		prep( 4, elementSize * elementsNum );
+		prep( alignment, elementSize * elementsNum );
+		vectorLength = elementsNum;
+	}
+	
+	public void addOffset( int objectOffset )
+	{
+		prep( 4, 0 );
+		putInt( offset() - objectOffset + 4 );
+	}
+	
+	// Structs are written field by field, from last to first, after aligning for the whole struct
+	public void startStruct( int structSize, int alignment )
+	{
+		prep( alignment, structSize );
+	}
+	
+	public void putStructInt( int value )
+	{
+		putInt( value );
+	}
+	
+	public void putStructLong( long value )
+	{
+		putLong( value );
+	}
+	
+	public void putStructPadding( int paddingLength )
+	{
+		for( int padIndex = 0; padIndex < paddingLength; padIndex++ )
+			putByte( 0 );
+	}
+	
+	public int endVector()
+	{
+		putInt( vectorLength );
+		return( offset() );
+	}
+	
+	// Writes the reference to the root table. The finished buffer is returned by toByteArray()
+	public void finish( int rootOffset )
+	{
+		prep( alignMin, 4 );
+		addOffset( rootOffset );
+	}
+	
+	public byte[] toByteArray()
+	{
+		byte[] finished = new byte[ offset() ];
+		System.arraycopy( bytes, space, finished, 0, finished.length );
+		return( finished );
+	}
+	
+	// Pads the buffer so that, once the given number of bytes have been written, it is aligned to the size
+	private void prep( int size, int additionalBytes )
+	{
+		alignMin = Math.max( alignMin, size );
+		int paddingLength = (-(offset() + additionalBytes)) & (size - 1);
+		ensureSpace( paddingLength + size + additionalBytes );
+		for( int padIndex = 0; padIndex < paddingLength; padIndex++ )
+			bytes[ --space ] = 0;
+	}
+	
+	private void putShortAligned( int value )
+	{
+		prep( 2, 0 );
+		putShort( value );
+	}
+	
+	private void putByte( int value )
+	{
+		ensureSpace( 1 );
+		bytes[ --space ] = (byte) value;
+	}
+	
+	private void putShort( int value )
+	{
+		ensureSpace( 2 );
+		space -= 2;
+		bytes[ space ] = (byte) value;
+		bytes[ space + 1 ] = (byte) (value >> 8);
+	}
+	
+	private void putInt( int value )
+	{
+		ensureSpace( 4 );
+		space -= 4;
+		setInt( space, value );
+	}
+	
+	private void putLong( long value )
+	{
+		ensureSpace( 8 );
+		space -= 8;
+		setInt( space, (int) value );
+		setInt( space + 4, (int) (value >>> 32) );
+	}
+	
+	private void setInt( int position, int value )
+	{
+		bytes[ position ] = (byte) value;
+		bytes[ position + 1 ] = (byte) (value >> 8);
+		bytes[ position + 2 ] = (byte) (value >> 16);
+		bytes[ position + 3 ] = (byte) (value >> 24);
+	}
+	
+	// The buffer grows at the front, keeping the bytes written so far at its end
+	private void ensureSpace( int extraLength )
+	{
+		if( space >= extraLength )
+			return;
+		
+		int usedLength = offset();
+		byte[] newBytes = new byte[ Math.max(bytes.length * 2, usedLength + extraLength) ];
+		System.arraycopy( bytes, space, newBytes, newBytes.length - usedLength, usedLength );
+		space = newBytes.length - usedLength;
+		bytes = newBytes;
+	}
+}
@@ -0,0 +1,34 @@
+/* 
+ * GZIP output compression codec
+ *
+ * Copyright 2011 Wappworks Studios
+ */
+package com.wappworks.common.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+public class GzipOutputCodec implements OutputCodec
+{
+	private static final int	BUFFER_SIZE = 64 * 1024;
+	
+	@Override
+	public String getName()
+	{
+		return( "gzip" );
+	}
+
+	@Override
+	public OutputStream wrap( OutputStream out, final int level ) throws IOException
+	{
+		return( new GZIPOutputStream( out, BUFFER_SIZE )
+		{
+			{
+				if( level != LEVEL_DEFAULT )
+					def.setLevel( Math.max(Deflater.BEST_SPEED, Math.min(level, Deflater.BEST_COMPRESSION)) );
+			}
+		});
+	}
+}
@@ -0,0 +1,23 @@
+/* 
+ * Output compression codec
+ *
+ * Copyright 2011 Wappworks Studios
+ */
+package com.wappworks.common.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+// A compression format that output streams can be encoded with. Codecs are looked up by name through OutputCodecs
+public interface OutputCodec
+{
+	// Lets the codec pick its own balance between speed and size
+	public static final int LEVEL_DEFAULT = -1;
+	
+	public String getName();
+	
+	// Wraps the stream so everything written to it is compressed. Levels range from 1 (fastest) to 9
+	// (smallest); codecs map them onto their own scale. Closing the returned stream completes the compressed
+	// data and closes the wrapped stream
+	public OutputStream wrap( OutputStream out, int level ) throws IOException;
+}
@@ -0,0 +1,31 @@
+/* 
+ * Output compression codec registry
+ *
+ * Copyright 2011 Wappworks Studios
+ */
+package com.wappworks.common.io;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class OutputCodecs
+{
+	private static Map<String, OutputCodec> codecs = new ConcurrentHashMap<String, OutputCodec>();
+	
+	static
+	{
+		register( new GzipOutputCodec() );
+	}
+	
+	// Makes a codec available by name. A codec registered under an existing name replaces it
+	public static void register( OutputCodec codec )
+	{
+		codecs.put( codec.getName().toLowerCase(), codec );
+	}
+	
+	// Returns the codec with the given name (case insensitive), or null if there is none
+	public static OutputCodec get( String name )
+	{
+		return( codecs.get( name.toLowerCase() ) );
+	}
+}
@@ -0,0 +1,180 @@
+/* 
+ * UTF-8 channel writer
+ *
+ * Copyright 2011 Wappworks Studios
+ */
+package com.wappworks.common.io;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+// Writes text to a channel as UTF-8. Characters are encoded straight into a direct byte buffer, which is
+// handed to the channel whole once it fills up. Runs of ASCII characters (the bulk of any export) are
+// copied across a byte per character without going through the general encoding. As with the JDK encoder,
+// unpaired surrogates are written as '?'
+public class Utf8ChannelWriter extends Writer
+{
+	public static final int		BUFFER_SIZE_MIN = 4 * 1024;
+	
+	private static final int	CHAR_BYTES_MAX = 4;
+	private static final int	SCRATCH_SIZE = 4 * 1024;
+	
+	private WritableByteChannel	channel;
+	private ByteBuffer			buffer;
+	private char[]				scratch = null;
+	private char				highSurrogate = 0;
+	private boolean				closed = false;
+	private long				bytesDrained = 0;
+	
+	public Utf8ChannelWriter( WritableByteChannel inChannel, int bufferSize )
+	{
+		channel = inChannel;
+		buffer = ByteBuffer.allocateDirect( Math.max(bufferSize, BUFFER_SIZE_MIN) );
+	}
+	
+	@Override
+	public void write( int value ) throws IOException
+	{
+		if( buffer.remaining() < CHAR_BYTES_MAX )
+			drain();
+		encodeChar( (char) value );
+	}
+	
+	@Override
+	public void write( char[] chars, int offset, int length ) throws IOException
+	{
+		int end = offset + length;
+		while( offset < end )
+		{
+			if( buffer.remaining() < CHAR_BYTES_MAX )
+				drain();
+			
+			char currChar = chars[ offset ];
+			if( currChar >= 0x80 || highSurrogate != 0 )
+			{
+				encodeChar( currChar );
+				offset++;
+				continue;
+			}
+			
+			// Copy across as much of the ASCII run as fits
+			int runEnd = Math.min( end, offset + buffer.remaining() );
+			do
+			{
+				buffer.put( (byte) currChar );
+				offset++;
+			}
+			while( offset < runEnd && (currChar = chars[offset]) < 0x80 );
+		}
+	}
+	
+	@Override
+	public void write( String str, int offset, int length ) throws IOException
+	{
+		if( scratch == null )
+			scratch = new char[ SCRATCH_SIZE ];
+		
+		int end = offset + length;
+		while( offset < end )
+		{
+			int copyLength = Math.min( end - offset, SCRATCH_SIZE );
+			str.getChars( offset, offset + copyLength, scratch, 0 );
+			write( scratch, 0, copyLength );
+			offset += copyLength;
+		}
+	}
+	
+	// Hands the buffered bytes to the channel. A high surrogate still waiting for its pair stays pending
+	@Override
+	public void flush() throws IOException
+	{
+		drain();
+	}
+	
+	// The number of bytes encoded so far, including those still buffered
+	public long getBytesWritten()
+	{
+		return( bytesDrained + buffer.position() );
+	}
+	
+	@Override
+	public void close() throws IOException
+	{
+		if( closed )
+			return;
+		closed = true;
+		
+		try
+		{
+			if( highSurrogate != 0 )
+			{
+				highSurrogate = 0;
+				if( !buffer.hasRemaining() )
+					drain();
+				buffer.put( (byte) '?' );
+			}
+			drain();
+		}
+		finally
+		{
+			channel.close();
+		}
+	}
+	
+	// Encodes a single character. The buffer must have room for at least CHAR_BYTES_MAX bytes
+	private void encodeChar( char currChar )
+	{
+		if( highSurrogate != 0 )
+		{
+			char pendingSurrogate = highSurrogate;
+			highSurrogate = 0;
+			if( Character.isLowSurrogate(currChar) )
+			{
+				int codePoint = Character.toCodePoint( pendingSurrogate, currChar );
+				buffer.put( (byte) (0xF0 | (codePoint >> 18)) );
+				buffer.put( (byte) (0x80 | ((codePoint >> 12) & 0x3F)) );
+				buffer.put( (byte) (0x80 | ((codePoint >> 6) & 0x3F)) );
+				buffer.put( (byte) (0x80 | (codePoint & 0x3F)) );
+				return;
+			}
+			
+			// The high surrogate was unpaired. The current character takes at most the 3 bytes left
+			buffer.put( (byte) '?' );
+		}
+		
+		if( currChar < 0x80 )
+		{
+			buffer.put( (byte) currChar );
+		}
+		else if( currChar < 0x800 )
+		{
+			buffer.put( (byte) (0xC0 | (currChar >> 6)) );
+			buffer.put( (byte) (0x80 | (currChar & 0x3F)) );
+		}
+		else if( Character.isHighSurrogate(currChar) )
+		{
+			highSurrogate = currChar;
+		}
+		else if( Character.isLowSurrogate(currChar) )
+		{
+			buffer.put( (byte) '?' );
+		}
+		else
+		{
+			buffer.put( (byte) (0xE0 | (currChar >> 12)) );
+			buffer.put( (byte) (0x80 | ((currChar >> 6) & 0x3F)) );
+			buffer.put( (byte) (0x80 | (currChar & 0x3F)) );
+		}
+	}
+	
+	private void drain() throws IOException
+	{
+		buffer.flip();
+		bytesDrained += buffer.remaining();
+		while( buffer.hasRemaining() )
+			channel.write( buffer );
+		buffer.clear();
+	}
+}
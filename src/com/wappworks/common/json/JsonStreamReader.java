@@ -0,0 +1,566 @@
+/*
+ * Streaming JSON reader
+ *
+ * Copyright 2011 Wappworks Studios
+ */
+package com.wappworks.common.json;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+// Reads JSON text a token at a time, so a document of any size is parsed in a single pass without first
+// being read into a string. The text is read through a fixed buffer and each token is gathered into a
+// buffer that is reused from one token to the next. The same relaxed syntax as JSONTokener is accepted:
+// unquoted and single quoted strings, '=' or '=>' after keys, ';' between members, trailing separators,
+// left out array elements (read as null) and '(...)' arrays. Any text after the top level value is ignored
+public class JsonStreamReader
+{
+	public enum Token
+	{
+		BEGIN_OBJECT,
+		END_OBJECT,
+		BEGIN_ARRAY,
+		END_ARRAY,
+		KEY,
+		STRING,
+		NUMBER,
+		BOOLEAN,
+		NULL,
+		END_DOCUMENT
+	};
+
+	private static final int	READ_BUFFER_SIZE = 16 * 1024;
+	private static final int	TOKEN_SIZE_INITIAL = 256;
+	private static final int	DEPTH_INITIAL = 16;
+	private static final String	UNQUOTED_TERMINATORS = ",:]}/\\\"[{;=#";
+
+	// What each open container expects next
+	private static final int	STATE_FIRST = 0;		// Its first member, or its end
+	private static final int	STATE_MEMBER = 1;		// A member following a separator, or its end
+	private static final int	STATE_VALUE = 2;		// The value following an object member's key
+	private static final int	STATE_SEPARATOR = 3;	// A separator following a member, or its end
+
+	private Reader			reader = null;
+	private ByteBuffer		byteSource = null;
+	private CharsetDecoder	decoder = null;
+	private char[]			readBuffer;
+	private int				readPosition;
+	private int				readLength;
+	private boolean			readEnded;
+
+	// The offset of the read buffer within the text, along with the number of lines before it and the offset
+	// of the line it starts in. Only used to report where syntax errors are
+	private long			readOffset;
+	private long			readLines;
+	private long			readLineOffset;
+
+	private Token			token;
+	private char[]			tokenChars;
+	private int				tokenLength;
+	private Object			tokenValue;
+
+	private boolean			started;
+	private int				depth;
+	private char[]			containerClosers;
+	private int[]			containerStates;
+
+	public JsonStreamReader( Reader inReader )
+	{
+		reader = inReader;
+		readBuffer = new char[ READ_BUFFER_SIZE ];
+		readPosition = 0;
+		readLength = 0;
+		readEnded = false;
+		readOffset = 0;
+		readLines = 0;
+		readLineOffset = 0;
+		token = null;
+		tokenChars = new char[ TOKEN_SIZE_INITIAL ];
+		tokenLength = 0;
+		tokenValue = null;
+		started = false;
+		depth = 0;
+		containerClosers = new char[ DEPTH_INITIAL ];
+		containerStates = new int[ DEPTH_INITIAL ];
+	}
+
+	// Reads UTF-8 encoded text from the buffer's remaining bytes. Malformed text is reported as an IOException
+	public JsonStreamReader( ByteBuffer inBytes )
+	{
+		this( (Reader) null );
+		byteSource = inBytes;
+		decoder = Charset.forName( "UTF-8" ).newDecoder();
+	}
+
+	// Reads the next token. An object's members are each read as a KEY token followed by the token(s) of
+	// their value. Once the top level value has been read, END_DOCUMENT is returned
+	public Token next() throws IOException, JSONException
+	{
+		if( depth <= 0 )
+		{
+			if( started )
+				return( token = Token.END_DOCUMENT );
+
+			started = true;
+			return( readValueToken( readClean() ) );
+		}
+
+		int containerIndex = depth - 1;
+		char closer = containerClosers[ containerIndex ];
+		int c = readClean();
+		switch( containerStates[containerIndex] )
+		{
+			case STATE_VALUE:
+				if( c == '=' )
+				{
+					int arrowEnd = read();
+					if( arrowEnd >= 0 && arrowEnd != '>' )
+						unread();
+				}
+				else if( c != ':' )
+				{
+					throw syntaxError( "Expected a ':' after a key" );
+				}
+
+				containerStates[ containerIndex ] = STATE_SEPARATOR;
+				return( readValueToken( readClean() ) );
+
+			case STATE_SEPARATOR:
+				if( c == closer )
+					return( endContainer() );
+				if( c != ',' && c != ';' )
+					throw syntaxError( String.format("Expected a ',' or '%1$c'", closer) );
+
+				containerStates[ containerIndex ] = STATE_MEMBER;
+				c = readClean();
+				break;
+		}
+
+		// As with JSONTokener, an array ends here (empty, or after a trailing separator) on a ']' whichever
+		// way it began
+		if( c == ((closer == '}') ? '}' : ']') )
+			return( endContainer() );
+
+		if( closer == '}' )
+		{
+			containerStates[ containerIndex ] = STATE_VALUE;
+			return( readKeyToken( c ) );
+		}
+
+		containerStates[ containerIndex ] = STATE_SEPARATOR;
+		if( c == ',' )
+		{
+			unread();
+			tokenValue = null;
+			return( token = Token.NULL );
+		}
+
+		return( readValueToken( c ) );
+	}
+
+	public Token getToken()
+	{
+		return( token );
+	}
+
+	// The text of the current token: a key, a string (unescaped) or the unquoted text of any other value
+	public String getString()
+	{
+		return( new String(tokenChars, 0, tokenLength) );
+	}
+
+	// The current value token as a JSONObject would hold it: a String, Boolean, Integer, Long, Double or
+	// JSONObject.NULL. A left out array element is null
+	public Object getValue()
+	{
+		if( token == Token.STRING && tokenValue == null )
+			return( getString() );
+
+		return( tokenValue );
+	}
+
+	public long getLong() throws JSONException
+	{
+		if( tokenValue instanceof Number )
+			return( ((Number) tokenValue).longValue() );
+
+		try
+		{
+			return( Long.parseLong( getString() ) );
+		}
+		catch( NumberFormatException e )
+		{
+			throw new JSONException( String.format("JSON value '%1$s' is not a number", getString()) );
+		}
+	}
+
+	public double getDouble() throws JSONException
+	{
+		if( tokenValue instanceof Number )
+			return( ((Number) tokenValue).doubleValue() );
+
+		try
+		{
+			return( Double.parseDouble( getString() ) );
+		}
+		catch( NumberFormatException e )
+		{
+			throw new JSONException( String.format("JSON value '%1$s' is not a number", getString()) );
+		}
+	}
+
+	public boolean getBoolean() throws JSONException
+	{
+		if( tokenValue instanceof Boolean )
+			return( ((Boolean) tokenValue).booleanValue() );
+
+		throw new JSONException( String.format("JSON value '%1$s' is not a boolean", getString()) );
+	}
+
+	// Reads the next value whole: an object as a JSONObject, an array as a JSONArray, or any other value as
+	// getValue() gives it. Lets callers pick out parts of a document while streaming through the rest
+	public Object readValue() throws IOException, JSONException
+	{
+		return( buildValue( next() ) );
+	}
+
+	// Reads a document whose top level value is an object, as JSONObject(String) does
+	public JSONObject readObject() throws IOException, JSONException
+	{
+		if( next() != Token.BEGIN_OBJECT )
+			throw syntaxError( "A JSONObject text must begin with '{'" );
+
+		return( (JSONObject) buildValue( token ) );
+	}
+
+	// Skips the next value, along with everything it holds
+	public void skipValue() throws IOException, JSONException
+	{
+		int valueDepth = depth;
+		next();
+		while( depth > valueDepth )
+			next();
+	}
+
+	public int getDepth()
+	{
+		return( depth );
+	}
+
+	public void close() throws IOException
+	{
+		if( reader != null )
+			reader.close();
+	}
+
+	private Object buildValue( Token valueToken ) throws IOException, JSONException
+	{
+		switch( valueToken )
+		{
+			case BEGIN_OBJECT:
+				JSONObject object = new JSONObject();
+				while( next() != Token.END_OBJECT )
+				{
+					String key = getString();
+					object.putOnce( key, buildValue(next()) );
+				}
+				return( object );
+
+			case BEGIN_ARRAY:
+				JSONArray array = new JSONArray();
+				Token elementToken;
+				while( (elementToken = next()) != Token.END_ARRAY )
+					array.put( buildValue(elementToken) );
+				return( array );
+
+			case END_OBJECT:
+			case END_ARRAY:
+			case KEY:
+			case END_DOCUMENT:
+				throw new IllegalStateException( "No JSON value to read" );
+
+			default:
+				return( getValue() );
+		}
+	}
+
+	private Token readValueToken( int c ) throws IOException, JSONException
+	{
+		tokenValue = null;
+		switch( c )
+		{
+			case '"':
+			case '\'':
+				readQuoted( (char) c );
+				return( token = Token.STRING );
+
+			case '{':
+				beginContainer( '}' );
+				return( token = Token.BEGIN_OBJECT );
+
+			case '[':
+				beginContainer( ']' );
+				return( token = Token.BEGIN_ARRAY );
+
+			case '(':
+				beginContainer( ')' );
+				return( token = Token.BEGIN_ARRAY );
+		}
+
+		// Unquoted text is true, false, null, a number or else a string, as JSONObject.stringToValue() has it
+		readUnquoted( c );
+		tokenValue = JSONObject.stringToValue( getString() );
+		if( tokenValue instanceof Number )
+			return( token = Token.NUMBER );
+		if( tokenValue instanceof Boolean )
+			return( token = Token.BOOLEAN );
+		if( tokenValue == JSONObject.NULL )
+			return( token = Token.NULL );
+
+		return( token = Token.STRING );
+	}
+
+	// As with JSONTokener, any value will do as a key, which is then the value's text (e.g. '0x10' is the key "16")
+	private Token readKeyToken( int c ) throws IOException, JSONException
+	{
+		if( c < 0 )
+			throw syntaxError( "A JSONObject text must end with '}'" );
+
+		if( c == '"' || c == '\'' )
+		{
+			readQuoted( (char) c );
+		}
+		else
+		{
+			String keyText = buildValue( readValueToken(c) ).toString();
+			tokenLength = 0;
+			appendTokenChars( keyText.toCharArray(), 0, keyText.length() );
+		}
+
+		tokenValue = null;
+		return( token = Token.KEY );
+	}
+
+	// Gathers the string up to the closing quote, copying the runs between escapes straight from the read buffer
+	private void readQuoted( char quote ) throws IOException, JSONException
+	{
+		tokenLength = 0;
+		for( ;; )
+		{
+			int runStart = readPosition;
+			while( readPosition < readLength )
+			{
+				char runChar = readBuffer[ readPosition ];
+				if( runChar == quote || runChar == '\\' || runChar == '\n' || runChar == '\r' )
+					break;
+				readPosition++;
+			}
+			appendTokenChars( readBuffer, runStart, readPosition - runStart );
+
+			int c = read();
+			if( c < 0 || c == '\n' || c == '\r' )
+				throw syntaxError( "Unterminated string" );
+			if( c == quote )
+				return;
+
+			if( c == '\\' )
+			{
+				c = read();
+				switch( c )
+				{
+					case 'b':	c = '\b';				break;
+					case 't':	c = '\t';				break;
+					case 'n':	c = '\n';				break;
+					case 'f':	c = '\f';				break;
+					case 'r':	c = '\r';				break;
+					case 'u':	c = readHexChar();		break;
+
+					case '"':
+					case '\'':
+					case '\\':
+					case '/':
+						break;
+
+					default:
+						throw syntaxError( "Illegal escape." );
+				}
+			}
+
+			appendTokenChar( (char) c );
+		}
+	}
+
+	private char readHexChar() throws IOException, JSONException
+	{
+		int hexValue = 0;
+		for( int digitIndex = 0; digitIndex < 4; digitIndex++ )
+		{
+			int c = read();
+			int digit = (c >= 0) ? Character.digit( (char) c, 16 ) : -1;
+			if( digit < 0 )
+				throw syntaxError( "Illegal escape." );
+
+			hexValue = (hexValue << 4) | digit;
+		}
+
+		return( (char) hexValue );
+	}
+
+	// Gathers unquoted text up to the next formatting character, less any trailing spaces
+	private void readUnquoted( int c ) throws IOException, JSONException
+	{
+		tokenLength = 0;
+		while( c >= ' ' && UNQUOTED_TERMINATORS.indexOf(c) < 0 )
+		{
+			appendTokenChar( (char) c );
+			c = read();
+		}
+		if( c >= 0 )
+			unread();
+
+		while( tokenLength > 0 && tokenChars[tokenLength - 1] == ' ' )
+			tokenLength--;
+		if( tokenLength <= 0 )
+			throw syntaxError( "Missing value" );
+	}
+
+	private void appendTokenChar( char c )
+	{
+		if( tokenLength >= tokenChars.length )
+			growTokenChars( tokenLength + 1 );
+
+		tokenChars[ tokenLength++ ] = c;
+	}
+
+	private void appendTokenChars( char[] src, int srcOffset, int length )
+	{
+		if( tokenLength + length > tokenChars.length )
+			growTokenChars( tokenLength + length );
+
+		System.arraycopy( src, srcOffset, tokenChars, tokenLength, length );
+		tokenLength += length;
+	}
+
+	private void growTokenChars( int lengthMin )
+	{
+		char[] newChars = new char[ Math.max( tokenChars.length * 2, lengthMin ) ];
+		System.arraycopy( tokenChars, 0, newChars, 0, tokenLength );
+		tokenChars = newChars;
+	}
+
+	private void beginContainer( char closer )
+	{
+		if( depth >= containerClosers.length )
+		{
+			char[] newClosers = new char[ depth * 2 ];
+			int[] newStates = new int[ depth * 2 ];
+			System.arraycopy( containerClosers, 0, newClosers, 0, depth );
+			System.arraycopy( containerStates, 0, newStates, 0, depth );
+			containerClosers = newClosers;
+			containerStates = newStates;
+		}
+
+		containerClosers[ depth ] = closer;
+		containerStates[ depth ] = STATE_FIRST;
+		depth++;
+	}
+
+	private Token endContainer()
+	{
+		depth--;
+		tokenValue = null;
+		return( token = (containerClosers[depth] == '}') ? Token.END_OBJECT : Token.END_ARRAY );
+	}
+
+	// Returns the next character, or -1 at the end of the text
+	private int read() throws IOException
+	{
+		if( readPosition >= readLength && !fill() )
+			return( -1 );
+
+		return( readBuffer[readPosition++] );
+	}
+
+	// Steps back over the character just read (which must not have been the end of the text)
+	private void unread()
+	{
+		readPosition--;
+	}
+
+	// Returns the next character that is not whitespace, or -1 at the end of the text
+	private int readClean() throws IOException
+	{
+		int c;
+		do
+		{
+			c = read();
+		}
+		while( c >= 0 && c <= ' ' );
+
+		return( c );
+	}
+
+	// Refills the read buffer. Returns false at the end of the text
+	private boolean fill() throws IOException
+	{
+		if( readEnded )
+			return( false );
+
+		for( int charIndex = 0; charIndex < readLength; charIndex++ )
+		{
+			if( readBuffer[charIndex] == '\n' )
+			{
+				readLines++;
+				readLineOffset = readOffset + charIndex + 1;
+			}
+		}
+		readOffset += readLength;
+		readPosition = 0;
+
+		readLength = (decoder != null) ? decode() : reader.read( readBuffer );
+		if( readLength <= 0 )
+		{
+			readLength = 0;
+			readEnded = true;
+			return( false );
+		}
+
+		return( true );
+	}
+
+	private int decode() throws CharacterCodingException
+	{
+		CharBuffer chars = CharBuffer.wrap( readBuffer );
+		CoderResult result = decoder.decode( byteSource, chars, true );
+		if( result.isError() )
+			result.throwException();
+
+		return( chars.position() );
+	}
+
+	private JSONException syntaxError( String message )
+	{
+		long line = readLines;
+		long lineOffset = readLineOffset;
+		for( int charIndex = 0; charIndex < readPosition; charIndex++ )
+		{
+			if( readBuffer[charIndex] == '\n' )
+			{
+				line++;
+				lineOffset = readOffset + charIndex + 1;
+			}
+		}
+
+		return( new JSONException( String.format("%1$s at line %2$d, character %3$d", message, line + 1, readOffset + readPosition - lineOffset) ) );
+	}
+}
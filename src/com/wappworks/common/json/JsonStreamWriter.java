@@ -0,0 +1,278 @@
+/*
+ * Streaming JSON writer
+ *
+ * Copyright 2011 Wappworks Studios
+ */
+package com.wappworks.common.json;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+import org.json.JSONObject;
+
+import com.wappworks.common.util.NumberChars;
+
+// Writes JSON text incrementally to a Writer. Only the container nesting state is retained so memory use
+// is independent of the size of the document being written. When an indent factor is specified, each
+// container member is placed on its own line (similar to JSONObject.toString(int)).
+public class JsonStreamWriter
+{
+	private static final int	DEPTH_INITIAL = 16;
+	private static final int	FRAGMENT_COPY_SIZE = 16 * 1024;
+
+	private Writer		writer;
+	private int			indentFactor;
+	private int			depth;
+	private char[]		containerClosers;
+	private boolean[]	containerHasMembers;
+	private boolean		keyPending;
+	private char[]		numberChars;
+
+	public JsonStreamWriter( Writer inWriter, int inIndentFactor )
+	{
+		writer = inWriter;
+		indentFactor = inIndentFactor;
+		depth = 0;
+		containerClosers = new char[ DEPTH_INITIAL ];
+		containerHasMembers = new boolean[ DEPTH_INITIAL ];
+		keyPending = false;
+		numberChars = new char[ NumberChars.DOUBLE_CHARS_MAX ];
+	}
+
+	public JsonStreamWriter( Writer inWriter )
+	{
+		this( inWriter, 0 );
+	}
+
+	// Creates a writer for a fragment of a larger document. The fragment continues inside the array or
+	// object open at the given depth of the enclosing document, and is added to it via appendFragment()
+	public JsonStreamWriter( Writer inWriter, int inIndentFactor, int inDepth, boolean inArray )
+	{
+		this( inWriter, inIndentFactor );
+
+		while( depth < inDepth )
+			pushContainer( inArray ? ']' : '}' );
+	}
+
+	public JsonStreamWriter beginObject() throws IOException
+	{
+		beginValue();
+		writer.write( '{' );
+		pushContainer( '}' );
+		return( this );
+	}
+
+	public JsonStreamWriter endObject() throws IOException
+	{
+		popContainer( '}' );
+		return( this );
+	}
+
+	public JsonStreamWriter beginArray() throws IOException
+	{
+		beginValue();
+		writer.write( '[' );
+		pushContainer( ']' );
+		return( this );
+	}
+
+	public JsonStreamWriter endArray() throws IOException
+	{
+		popContainer( ']' );
+		return( this );
+	}
+
+	public JsonStreamWriter key( String name ) throws IOException
+	{
+		beginKey();
+		JSONObject.quote( name, writer );
+		endKey();
+		return( this );
+	}
+
+	// Writes a key that has already been quoted (see JSONObject.quote()). Lets callers writing the same keys
+	// repeatedly quote them once
+	public JsonStreamWriter keyQuoted( String quotedName ) throws IOException
+	{
+		beginKey();
+		writer.write( quotedName );
+		endKey();
+		return( this );
+	}
+
+	public JsonStreamWriter value( String value ) throws IOException
+	{
+		if( value == null )
+			return( valueNull() );
+
+		beginValue();
+		JSONObject.quote( value, writer );
+		return( this );
+	}
+
+	// Numbers are formatted into a reusable character buffer, so no string is created for them
+	public JsonStreamWriter value( long value ) throws IOException
+	{
+		beginValue();
+		writer.write( numberChars, 0, NumberChars.formatLong(value, numberChars, 0) );
+		return( this );
+	}
+
+	// Written with the fewest digits that read back as the same value, dropping a trailing ".0" (as
+	// JSONObject.doubleToString() does). Non-finite values have no JSON representation and are written as null
+	public JsonStreamWriter value( double value ) throws IOException
+	{
+		if( Double.isNaN(value) || Double.isInfinite(value) )
+			return( valueNull() );
+
+		beginValue();
+		int length = NumberChars.formatDouble( value, numberChars, 0 );
+		if( numberChars[length - 1] == '0' && numberChars[length - 2] == '.' )
+			length -= 2;
+		writer.write( numberChars, 0, length );
+		return( this );
+	}
+
+	public JsonStreamWriter value( boolean value ) throws IOException
+	{
+		beginValue();
+		writer.write( value ? "true" : "false" );
+		return( this );
+	}
+
+	public JsonStreamWriter valueNull() throws IOException
+	{
+		beginValue();
+		writer.write( "null" );
+		return( this );
+	}
+
+	// Copies a fragment produced by a fragment writer into the current container. Empty fragments are ignored
+	public void appendFragment( Reader fragment ) throws IOException
+	{
+		char[] copyBuffer = new char[ FRAGMENT_COPY_SIZE ];
+		int readLength = fragment.read( copyBuffer );
+		if( readLength <= 0 )
+			return;
+
+		if( depth <= 0 || keyPending )
+			throw new IllegalStateException( "JSON fragment appended outside of a container" );
+
+		if( containerHasMembers[depth - 1] )
+			writer.write( ',' );
+		containerHasMembers[depth - 1] = true;
+
+		do
+		{
+			writer.write( copyBuffer, 0, readLength );
+			readLength = fragment.read( copyBuffer );
+		}
+		while( readLength > 0 );
+	}
+
+	// Carries on writing to another writer, as when the output is split across files
+	public void setWriter( Writer inWriter )
+	{
+		writer = inWriter;
+	}
+
+	public int getDepth()
+	{
+		return( depth );
+	}
+
+	// Closes any containers opened beyond the target depth. Used to keep the document well formed when
+	// a partially written section has to be abandoned
+	public void unwind( int targetDepth ) throws IOException
+	{
+		if( keyPending )
+			valueNull();
+
+		while( depth > targetDepth )
+			popContainer( containerClosers[depth - 1] );
+	}
+
+	public void flush() throws IOException
+	{
+		writer.flush();
+	}
+
+	private void beginKey() throws IOException
+	{
+		if( depth <= 0 || containerClosers[depth - 1] != '}' || keyPending )
+			throw new IllegalStateException( "JSON key written outside of an object" );
+
+		beginMember();
+	}
+
+	private void endKey() throws IOException
+	{
+		writer.write( indentFactor > 0 ? ": " : ":" );
+		keyPending = true;
+	}
+
+	private void beginValue() throws IOException
+	{
+		if( keyPending )
+		{
+			keyPending = false;
+			return;
+		}
+
+		if( depth > 0 && containerClosers[depth - 1] != ']' )
+			throw new IllegalStateException( "JSON object value written without a key" );
+
+		beginMember();
+	}
+
+	private void beginMember() throws IOException
+	{
+		if( depth <= 0 )
+			return;
+
+		if( containerHasMembers[depth - 1] )
+			writer.write( ',' );
+		containerHasMembers[depth - 1] = true;
+
+		writeNewline( depth );
+	}
+
+	private void pushContainer( char closer )
+	{
+		if( depth >= containerClosers.length )
+		{
+			char[] newClosers = new char[ depth * 2 ];
+			boolean[] newHasMembers = new boolean[ depth * 2 ];
+			System.arraycopy( containerClosers, 0, newClosers, 0, depth );
+			System.arraycopy( containerHasMembers, 0, newHasMembers, 0, depth );
+			containerClosers = newClosers;
+			containerHasMembers = newHasMembers;
+		}
+
+		containerClosers[ depth ] = closer;
+		containerHasMembers[ depth ] = false;
+		depth++;
+	}
+
+	private void popContainer( char closer ) throws IOException
+	{
+		if( depth <= 0 || containerClosers[depth - 1] != closer || keyPending )
+			throw new IllegalStateException( String.format("Misplaced JSON container end '%1$c'", closer) );
+
+		depth--;
+		if( containerHasMembers[depth] )
+			writeNewline( depth );
+		writer.write( closer );
+	}
+
+	private void writeNewline( int indentLevel ) throws IOException
+	{
+		if( indentFactor <= 0 )
+			return;
+
+		writer.write( '\n' );
+		for( int spaceCount = indentLevel * indentFactor; spaceCount > 0; spaceCount-- )
+			writer.write( ' ' );
+	}
+}
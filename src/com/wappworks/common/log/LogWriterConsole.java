@@ -10,7 +10,7 @@ public class LogWriterConsole implements LogWriter
 	@Override
 	public void logAppend(String logText)
 	{
-		System.out.print( logText );
+		System.out.println( logText );
 	}
 
 }
@@ -0,0 +1,22 @@
+/* 
+ * Thread-safe Log Writer wrapper
+ *
+ * Copyright 2011 Wappworks Studios
+ */
+package com.wappworks.common.log;
+
+public class LogWriterSynchronized implements LogWriter
+{
+	private LogWriter logWriter;
+	
+	public LogWriterSynchronized( LogWriter inLogWriter )
+	{
+		logWriter = inLogWriter;
+	}
+	
+	@Override
+	public synchronized void logAppend(String logText)
+	{
+		logWriter.logAppend( logText );
+	}
+}
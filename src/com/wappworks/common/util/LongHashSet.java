@@ -0,0 +1,103 @@
+/* 
+ * Primitive long hash set
+ *
+ * Copyright 2011 Wappworks Studios
+ */
+package com.wappworks.common.util;
+
+// A set of long values held in a single open-addressed array. Unlike a HashSet<Long>, no object is allocated
+// per value, so a value costs 16 bytes or less rather than the 50 or so bytes of a boxed hash set entry
+public class LongHashSet
+{
+	private static final int	CAPACITY_INITIAL = 1024;
+	
+	// Zero marks an empty slot, so the zero value itself is tracked separately
+	private long[]		slots;
+	private int			slotMask;
+	private int			size;
+	private boolean		hasZero;
+	
+	public LongHashSet()
+	{
+		slots = new long[ CAPACITY_INITIAL ];
+		slotMask = CAPACITY_INITIAL - 1;
+		size = 0;
+		hasZero = false;
+	}
+	
+	// Adds the value to the set. Returns false if the value was already present
+	public boolean add( long value )
+	{
+		if( value == 0 )
+		{
+			if( hasZero )
+				return( false );
+			
+			hasZero = true;
+			size++;
+			return( true );
+		}
+		
+		int slotIndex = getSlotIndex( value );
+		while( slots[slotIndex] != 0 )
+		{
+			if( slots[slotIndex] == value )
+				return( false );
+			slotIndex = (slotIndex + 1) & slotMask;
+		}
+		
+		slots[ slotIndex ] = value;
+		size++;
+		
+		// Kept at most half full so probe sequences stay short
+		if( size * 2 > slots.length )
+			grow();
+		return( true );
+	}
+	
+	public boolean contains( long value )
+	{
+		if( value == 0 )
+			return( hasZero );
+		
+		int slotIndex = getSlotIndex( value );
+		while( slots[slotIndex] != 0 )
+		{
+			if( slots[slotIndex] == value )
+				return( true );
+			slotIndex = (slotIndex + 1) & slotMask;
+		}
+		
+		return( false );
+	}
+	
+	public int size()
+	{
+		return( size );
+	}
+	
+	// Spreads sequential values (the common case for keys) across the table
+	private int getSlotIndex( long value )
+	{
+		long hash = value * 0x9E3779B97F4A7C15L;
+		return( (int) (hash ^ (hash >>> 32)) & slotMask );
+	}
+	
+	private void grow()
+	{
+		long[] oldSlots = slots;
+		slots = new long[ oldSlots.length * 2 ];
+		slotMask = slots.length - 1;
+		
+		for( long value : oldSlots )
+		{
+			if( value == 0 )
+				continue;
+			
+			int slotIndex = getSlotIndex( value );
+			while( slots[slotIndex] != 0 )
+				slotIndex = (slotIndex + 1) & slotMask;
+			slots[ slotIndex ] = value;
+		}
+	}
+}
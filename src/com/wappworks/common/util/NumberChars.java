@@ -0,0 +1,317 @@
+/*
+ * Number to character conversion
+ *
+ * Copyright 2011 Wappworks Studios
+ */
+package com.wappworks.common.util;
+
+import java.math.BigInteger;
+
+// Formats long and double values straight into a character array, so that writing a number involves no
+// temporary string. Doubles are written with the fewest digits that read back as the same value, laid out
+// the way Double.toString() lays them out. The digits are found with the Schubfach algorithm (R. Giulietti,
+// "The Schubfach way to render doubles"), which is also what Double.toString() uses from Java 19 on
+public class NumberChars
+{
+	// The most characters a long or double value is written with
+	public static final int		LONG_CHARS_MAX = 20;
+	public static final int		DOUBLE_CHARS_MAX = 24;
+
+	private static final int	SIGNIFICAND_BITS = 53;
+	private static final int	EXPONENT_MIN = -1074;
+	private static final long	SIGNIFICAND_MIN = 1L << (SIGNIFICAND_BITS - 1);
+	private static final long	SIGNIFICAND_TINY = 3;
+	private static final long	MASK_63 = (1L << 63) - 1;
+
+	// Values from 10^-3 (inclusive) to 10^7 (exclusive) are written in plain notation
+	private static final int	PLAIN_EXPONENT_MIN = -3;
+	private static final int	PLAIN_EXPONENT_MAX = 7;
+
+	// 126 bit approximations (from above) of the powers of ten 10^-k, for k from POW10_K_MIN to POW10_K_MAX,
+	// as pairs of their upper 63 bits and lower 63 bits
+	private static final int	POW10_K_MIN = -324;
+	private static final int	POW10_K_MAX = 292;
+	private static final long[]	POW10_BITS;
+
+	private static final char[]	CHARS_LONG_MIN = "-9223372036854775808".toCharArray();
+	private static final char[]	CHARS_NAN = "NaN".toCharArray();
+	private static final char[]	CHARS_INFINITY = "Infinity".toCharArray();
+
+	static
+	{
+		POW10_BITS = new long[ (POW10_K_MAX - POW10_K_MIN + 1) * 2 ];
+		for( int k = POW10_K_MIN; k <= POW10_K_MAX; k++ )
+		{
+			// Scaled into [2^125, 2^126), rounded down, plus one
+			BigInteger pow10;
+			if( k <= 0 )
+			{
+				pow10 = BigInteger.TEN.pow( -k );
+				int shift = pow10.bitLength() - 126;
+				pow10 = (shift >= 0) ? pow10.shiftRight( shift ) : pow10.shiftLeft( -shift );
+			}
+			else
+			{
+				BigInteger divisor = BigInteger.TEN.pow( k );
+				pow10 = BigInteger.ONE.shiftLeft( divisor.bitLength() + 125 ).divide( divisor );
+			}
+			pow10 = pow10.add( BigInteger.ONE );
+
+			int bitsIndex = (k - POW10_K_MIN) * 2;
+			POW10_BITS[ bitsIndex ] = pow10.shiftRight( 63 ).longValue();
+			POW10_BITS[ bitsIndex + 1 ] = pow10.longValue() & MASK_63;
+		}
+	}
+
+	private NumberChars()
+	{
+	}
+
+	// Writes the value's decimal digits (with a leading '-' if negative) from the given offset. Returns the
+	// offset following the last character written
+	public static int formatLong( long value, char[] dest, int offset )
+	{
+		if( value == Long.MIN_VALUE )
+		{
+			System.arraycopy( CHARS_LONG_MIN, 0, dest, offset, CHARS_LONG_MIN.length );
+			return( offset + CHARS_LONG_MIN.length );
+		}
+
+		if( value < 0 )
+		{
+			dest[ offset++ ] = '-';
+			value = -value;
+		}
+
+		int end = offset + digitsNum( value );
+		writeDigits( value, dest, end );
+		return( end );
+	}
+
+	// Writes the value as Double.toString() does (from Java 19 on) from the given offset: the shortest
+	// digits that read back as the same value, in plain notation from 10^-3 to 10^7 and in computerised
+	// scientific notation ("1.0E-5") otherwise. Returns the offset following the last character written
+	public static int formatDouble( double value, char[] dest, int offset )
+	{
+		long valueBits = Double.doubleToRawLongBits( value );
+		long fraction = valueBits & (SIGNIFICAND_MIN - 1);
+		int biasedExponent = (int) (valueBits >>> (SIGNIFICAND_BITS - 1)) & 0x7FF;
+		if( biasedExponent == 0x7FF )
+		{
+			if( fraction != 0 )
+				return( copy( CHARS_NAN, dest, offset ) );
+
+			if( valueBits < 0 )
+				dest[ offset++ ] = '-';
+			return( copy( CHARS_INFINITY, dest, offset ) );
+		}
+
+		if( valueBits < 0 )
+			dest[ offset++ ] = '-';
+
+		if( biasedExponent != 0 )
+		{
+			// Normal value
+			int exponentNeg = -EXPONENT_MIN + 1 - biasedExponent;
+			long significand = SIGNIFICAND_MIN | fraction;
+			if( exponentNeg > 0 && exponentNeg < SIGNIFICAND_BITS )
+			{
+				// Integers below 2^53 are written as they are
+				long integer = significand >> exponentNeg;
+				if( (integer << exponentNeg) == significand )
+					return( layout( integer, 0, dest, offset ) );
+			}
+			return( formatDecimal( -exponentNeg, significand, 0, dest, offset ) );
+		}
+
+		if( fraction != 0 )
+		{
+			// Subnormal value. The very smallest are given an extra digit to work with
+			if( fraction < SIGNIFICAND_TINY )
+				return( formatDecimal( EXPONENT_MIN, 10 * fraction, -1, dest, offset ) );
+			return( formatDecimal( EXPONENT_MIN, fraction, 0, dest, offset ) );
+		}
+
+		dest[ offset++ ] = '0';
+		dest[ offset++ ] = '.';
+		dest[ offset++ ] = '0';
+		return( offset );
+	}
+
+	// Finds the shortest decimal in the rounding interval of significand * 2^exponent (the one closest to
+	// the value if there are several) and writes it out
+	private static int formatDecimal( int exponent, long significand, int decimalExponentAdjust, char[] dest, int offset )
+	{
+		int isOdd = (int) significand & 1;
+		long scaled = significand << 2;
+		long scaledRight = scaled + 2;
+		long scaledLeft;
+		int k;
+		if( significand != SIGNIFICAND_MIN || exponent == EXPONENT_MIN )
+		{
+			scaledLeft = scaled - 2;
+			k = floorLog10Pow2( exponent );
+		}
+		else
+		{
+			// The interval is narrower below a power of two
+			scaledLeft = scaled - 1;
+			k = floorLog10ThreeQuartersPow2( exponent );
+		}
+
+		int shift = exponent + floorLog2Pow10( -k ) + 2;
+		int bitsIndex = (k - POW10_K_MIN) * 2;
+		long pow10Hi = POW10_BITS[ bitsIndex ];
+		long pow10Lo = POW10_BITS[ bitsIndex + 1 ];
+		long value = roundToOdd( pow10Hi, pow10Lo, scaled << shift );
+		long valueLeft = roundToOdd( pow10Hi, pow10Lo, scaledLeft << shift );
+		long valueRight = roundToOdd( pow10Hi, pow10Lo, scaledRight << shift );
+
+		long digits = value >> 2;
+		if( digits >= 100 )
+		{
+			// One digit fewer may do
+			long digitsShort = (digits / 10) * 10;
+			long digitsShortUp = digitsShort + 10;
+			boolean shortIn = valueLeft + isOdd <= (digitsShort << 2);
+			boolean shortUpIn = (digitsShortUp << 2) + isOdd <= valueRight;
+			if( shortIn != shortUpIn )
+				return( layout( shortIn ? digitsShort : digitsShortUp, k, dest, offset ) );
+		}
+
+		long digitsUp = digits + 1;
+		boolean digitsIn = valueLeft + isOdd <= (digits << 2);
+		boolean digitsUpIn = (digitsUp << 2) + isOdd <= valueRight;
+		if( digitsIn != digitsUpIn )
+			return( layout( digitsIn ? digits : digitsUp, k + decimalExponentAdjust, dest, offset ) );
+
+		// Both in (or neither): whichever is closer, ties to even
+		long compare = value - ((digits + digitsUp) << 1);
+		boolean roundDown = compare < 0 || (compare == 0 && (digits & 1) == 0);
+		return( layout( roundDown ? digits : digitsUp, k + decimalExponentAdjust, dest, offset ) );
+	}
+
+	// Writes digits * 10^exponent, where digits is positive
+	private static int layout( long digits, int exponent, char[] dest, int offset )
+	{
+		while( digits % 10 == 0 )
+		{
+			digits /= 10;
+			exponent++;
+		}
+
+		int digitsLength = digitsNum( digits );
+		int pointExponent = exponent + digitsLength - 1;
+		if( pointExponent < PLAIN_EXPONENT_MIN || pointExponent >= PLAIN_EXPONENT_MAX )
+		{
+			// d.dddE[-]n
+			int end = offset + digitsLength + 1;
+			writeDigits( digits, dest, end );
+			dest[ offset ] = dest[ offset + 1 ];
+			dest[ offset + 1 ] = '.';
+			if( digitsLength == 1 )
+				dest[ end++ ] = '0';
+			dest[ end++ ] = 'E';
+			return( formatLong( pointExponent, dest, end ) );
+		}
+
+		if( pointExponent < 0 )
+		{
+			// 0.000ddd
+			dest[ offset++ ] = '0';
+			dest[ offset++ ] = '.';
+			for( int zeroIndex = pointExponent + 1; zeroIndex < 0; zeroIndex++ )
+				dest[ offset++ ] = '0';
+			int end = offset + digitsLength;
+			writeDigits( digits, dest, end );
+			return( end );
+		}
+
+		int integerLength = pointExponent + 1;
+		if( digitsLength <= integerLength )
+		{
+			// ddd000.0
+			int end = offset + digitsLength;
+			writeDigits( digits, dest, end );
+			for( ; end < offset + integerLength; end++ )
+				dest[ end ] = '0';
+			dest[ end++ ] = '.';
+			dest[ end++ ] = '0';
+			return( end );
+		}
+
+		// ddd.ddd
+		int end = offset + digitsLength + 1;
+		writeDigits( digits, dest, end );
+		System.arraycopy( dest, offset + 1, dest, offset, integerLength );
+		dest[ offset + integerLength ] = '.';
+		return( end );
+	}
+
+	// Writes the digits of a non-negative value backwards, ending just before the given offset
+	private static void writeDigits( long value, char[] dest, int end )
+	{
+		do
+		{
+			long quotient = value / 10;
+			dest[ --end ] = (char) ('0' + (int) (value - quotient * 10));
+			value = quotient;
+		}
+		while( value != 0 );
+	}
+
+	private static int digitsNum( long value )
+	{
+		int digitsNum = 1;
+		for( long limit = 10; digitsNum < 19 && value >= limit; limit *= 10 )
+			digitsNum++;
+		return( digitsNum );
+	}
+
+	private static int copy( char[] chars, char[] dest, int offset )
+	{
+		System.arraycopy( chars, 0, dest, offset, chars.length );
+		return( offset + chars.length );
+	}
+
+	// The upper bits of (pow10 * value) / 2^127, with the lowest bit set if any lower bits were set
+	private static long roundToOdd( long pow10Hi, long pow10Lo, long value )
+	{
+		long productLoHi = multiplyHigh( pow10Lo, value );
+		long productHiLo = pow10Hi * value;
+		long productHiHi = multiplyHigh( pow10Hi, value );
+		long sum = (productHiLo >>> 1) + productLoHi;
+		long result = productHiHi + (sum >>> 63);
+		return( result | (((sum & MASK_63) + MASK_63) >>> 63) );
+	}
+
+	// The upper 64 bits of the product of two non-negative values
+	private static long multiplyHigh( long a, long b )
+	{
+		long aHi = a >>> 32;
+		long aLo = a & 0xFFFFFFFFL;
+		long bHi = b >>> 32;
+		long bLo = b & 0xFFFFFFFFL;
+		long loLo = aLo * bLo;
+		long cross = aHi * bLo + (loLo >>> 32);
+		long crossLo = (cross & 0xFFFFFFFFL) + aLo * bHi;
+		return( aHi * bHi + (cross >>> 32) + (crossLo >>> 32) );
+	}
+
+	// floor(log10(2^exponent)), floor(log10(3/4 * 2^exponent)) and floor(log2(10^exponent)), for the
+	// exponents that come up here
+	private static int floorLog10Pow2( int exponent )
+	{
+		return( (int) ((exponent * 661971961083L) >> 41) );
+	}
+
+	private static int floorLog10ThreeQuartersPow2( int exponent )
+	{
+		return( (int) ((exponent * 661971961083L - 274743187321L) >> 41) );
+	}
+
+	private static int floorLog2Pow10( int exponent )
+	{
+		return( (int) ((exponent * 913124641741L) >> 38) );
+	}
+}
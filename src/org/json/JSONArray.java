@@ -25,6 +25,7 @@ SOFTWARE.
 */
 
 import java.io.IOException;
+import java.io.StringWriter;
 import java.io.Writer;
 import java.lang.reflect.Array;
 import java.util.ArrayList;
@@ -349,7 +350,7 @@ public class JSONArray {
      */
     public String join(String separator) throws JSONException {
         int len = length();
-        StringBuffer sb = new StringBuffer();
+        StringBuilder sb = new StringBuilder();
 
         for (int i = 0; i < len; i += 1) {
             if (i > 0) {
@@ -847,35 +848,7 @@ public class JSONArray {
      * @throws JSONException
      */
     String toString(int indentFactor, int indent) throws JSONException {
-        int len = length();
-        if (len == 0) {
-            return "[]";
-        }
-        int i;
-        StringBuffer sb = new StringBuffer("[");
-        if (len == 1) {
-            sb.append(JSONObject.valueToString(this.myArrayList.get(0),
-                    indentFactor, indent));
-        } else {
-            int newindent = indent + indentFactor;
-            sb.append('\n');
-            for (i = 0; i < len; i += 1) {
-                if (i > 0) {
-                    sb.append(",\n");
-                }
-                for (int j = 0; j < newindent; j += 1) {
-                    sb.append(' ');
-                }
-                sb.append(JSONObject.valueToString(this.myArrayList.get(i),
-                        indentFactor, newindent));
-            }
-            sb.append('\n');
-            for (i = 0; i < indent; i += 1) {
-                sb.append(' ');
-            }
-        }
-        sb.append(']');
-        return sb.toString();
+        return write(new StringWriter(), indentFactor, indent).toString();
     }
 
 
@@ -915,4 +888,54 @@ public class JSONArray {
            throw new JSONException(e);
         }
     }
+
+
+    /**
+     * Write the contents of the JSONArray as prettyprinted JSON text to a
+     * writer. The text is the same as that of toString(indentFactor), but is
+     * written out as it is produced rather than built up in memory, level by
+     * level.
+     * <p>
+     * Warning: This method assumes that the data structure is acyclical.
+     *
+     * @param writer The writer.
+     * @param indentFactor The number of spaces to add to each level of
+     *  indentation.
+     * @param indent The indention of the top level.
+     * @return The writer.
+     * @throws JSONException If the array contains an invalid number, or
+     *  the writer fails.
+     */
+    public Writer write(Writer writer, int indentFactor, int indent)
+            throws JSONException {
+        try {
+            int len = length();
+            if (len == 0) {
+                writer.write("[]");
+                return writer;
+            }
+            writer.write('[');
+            if (len == 1) {
+                JSONObject.writeValue(writer, this.myArrayList.get(0),
+                        indentFactor, indent);
+            } else {
+                int newindent = indent + indentFactor;
+                writer.write('\n');
+                for (int i = 0; i < len; i += 1) {
+                    if (i > 0) {
+                        writer.write(",\n");
+                    }
+                    JSONObject.writeIndent(writer, newindent);
+                    JSONObject.writeValue(writer, this.myArrayList.get(i),
+                            indentFactor, newindent);
+                }
+                writer.write('\n');
+                JSONObject.writeIndent(writer, indent);
+            }
+            writer.write(']');
+            return writer;
+        } catch (IOException e) {
+           throw new JSONException(e);
+        }
+    }
 }
\ No newline at end of file
@@ -308,7 +308,7 @@ public class JSONML {
     	String       k;
 	    Iterator<?>     keys;
 	    int			 length;
-    	StringBuffer sb = new StringBuffer();
+    	StringBuilder sb = new StringBuilder();
 	    String       tagName;
 	    String       v;
 	    
@@ -384,7 +384,7 @@ public class JSONML {
      * @throws JSONException
      */
 	public static String toString(JSONObject jo) throws JSONException {
-	    StringBuffer sb = new StringBuffer();
+	    StringBuilder sb = new StringBuilder();
 	    Object		 e;
 	    int          i;
 	    JSONArray    ja;
@@ -25,6 +25,7 @@ SOFTWARE.
 */
 
 import java.io.IOException;
+import java.io.StringWriter;
 import java.io.Writer;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
@@ -140,6 +141,31 @@ public class JSONObject {
     public static final Object NULL = new Null();
 
 
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+
+    /**
+     * The escape sequence of each ASCII character, or null for the
+     * characters that are written as they are. A '/' is only escaped when it
+     * follows a '<'.
+     */
+    private static final String[] ESCAPES = new String[128];
+
+    static {
+        for (int c = 0; c < ' '; c += 1) {
+            ESCAPES[c] = "\\u00" + HEX_DIGITS[c >> 4] + HEX_DIGITS[c & 0xF];
+        }
+        ESCAPES['\b'] = "\\b";
+        ESCAPES['\t'] = "\\t";
+        ESCAPES['\n'] = "\\n";
+        ESCAPES['\f'] = "\\f";
+        ESCAPES['\r'] = "\\r";
+        ESCAPES['"'] = "\\\"";
+        ESCAPES['\\'] = "\\\\";
+        ESCAPES['/'] = "\\/";
+    }
+
+
     /**
      * Construct an empty JSONObject.
      */
@@ -1116,57 +1142,68 @@ public class JSONObject {
         if (string == null || string.length() == 0) {
             return "\"\"";
         }
+        StringWriter sw = new StringWriter(string.length() + 4);
+        try {
+            quote(string, sw);
+        } catch (IOException ignore) {
+            // A StringWriter does not fail
+        }
+        return sw.toString();
+    }
 
-        char         b;
-        char         c = 0;
-        int          i;
-        int          len = string.length();
-        StringBuffer sb = new StringBuffer(len + 4);
-        String       t;
 
-        sb.append('"');
-        for (i = 0; i < len; i += 1) {
-            b = c;
-            c = string.charAt(i);
-            switch (c) {
-            case '\\':
-            case '"':
-                sb.append('\\');
-                sb.append(c);
-                break;
-            case '/':
-                if (b == '<') {
-                    sb.append('\\');
-                }
-                sb.append(c);
-                break;
-            case '\b':
-                sb.append("\\b");
-                break;
-            case '\t':
-                sb.append("\\t");
-                break;
-            case '\n':
-                sb.append("\\n");
-                break;
-            case '\f':
-                sb.append("\\f");
-                break;
-            case '\r':
-                sb.append("\\r");
-                break;
-            default:
-                if (c < ' ' || (c >= '\u0080' && c < '\u00a0') ||
-                               (c >= '\u2000' && c < '\u2100')) {
-                    t = "000" + Integer.toHexString(c);
-                    sb.append("\\u" + t.substring(t.length() - 4));
-                } else {
-                    sb.append(c);
+    /**
+     * Write a string in double quotes with backslash sequences in all the
+     * right places, as quote(String) makes it. The characters needing an
+     * escape are looked up in a table, and the runs of characters between
+     * them are written to the writer whole.
+     * @param string A String
+     * @param writer The writer.
+     * @return The writer.
+     * @throws IOException If the writer fails.
+     */
+    public static Writer quote(String string, Writer writer)
+            throws IOException {
+        if (string == null || string.length() == 0) {
+            writer.write("\"\"");
+            return writer;
+        }
+
+        int len = string.length();
+        int runStart = 0;
+        writer.write('"');
+        for (int i = 0; i < len; i += 1) {
+            char c = string.charAt(i);
+            String escape = null;
+            if (c < 128) {
+                escape = ESCAPES[c];
+                if (escape == null ||
+                        (c == '/' && (i == 0 || string.charAt(i - 1) != '<'))) {
+                    continue;
                 }
+            } else if (c >= '\u00a0' && (c < '\u2000' || c >= '\u2100')) {
+                continue;
+            }
+
+            if (i > runStart) {
+                writer.write(string, runStart, i - runStart);
+            }
+            runStart = i + 1;
+            if (escape != null) {
+                writer.write(escape);
+            } else {
+                writer.write("\\u");
+                writer.write(HEX_DIGITS[c >> 12]);
+                writer.write(HEX_DIGITS[(c >> 8) & 0xF]);
+                writer.write(HEX_DIGITS[(c >> 4) & 0xF]);
+                writer.write(HEX_DIGITS[c & 0xF]);
             }
         }
-        sb.append('"');
-        return sb.toString();
+        if (len > runStart) {
+            writer.write(string, runStart, len - runStart);
+        }
+        writer.write('"');
+        return writer;
     }
 
     /**
@@ -1302,7 +1339,7 @@ public class JSONObject {
     public String toString() {
         try {
             Iterator<String>     keys = keys();
-            StringBuffer sb = new StringBuffer("{");
+            StringBuilder sb = new StringBuilder("{");
 
             while (keys.hasNext()) {
                 if (sb.length() > 1) {
@@ -1352,46 +1389,7 @@ public class JSONObject {
      * @throws JSONException If the object contains an invalid number.
      */
     String toString(int indentFactor, int indent) throws JSONException {
-        int j;
-        int n = length();
-        if (n == 0) {
-            return "{}";
-        }
-        Iterator<String>     keys = sortedKeys();
-        StringBuffer sb = new StringBuffer("{");
-        int          newindent = indent + indentFactor;
-        Object       o;
-        if (n == 1) {
-            o = keys.next();
-            sb.append(quote(o.toString()));
-            sb.append(": ");
-            sb.append(valueToString(this.map.get(o), indentFactor,
-                    indent));
-        } else {
-            while (keys.hasNext()) {
-                o = keys.next();
-                if (sb.length() > 1) {
-                    sb.append(",\n");
-                } else {
-                    sb.append('\n');
-                }
-                for (j = 0; j < newindent; j += 1) {
-                    sb.append(' ');
-                }
-                sb.append(quote(o.toString()));
-                sb.append(": ");
-                sb.append(valueToString(this.map.get(o), indentFactor,
-                        newindent));
-            }
-            if (sb.length() > 1) {
-                sb.append('\n');
-                for (j = 0; j < indent; j += 1) {
-                    sb.append(' ');
-                }
-            }
-        }
-        sb.append('}');
-        return sb.toString();
+        return write(new StringWriter(), indentFactor, indent).toString();
     }
 
 
@@ -1593,4 +1591,98 @@ public class JSONObject {
             throw new JSONException(exception);
         }
      }
+
+
+     /**
+      * Write the contents of the JSONObject as prettyprinted JSON text to a
+      * writer. The text is the same as that of toString(indentFactor), but is
+      * written out as it is produced rather than built up in memory, level by
+      * level.
+      * <p>
+      * Warning: This method assumes that the data structure is acyclical.
+      *
+      * @param writer The writer.
+      * @param indentFactor The number of spaces to add to each level of
+      *  indentation.
+      * @param indent The indentation of the top level.
+      * @return The writer.
+      * @throws JSONException If the object contains an invalid number, or
+      *  the writer fails.
+      */
+     public Writer write(Writer writer, int indentFactor, int indent)
+             throws JSONException {
+        try {
+            int n = length();
+            if (n == 0) {
+                writer.write("{}");
+                return writer;
+            }
+            Iterator<String> keys = sortedKeys();
+            int newindent = indent + indentFactor;
+            writer.write('{');
+            if (n == 1) {
+                Object k = keys.next();
+                writer.write(quote(k.toString()));
+                writer.write(": ");
+                writeValue(writer, this.map.get(k), indentFactor, indent);
+            } else {
+                boolean b = false;
+                while (keys.hasNext()) {
+                    Object k = keys.next();
+                    writer.write(b ? ",\n" : "\n");
+                    writeIndent(writer, newindent);
+                    writer.write(quote(k.toString()));
+                    writer.write(": ");
+                    writeValue(writer, this.map.get(k), indentFactor,
+                            newindent);
+                    b = true;
+                }
+                writer.write('\n');
+                writeIndent(writer, indent);
+            }
+            writer.write('}');
+            return writer;
+        } catch (IOException exception) {
+            throw new JSONException(exception);
+        }
+     }
+
+
+     /**
+      * Write a value as prettyprinted JSON text to a writer, as
+      * valueToString(value, indentFactor, indent) would make it. Objects and
+      * arrays are written out member by member.
+      */
+     static Writer writeValue(Writer writer, Object value, int indentFactor,
+             int indent) throws JSONException, IOException {
+        if (!(value instanceof JSONString)) {
+            if (value instanceof JSONObject) {
+                return ((JSONObject)value).write(writer, indentFactor, indent);
+            }
+            if (value instanceof JSONArray) {
+                return ((JSONArray)value).write(writer, indentFactor, indent);
+            }
+            if (value instanceof Map<?, ?>) {
+                return new JSONObject((Map<?, ?>)value).write(writer,
+                        indentFactor, indent);
+            }
+            if (value instanceof Collection<?>) {
+                return new JSONArray((Collection<?>)value).write(writer,
+                        indentFactor, indent);
+            }
+            if (value != null && value.getClass().isArray()) {
+                return new JSONArray(value).write(writer, indentFactor,
+                        indent);
+            }
+        }
+        writer.write(valueToString(value, indentFactor, indent));
+        return writer;
+     }
+
+
+     static void writeIndent(Writer writer, int indent) throws IOException {
+        for (int i = 0; i < indent; i += 1) {
+            writer.write(' ');
+        }
+     }
 }
\ No newline at end of file